@@ -94,9 +94,10 @@ abstract class Distribution {
     abstract String getString();
 
     /**
+     * @param rng The random context to sample from
      * @return A random value sampled from this distribution
      */
-    abstract double sample();
+    abstract double sample(RngUtility rng);
 
     /**
      * This isn't part of the constructor because Distribution objects are often constructed during their
@@ -172,12 +173,13 @@ class Gaussian extends Distribution {
      * Note that this may need to sample many times if the range {@code (lowerBound, upperBound)} is in one of the
      * extreme tails of the distribution.
      *
+     * @param rng The random context to sample from
      * @return A value sampled from this distribution between lowerBound (inclusive) and upperBound (exclusive)
      */
-    public double sample() {
+    public double sample(RngUtility rng) {
         double val;
         do {
-            val = RngUtility.rng.nextGaussian() * sigma.value() + mean.value();
+            val = rng.nextGaussian() * sigma.value() + mean.value();
         }
         while (val < lowerBound || val > upperBound);
         return val;
@@ -261,12 +263,13 @@ class Uniform extends Distribution {
     }
 
     /**
+     * @param rng The random context to sample from
      * @return A value between Math.max(lowerBound, min) inclusive and Math.min(upperBound, max) exclusive
      */
-    public double sample() {
+    public double sample(RngUtility rng) {
         double trimMin = Math.max(lowerBound, min.value());
         double trimMax = Math.min(upperBound, max.value());
-        return RngUtility.nextDouble(trimMin, trimMax);
+        return rng.nextDouble(trimMin, trimMax);
     }
 
     /**
@@ -351,10 +354,11 @@ class PiecewiseLinear extends Distribution {
     }
 
     /**
+     * @param rng The random context to sample from
      * @return A value sampled from the piecewise linear distribution. The tails (beyond the minimum and maximum
      * specified x values) have zero probability density.
      */
-    public double sample() {
+    public double sample(RngUtility rng) {
         double integral = 0.0;
         for (int i = 0; i < distribution.size() - 1; i++) {
             double[] p1 = distribution.get(i);
@@ -369,7 +373,7 @@ class PiecewiseLinear extends Distribution {
         // Corresponds to the index of the x-value we've last integrated to
         int i = 0;
         double cdf = 0.0;
-        double rand = RngUtility.rng.nextDouble();
+        double rand = rng.nextDouble();
         double cdfPrev = 0.0;
         for (; i < normalized.size() - 1 && cdf < rand; i++) {
             cdfPrev = cdf;
@@ -20,8 +20,9 @@ public class EntryPoint {
 
     /**
      * If one or more command-line arguments were passed, the first is interpreted as the path to the params file.
-     * Generation is run using the provided params file and results are written to the "output" folder. If no arguments
-     * were passed the program runs in GUI mode.
+     * Generation is run using the provided params file and results are written to the "output" folder as each image is
+     * finished, so images aren't kept in memory (using a multi-stage pipeline if {@code params.pipeline} is used). If
+     * no arguments were passed the program runs in GUI mode.
      */
     public static void main(String[] args) {
         if (args.length > 0) {
@@ -29,8 +30,12 @@ public class EntryPoint {
             try {
                 ImageCollection.Params params = IOManager.readParamsFile(args[0]);
                 ImageCollection collection = new ImageCollection(params);
-                collection.generateImages();
-                IOManager.writeResults(params, collection, "output" + File.separator);
+                String outFolder = "output" + File.separator;
+                if (params.pipeline.use) {
+                    IOManager.writeResultsStaged(params, collection, outFolder);
+                } else {
+                    IOManager.writeResultsStreamed(params, collection, outFolder);
+                }
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
             }
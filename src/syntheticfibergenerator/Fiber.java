@@ -10,10 +10,16 @@
 
 package syntheticfibergenerator;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 
@@ -67,6 +73,159 @@ class Fiber implements Iterable<Fiber.Segment> {
         }
     }
 
+    /**
+     * Streams a fiber to and from JSON with the same fields and order as Gson's reflection over the original
+     * list-based fields: {@code params}, {@code points}, and {@code widths}.
+     */
+    static class Adapter extends TypeAdapter<Fiber> {
+
+        // Used for the endpoints
+        private final Vector.Adapter vectorAdapter = new Vector.Adapter();
+
+
+        @Override
+        public void write(JsonWriter out, Fiber fiber) throws IOException {
+            double[] x = fiber.geometry.x;
+            double[] y = fiber.geometry.y;
+            double[] width = fiber.geometry.width;
+            out.beginObject();
+            out.name("params");
+            writeParams(out, fiber.params);
+            out.name("points").beginArray();
+            for (int i = fiber.offset; i < fiber.offset + fiber.nPoints; i++) {
+                out.beginObject();
+                out.name("x").value(x[i]);
+                out.name("y").value(y[i]);
+                out.endObject();
+            }
+            out.endArray();
+            out.name("widths").beginArray();
+            for (int i = fiber.offset; i < fiber.offset + fiber.nPoints - 1; i++) {
+                out.value(width[i]);
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public Fiber read(JsonReader in) throws IOException {
+            return read(in, new FiberGeometry());
+        }
+
+        /**
+         * Reads a fiber into the given store. There should be one fewer width than points; missing widths are read as
+         * zero and extra widths are dropped.
+         *
+         * @param in       Where to read the fiber
+         * @param geometry The store which receives the fiber's points and widths
+         * @return The fiber read
+         * @throws IOException If reading fails
+         */
+        Fiber read(JsonReader in, FiberGeometry geometry) throws IOException {
+            Params params = new Params();
+            double[] x = new double[0];
+            double[] y = new double[0];
+            double[] width = new double[0];
+            int nPoints = 0;
+            int nWidths = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "params":
+                        params = readParams(in);
+                        break;
+                    case "points":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            Vector point = vectorAdapter.read(in);
+                            if (nPoints == x.length) {
+                                x = Arrays.copyOf(x, 2 * nPoints + 1);
+                                y = Arrays.copyOf(y, 2 * nPoints + 1);
+                            }
+                            x[nPoints] = point.getX();
+                            y[nPoints] = point.getY();
+                            nPoints++;
+                        }
+                        in.endArray();
+                        break;
+                    case "widths":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            if (nWidths == width.length) {
+                                width = Arrays.copyOf(width, 2 * nWidths + 1);
+                            }
+                            width[nWidths++] = in.nextDouble();
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            Fiber fiber = new Fiber(params, geometry);
+            fiber.allocate(nPoints);
+            System.arraycopy(x, 0, geometry.x, fiber.offset, nPoints);
+            System.arraycopy(y, 0, geometry.y, fiber.offset, nPoints);
+            System.arraycopy(width, 0, geometry.width, fiber.offset, Math.min(nWidths, Math.max(0, nPoints - 1)));
+            return fiber;
+        }
+
+        private void writeParams(JsonWriter out, Params params) throws IOException {
+            out.beginObject();
+            out.name("segmentLength").value(params.segmentLength);
+            out.name("widthChange").value(params.widthChange);
+            out.name("nSegments").value(params.nSegments);
+            out.name("startWidth").value(params.startWidth);
+            out.name("straightness").value(params.straightness);
+            if (params.start != null) {
+                out.name("start");
+                vectorAdapter.write(out, params.start);
+            }
+            if (params.end != null) {
+                out.name("end");
+                vectorAdapter.write(out, params.end);
+            }
+            out.endObject();
+        }
+
+        private Params readParams(JsonReader in) throws IOException {
+            Params params = new Params();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "segmentLength":
+                        params.segmentLength = in.nextDouble();
+                        break;
+                    case "widthChange":
+                        params.widthChange = in.nextDouble();
+                        break;
+                    case "nSegments":
+                        params.nSegments = in.nextInt();
+                        break;
+                    case "startWidth":
+                        params.startWidth = in.nextDouble();
+                        break;
+                    case "straightness":
+                        params.straightness = in.nextDouble();
+                        break;
+                    case "start":
+                        params.start = vectorAdapter.read(in);
+                        break;
+                    case "end":
+                        params.end = vectorAdapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return params;
+        }
+    }
+
+
     /**
      * Allows for iteration over a fiber's segments.
      */
@@ -81,7 +240,7 @@ class Fiber implements Iterable<Fiber.Segment> {
          */
         public Segment next() {
             if (hasNext()) {
-                Segment output = new Segment(points.get(curr), points.get(curr + 1), widths.get(curr));
+                Segment output = new Segment(getPoint(curr), getPoint(curr + 1), getWidth(curr));
                 curr++;
                 return output;
             } else {
@@ -93,7 +252,7 @@ class Fiber implements Iterable<Fiber.Segment> {
          * @return {@code false} if the next call to {@code this.next()} will return null, {@code true} otherwise
          */
         public boolean hasNext() {
-            return curr < points.size() - 1;
+            return curr < nPoints - 1;
         }
     }
 
@@ -101,21 +260,34 @@ class Fiber implements Iterable<Fiber.Segment> {
     // Parameters used to construct the fiber
     private Params params;
 
-    // The points constituting the fiber
-    private ArrayList<Vector> points;
+    // Holds the fiber's points and the width between each pair of points
+    private FiberGeometry geometry;
 
-    // Width between each pair of points (has length points.size() - 1)
-    private ArrayList<Double> widths;
+    // Index of the fiber's first point in the geometry
+    private int offset = 0;
+
+    // Number of points constituting the fiber (there's one fewer width)
+    private int nPoints = 0;
 
 
     /**
      * Note that this doesn't generate segments, it just instantiates the underlying data structures. {@code
-     * generate()} should be called after this.
+     * generate()} should be called after this. The fiber's geometry is stored on its own.
      */
     Fiber(Params params) {
+        this(params, new FiberGeometry(params.nSegments + 1));
+    }
+
+    /**
+     * Like {@code Fiber(Params)}, but the fiber's points and widths are stored in {@code geometry}, which may be shared
+     * with other fibers.
+     *
+     * @param params   The parameters used to construct the fiber
+     * @param geometry The store which receives the fiber's points and widths
+     */
+    Fiber(Params params, FiberGeometry geometry) {
         this.params = params;
-        this.points = new ArrayList<>();
-        this.widths = new ArrayList<>();
+        this.geometry = geometry;
     }
 
     /**
@@ -126,11 +298,61 @@ class Fiber implements Iterable<Fiber.Segment> {
         return new SegmentIterator();
     }
 
+    /**
+     * @return The parameters used to construct this fiber
+     */
+    Params getParams() {
+        return params;
+    }
+
     /**
      * @return A copy of this fiber's points array
      */
     ArrayList<Vector> getPoints() {
-        return new ArrayList<>(points);
+        ArrayList<Vector> points = new ArrayList<>(nPoints);
+        for (int i = 0; i < nPoints; i++) {
+            points.add(getPoint(i));
+        }
+        return points;
+    }
+
+    /**
+     * @return The number of points constituting this fiber
+     */
+    int size() {
+        return nPoints;
+    }
+
+    /**
+     * @param i The index of a point
+     * @return The point's x-coordinate
+     */
+    double getX(int i) {
+        return geometry.x[offset + i];
+    }
+
+    /**
+     * @param i The index of a point
+     * @return The point's y-coordinate
+     */
+    double getY(int i) {
+        return geometry.y[offset + i];
+    }
+
+    /**
+     * @param i The index of a segment (from point {@code i} to point {@code i + 1})
+     * @return The segment's width
+     */
+    double getWidth(int i) {
+        return geometry.width[offset + i];
+    }
+
+    /**
+     * @param i The index of a point
+     * @return A copy of the point
+     */
+    Vector getPoint(int i) {
+        return new Vector(getX(i), getY(i));
     }
 
     /**
@@ -140,19 +362,139 @@ class Fiber implements Iterable<Fiber.Segment> {
         return params.end.subtract(params.start).normalize();
     }
 
+    /**
+     * Copies this fiber's points and widths to the end of another store and uses them from there. Used to drop the
+     * ranges fibers abandon when they're smoothed.
+     *
+     * @param target The store to move to
+     */
+    void moveTo(FiberGeometry target) {
+        int targetOffset = target.allocate(nPoints);
+        System.arraycopy(geometry.x, offset, target.x, targetOffset, nPoints);
+        System.arraycopy(geometry.y, offset, target.y, targetOffset, nPoints);
+        System.arraycopy(geometry.width, offset, target.width, targetOffset, nPoints);
+        geometry = target;
+        offset = targetOffset;
+    }
+
+    /**
+     * Writes this fiber in the binary data format (see {@code IOManager.writeBinaryData}). The parameters are written
+     * exactly. Points are rounded to multiples of {@code pointStep} relative to {@code params.start}, and each is
+     * written as the zigzag varint difference from the previous point; widths are rounded to multiples of {@code
+     * widthStep} and written the same way. Since adjacent points are about one segment length apart, most
+     * coordinates take two or three bytes.
+     *
+     * @param out       Where to write the fiber
+     * @param pointStep The quantization step for point coordinates
+     * @param widthStep The quantization step for widths
+     * @throws IOException If writing fails
+     */
+    void writeBinary(DataOutputStream out, double pointStep, double widthStep) throws IOException {
+        out.writeDouble(params.segmentLength);
+        out.writeDouble(params.widthChange);
+        MiscUtility.writeVarLong(out, params.nSegments);
+        out.writeDouble(params.startWidth);
+        out.writeDouble(params.straightness);
+        out.writeByte((params.start != null ? 1 : 0) | (params.end != null ? 2 : 0));
+        double originX = params.start != null ? params.start.getX() : 0.0;
+        double originY = params.start != null ? params.start.getY() : 0.0;
+        if (params.start != null) {
+            out.writeDouble(params.start.getX());
+            out.writeDouble(params.start.getY());
+        }
+        if (params.end != null) {
+            out.writeDouble(params.end.getX());
+            out.writeDouble(params.end.getY());
+        }
+
+        MiscUtility.writeVarLong(out, nPoints);
+        long prevX = 0;
+        long prevY = 0;
+        for (int i = 0; i < nPoints; i++) {
+            long x = Math.round((getX(i) - originX) / pointStep);
+            long y = Math.round((getY(i) - originY) / pointStep);
+            MiscUtility.writeVarLong(out, x - prevX);
+            MiscUtility.writeVarLong(out, y - prevY);
+            prevX = x;
+            prevY = y;
+        }
+        MiscUtility.writeVarLong(out, Math.max(0, nPoints - 1));
+        long prevWidth = 0;
+        for (int i = 0; i < nPoints - 1; i++) {
+            long w = Math.round(getWidth(i) / widthStep);
+            MiscUtility.writeVarLong(out, w - prevWidth);
+            prevWidth = w;
+        }
+    }
+
+    /**
+     * Reverses {@code writeBinary}. As when reading JSON, missing widths are read as zero and extra widths are
+     * dropped.
+     *
+     * @param in        Where to read the fiber
+     * @param pointStep The quantization step the points were written with
+     * @param widthStep The quantization step the widths were written with
+     * @param geometry  The store which receives the fiber's points and widths
+     * @param length    The length in bytes of the data being read, which bounds the number of points and widths
+     * @return The fiber read; its points and widths are the rounded values
+     * @throws IOException If reading fails or a count is out of range
+     */
+    static Fiber readBinary(DataInputStream in, double pointStep, double widthStep, FiberGeometry geometry,
+            long length) throws IOException {
+        Params params = new Params();
+        params.segmentLength = in.readDouble();
+        params.widthChange = in.readDouble();
+        params.nSegments = MiscUtility.readCount(in, Integer.MAX_VALUE);
+        params.startWidth = in.readDouble();
+        params.straightness = in.readDouble();
+        int flags = in.readUnsignedByte();
+        if ((flags & 1) != 0) {
+            params.start = new Vector(in.readDouble(), in.readDouble());
+        }
+        if ((flags & 2) != 0) {
+            params.end = new Vector(in.readDouble(), in.readDouble());
+        }
+        double originX = params.start != null ? params.start.getX() : 0.0;
+        double originY = params.start != null ? params.start.getY() : 0.0;
+
+        Fiber fiber = new Fiber(params, geometry);
+        fiber.allocate(MiscUtility.readCount(in, length / 2));
+        long x = 0;
+        long y = 0;
+        for (int i = fiber.offset; i < fiber.offset + fiber.nPoints; i++) {
+            x += MiscUtility.readVarLong(in);
+            y += MiscUtility.readVarLong(in);
+            geometry.x[i] = originX + x * pointStep;
+            geometry.y[i] = originY + y * pointStep;
+        }
+        int nWidths = MiscUtility.readCount(in, length);
+        long w = 0;
+        for (int i = 0; i < nWidths; i++) {
+            w += MiscUtility.readVarLong(in);
+            if (i < fiber.nPoints - 1) {
+                geometry.width[fiber.offset + i] = w * widthStep;
+            }
+        }
+        return fiber;
+    }
+
     /**
      * Randomly generates fiber segments based on the parameters passed to the constructor.
      *
+     * @param rng The random context to sample from
      * @throws ArithmeticException If the distance between the endpoints is greater than the fiber length (beyond some
      *                             small allowed margin of error)
      */
-    void generate() throws ArithmeticException {
-        points = RngUtility.randomChain(params.start, params.end, params.nSegments, params.segmentLength);
+    void generate(RngUtility rng) throws ArithmeticException {
+        RngUtility.verifyChain(params.nSegments, params.segmentLength);
+        allocate(params.nSegments + 1);
+        rng.randomChain(params.start.getX(), params.start.getY(), params.end.getX(), params.end.getY(),
+                params.nSegments, params.segmentLength, geometry.x, geometry.y, offset);
         double width = params.startWidth;
         for (int i = 0; i < params.nSegments; i++) {
-            widths.add(width);
+            geometry.width[offset + i] = width;
             double variability = Math.min(Math.abs(width), params.widthChange);
-            width += RngUtility.nextDouble(-variability, variability);
+            width += rng.nextDouble(-variability, variability);
         }
     }
 
@@ -164,13 +506,16 @@ class Fiber implements Iterable<Fiber.Segment> {
      * @param passes The number of times to pass over the fiber
      */
     void bubbleSmooth(int passes) {
-        ArrayList<Vector> deltas = MiscUtility.toDeltas(points);
+        int nDeltas = Math.max(0, nPoints - 1);
+        double[] dx = new double[nDeltas];
+        double[] dy = new double[nDeltas];
+        toDeltas(dx, dy);
         for (int i = 0; i < passes; i++) {
-            for (int j = 0; j < deltas.size() - 1; j++) {
-                trySwap(deltas, j, j + 1);
+            for (int j = 0; j < nDeltas - 1; j++) {
+                trySwap(dx, dy, j, j + 1);
             }
         }
-        points = MiscUtility.fromDeltas(deltas, points.get(0));
+        fromDeltas(dx, dy);
     }
 
     /**
@@ -179,20 +524,25 @@ class Fiber implements Iterable<Fiber.Segment> {
      * after a call to this method - widths are not carried through a swap.
      *
      * @param ratio The average number of attempted swaps per segment
+     * @param rng   The random context to sample from
      */
-    void swapSmooth(int ratio) {
-        ArrayList<Vector> deltas = MiscUtility.toDeltas(points);
-        for (int j = 0; j < ratio * deltas.size(); j++) {
-            int u = RngUtility.rng.nextInt(deltas.size());
-            int v = RngUtility.rng.nextInt(deltas.size());
-            trySwap(deltas, u, v);
+    void swapSmooth(int ratio, RngUtility rng) {
+        int nDeltas = Math.max(0, nPoints - 1);
+        double[] dx = new double[nDeltas];
+        double[] dy = new double[nDeltas];
+        toDeltas(dx, dy);
+        for (int j = 0; j < ratio * nDeltas; j++) {
+            int u = rng.nextInt(nDeltas);
+            int v = rng.nextInt(nDeltas);
+            trySwap(dx, dy, u, v);
         }
-        points = MiscUtility.fromDeltas(deltas, points.get(0));
+        fromDeltas(dx, dy);
     }
 
     /**
      * Makes the fiber appear smoother by adding interpolated points along each segment. No interpolation is done for
-     * widths; they're simply copied from the original segment.
+     * widths; they're simply copied from the original segment. The smoothed fiber is written to a new range at the end
+     * of the geometry store.
      *
      * @param splineRatio {@code 1-splineRatio} gives the number of interpolated points along each segment
      */
@@ -202,80 +552,132 @@ class Fiber implements Iterable<Fiber.Segment> {
         }
 
         SplineInterpolator interpolator = new SplineInterpolator();
-        double[] tPoints = new double[points.size()];
-        double[] xPoints = new double[points.size()];
-        double[] yPoints = new double[points.size()];
-        for (int i = 0; i < points.size(); i++) {
+        double[] tPoints = new double[nPoints];
+        double[] xPoints = new double[nPoints];
+        double[] yPoints = new double[nPoints];
+        for (int i = 0; i < nPoints; i++) {
             tPoints[i] = i;
-            xPoints[i] = points.get(i).getX();
-            yPoints[i] = points.get(i).getY();
+            xPoints[i] = getX(i);
+            yPoints[i] = getY(i);
         }
         @SuppressWarnings("SuspiciousNameCombination")
         PolynomialSplineFunction xFunc = interpolator.interpolate(tPoints, xPoints);
         PolynomialSplineFunction yFunc = interpolator.interpolate(tPoints, yPoints);
 
-        ArrayList<Vector> newPoints = new ArrayList<>();
-        ArrayList<Double> newWidths = new ArrayList<>();
-        for (int i = 0; i < (points.size() - 1) * splineRatio + 1; i++) {
+        int oldOffset = offset;
+        int nSmoothed = (nPoints - 1) * splineRatio + 1;
+        allocate(nSmoothed);
+        double[] x = geometry.x;
+        double[] y = geometry.y;
+        double[] width = geometry.width;
+        for (int i = 0; i < nSmoothed; i++) {
             if (i % splineRatio == 0) {
-                newPoints.add(points.get(i / splineRatio));
+                x[offset + i] = x[oldOffset + i / splineRatio];
+                y[offset + i] = y[oldOffset + i / splineRatio];
             } else {
                 double t = (double) i / splineRatio;
-                newPoints.add(new Vector(xFunc.value(t), yFunc.value(t)));
+                x[offset + i] = xFunc.value(t);
+                y[offset + i] = yFunc.value(t);
             }
-            if (i < (points.size() - 1) * splineRatio) {
-                newWidths.add(widths.get(i / splineRatio));
+            if (i < nSmoothed - 1) {
+                width[offset + i] = width[oldOffset + i / splineRatio];
             }
         }
-        points = newPoints;
-        widths = newWidths;
+    }
+
+    /**
+     * Points this fiber at a new range of {@code nPoints} entries at the end of its geometry store.
+     */
+    private void allocate(int nPoints) {
+        this.offset = geometry.allocate(nPoints);
+        this.nPoints = nPoints;
+    }
+
+    /**
+     * Fills {@code dx} and {@code dy} with the offsets between adjacent points.
+     */
+    private void toDeltas(double[] dx, double[] dy) {
+        for (int i = 0; i < dx.length; i++) {
+            dx[i] = getX(i + 1) - getX(i);
+            dy[i] = getY(i + 1) - getY(i);
+        }
+    }
+
+    /**
+     * Reverses {@code toDeltas}, keeping the first point in place.
+     */
+    private void fromDeltas(double[] dx, double[] dy) {
+        double[] x = geometry.x;
+        double[] y = geometry.y;
+        for (int i = 0; i < dx.length; i++) {
+            x[offset + i + 1] = x[offset + i] + dx[i];
+            y[offset + i + 1] = y[offset + i] + dy[i];
+        }
     }
 
     /**
      * A helper for {@code bubbleSmooth()} and {@code swapSmooth()} which swaps the segments at indices {@code u} and
      * {@code v} if doing so reduces the sum of angle changes.
      *
-     * @param deltas A representation of the fiber as a sequence of direction vectors
-     * @param u      First index for the swap
-     * @param v      Second index for the swap
+     * @param dx A representation of the fiber as a sequence of direction vectors (x-components)
+     * @param dy The y-components of the direction vectors
+     * @param u  First index for the swap
+     * @param v  Second index for the swap
      */
-    private static void trySwap(ArrayList<Vector> deltas, int u, int v) {
-        double oldDiff = localDiffSum(deltas, u, v);
-        Collections.swap(deltas, u, v);
-        double newDiff = localDiffSum(deltas, u, v);
+    private static void trySwap(double[] dx, double[] dy, int u, int v) {
+        double oldDiff = localDiffSum(dx, dy, u, v);
+        swap(dx, dy, u, v);
+        double newDiff = localDiffSum(dx, dy, u, v);
         if (newDiff > oldDiff) {
-            Collections.swap(deltas, u, v);
+            swap(dx, dy, u, v);
         }
     }
 
+    private static void swap(double[] dx, double[] dy, int u, int v) {
+        double tx = dx[u];
+        double ty = dy[u];
+        dx[u] = dx[v];
+        dy[u] = dy[v];
+        dx[v] = tx;
+        dy[v] = ty;
+    }
+
     /**
      * A helper for {@code trySwap}.
      *
-     * @param deltas A representation of the fiber as a sequence of direction vectors
-     * @param u      First index around which angle changes should be added
-     * @param v      Second index around which angle changes should be added
+     * @param dx A representation of the fiber as a sequence of direction vectors (x-components)
+     * @param dy The y-components of the direction vectors
+     * @param u  First index around which angle changes should be added
+     * @param v  Second index around which angle changes should be added
      * @return The sum of angle changes around the indices {@code u} and {@code v}
      */
-    private static double localDiffSum(ArrayList<Vector> deltas, int u, int v) {
+    private static double localDiffSum(double[] dx, double[] dy, int u, int v) {
         int i1 = Math.min(u, v);
         int i2 = Math.max(u, v);
-        if (i1 < 0 || i2 > deltas.size() - 1) {
+        if (i1 < 0 || i2 > dx.length - 1) {
             throw new ArrayIndexOutOfBoundsException("u and v must be within the array");
         }
 
         double sum = 0.0;
         if (i1 > 0) { // Don't do this if i1 is right against the beginning of the array
-            sum += deltas.get(i1 - 1).angleWith(deltas.get(i1));
+            sum += angle(dx, dy, i1 - 1, i1);
         }
         if (i1 < i2) { // If i1 < i2 then i1 + 1 <= deltas.size() - 1
-            sum += deltas.get(i1).angleWith(deltas.get(i1 + 1));
+            sum += angle(dx, dy, i1, i1 + 1);
         }
         if (i1 < i2 - 1) { // Prevent double-counting of the space between i1 and i2 if they're adjacent
-            sum += deltas.get(i2 - 1).angleWith(deltas.get(i2));
+            sum += angle(dx, dy, i2 - 1, i2);
         }
-        if (i2 < deltas.size() - 1) { // Don't do this if i2 is right against the end of the array
-            sum += deltas.get(i2).angleWith(deltas.get(i2 + 1));
+        if (i2 < dx.length - 1) { // Don't do this if i2 is right against the end of the array
+            sum += angle(dx, dy, i2, i2 + 1);
         }
         return sum;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The angle between direction vectors {@code i} and {@code j}, computed as in {@code Vector.angleWith}
+     */
+    private static double angle(double[] dx, double[] dy, int i, int j) {
+        return Vector.angle(dx[i], dy[i], dx[j], dy[j]);
+    }
+}
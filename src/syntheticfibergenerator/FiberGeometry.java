@@ -0,0 +1,78 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.util.Arrays;
+
+
+/**
+ * Flat storage for the points and widths of many fibers, shared by all the fibers of an image. Each fiber owns a
+ * contiguous range of indices; {@code width[i]} is the width of the segment from point {@code i} to point {@code i +
+ * 1}, so the last point of each fiber has no width. Keeping primitives in a few large arrays rather than an object per
+ * point keeps big collections small and out of the garbage collector's way. Everything is stored in double precision;
+ * {@code float} arrays would halve the footprint again but round points away from the values written to data files.
+ */
+class FiberGeometry {
+
+    // Capacity of a store constructed without one
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // Point coordinates and segment widths; only the first size entries are used
+    double[] x;
+    double[] y;
+    double[] width;
+
+    // Number of entries allocated to fibers
+    private int size = 0;
+
+
+    /**
+     * Constructs an empty store with a default capacity.
+     */
+    FiberGeometry() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of points which can be allocated before the arrays grow
+     */
+    FiberGeometry(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        width = new double[capacity];
+    }
+
+    /**
+     * Reserves a contiguous range of entries, growing the arrays if needed. Since the arrays may be replaced, indices
+     * (not array references) should be held across calls.
+     *
+     * @param nPoints The number of points to reserve
+     * @return The index of the first reserved entry
+     */
+    int allocate(int nPoints) {
+        if (size + nPoints > x.length) {
+            int capacity = Math.max(size + nPoints, 2 * x.length);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+        }
+        int offset = size;
+        size += nPoints;
+        return offset;
+    }
+
+    /**
+     * @return The number of entries allocated, including any abandoned by fibers which have since moved
+     */
+    int size() {
+        return size;
+    }
+}
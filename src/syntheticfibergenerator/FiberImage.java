@@ -10,13 +10,16 @@
 
 package syntheticfibergenerator;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.apache.commons.math3.distribution.PoissonDistribution;
 
 import java.awt.Color;
 import java.awt.*;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -52,6 +55,7 @@ class FiberImage implements Iterable<Fiber> {
         Optional<Double> distance = new Optional<>();
         Optional<Integer> cap = new Optional<>();
         Optional<Integer> normalize = new Optional<>();
+        Optional<String> render = new Optional<>();
         Optional<Integer> bubble = new Optional<>();
         Optional<Integer> swap = new Optional<>();
         Optional<Integer> spline = new Optional<>();
@@ -82,6 +86,7 @@ class FiberImage implements Iterable<Fiber> {
             distance.setName("distance");
             cap.setName("cap");
             normalize.setName("normalize");
+            render.setName("render");
             bubble.setName("bubble");
             swap.setName("swap");
             spline.setName("spline");
@@ -111,6 +116,8 @@ class FiberImage implements Iterable<Fiber> {
             distance.setHint("Check to apply a distance filter; value controls the sharpness of the intensity falloff");
             cap.setHint("Check to cap the intensity; value is the inclusive maximum on a scale of 0-255");
             normalize.setHint("Check to normalize the intensity; value is the inclusive maximum on a scale of 0-255");
+            render.setHint("Check to choose how fibers are drawn; value is \"" + Rasterizer.SCANLINE +
+                    "\" (default), \"" + Rasterizer.ANTIALIASED + "\", or \"" + Rasterizer.JAVA2D + "\" (reference)");
             bubble.setHint("Check to apply \"bubble smoothing\"; value is the number of passes");
             swap.setHint("Check to apply \"swap smoothing\"; number of swaps is this value times number of segments");
             spline.setHint("Check to enable spline smoothing; value is the number of interpolated points per segment");
@@ -147,6 +154,9 @@ class FiberImage implements Iterable<Fiber> {
             cap.verify(255, Param::lessEq);
             normalize.verify(0, Param::greaterEq);
             normalize.verify(255, Param::lessEq);
+            if (render.use) {
+                Rasterizer.verifyMode(render.value());
+            }
             bubble.verify(0, Param::greater);
             swap.verify(0, Param::greater);
             spline.verify(0, Param::greater);
@@ -154,15 +164,67 @@ class FiberImage implements Iterable<Fiber> {
     }
 
 
+    /**
+     * Streams the image's fiber data to and from JSON as {@code {"fibers": [...]}}, the same document Gson's
+     * reflection produces, without building it in memory first.
+     */
+    static class Adapter extends TypeAdapter<FiberImage> {
+
+        // Used for each fiber
+        private final Fiber.Adapter fiberAdapter = new Fiber.Adapter();
+
+
+        @Override
+        public void write(JsonWriter out, FiberImage image) throws IOException {
+            out.beginObject();
+            out.name("fibers").beginArray();
+            for (Fiber fiber : image.fibers) {
+                fiberAdapter.write(out, fiber);
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        /**
+         * @return An image holding the fibers read; it has no parameters or pixels, so it can't be drawn
+         */
+        @Override
+        public FiberImage read(JsonReader in) throws IOException {
+            FiberGeometry geometry = new FiberGeometry();
+            ArrayList<Fiber> fibers = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("fibers")) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        fibers.add(fiberAdapter.read(in, geometry));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new FiberImage(geometry, fibers);
+        }
+    }
+
+
     // Parameters used to construct the image
     private transient Params params;
 
     // A list of the fibers contained in the image
     private ArrayList<Fiber> fibers;
 
+    // Holds the points and widths of every fiber in the image
+    private transient FiberGeometry geometry;
+
     // The image where fibers are drawn
     private transient BufferedImage image;
 
+    // The random context used for every sampling operation on this image
+    private transient RngUtility rng;
+
     // Visual properties of the scale bar
     private static final double TARGET_SCALE_SIZE = 0.2;
     private static final double CAP_RATIO = 0.01;
@@ -172,14 +234,37 @@ class FiberImage implements Iterable<Fiber> {
     /**
      * Note that this doesn't generate fibers, it just instantiates the underlying data structures. {@code
      * FiberImage.generateFibers} should be called after this.
+     *
+     * @param params The parameters used to construct the image
+     * @param rng    The random context from which all of this image's randomness is drawn
      */
-    FiberImage(Params params) {
+    FiberImage(Params params, RngUtility rng) {
         this.params = params;
+        this.rng = rng;
         this.fibers = new ArrayList<>(this.params.nFibers.value());
+        this.geometry = new FiberGeometry();
         this.image = new BufferedImage(
                 params.imageWidth.value(), params.imageHeight.value(), BufferedImage.TYPE_BYTE_GRAY);
     }
 
+    /**
+     * Wraps fibers read back from a file. The image has no parameters or pixels, so it can't be drawn.
+     *
+     * @param geometry The store holding the fibers' points and widths
+     * @param fibers   The fibers contained in the image
+     */
+    FiberImage(FiberGeometry geometry, ArrayList<Fiber> fibers) {
+        this.geometry = geometry;
+        this.fibers = fibers;
+    }
+
+    /**
+     * @return The number of fibers in this image
+     */
+    int size() {
+        return fibers.size();
+    }
+
     /**
      * @return An iterator over fibers in this image
      */
@@ -203,24 +288,25 @@ class FiberImage implements Iterable<Fiber> {
             fiberParams.segmentLength = params.segmentLength.value();
             fiberParams.widthChange = params.widthChange.value();
 
-            fiberParams.nSegments = (int) Math.round(params.length.sample() / params.segmentLength.value());
+            fiberParams.nSegments = (int) Math.round(params.length.sample(rng) / params.segmentLength.value());
             fiberParams.nSegments = Math.max(1, fiberParams.nSegments);
-            fiberParams.straightness = params.straightness.sample();
-            fiberParams.startWidth = params.width.sample();
+            fiberParams.straightness = params.straightness.sample(rng);
+            fiberParams.startWidth = params.width.sample(rng);
 
             double endDistance = fiberParams.nSegments * fiberParams.segmentLength * fiberParams.straightness;
             fiberParams.start = findFiberStart(endDistance, direction);
             fiberParams.end = fiberParams.start.add(direction.scalarMultiply(endDistance));
 
-            Fiber fiber = new Fiber(fiberParams);
-            fiber.generate();
+            Fiber fiber = new Fiber(fiberParams, geometry);
+            fiber.generate(rng);
             fibers.add(fiber);
         }
     }
 
     /**
      * Smooths each fiber according to the rules given in {@code params.bubble}, {@code params.swap}, and
-     * {@code params.spline}.
+     * {@code params.spline}. Spline smoothing moves each fiber to a new range of the geometry store, so the fibers
+     * are then packed into a store of their own to release the old ranges.
      */
     void smooth() {
         for (Fiber fiber : fibers) {
@@ -228,60 +314,122 @@ class FiberImage implements Iterable<Fiber> {
                 fiber.bubbleSmooth(params.bubble.value());
             }
             if (params.swap.use) {
-                fiber.swapSmooth(params.swap.value());
+                fiber.swapSmooth(params.swap.value(), rng);
             }
             if (params.spline.use) {
                 fiber.splineSmooth(params.spline.value());
             }
         }
+        if (params.spline.use) {
+            int nPoints = 0;
+            for (Fiber fiber : fibers) {
+                nPoints += fiber.size();
+            }
+            FiberGeometry packed = new FiberGeometry(nPoints);
+            for (Fiber fiber : fibers) {
+                fiber.moveTo(packed);
+            }
+            geometry = packed;
+        }
     }
 
     /**
      * Draws fibers on a grey 8-bit image. Calling {@code getImage()} before {@code drawFibers()} will result in a black
-     * image of the specified dimensions being returned.
+     * image of the specified dimensions being returned. Fibers are drawn by {@code Rasterizer} (optionally with
+     * anti-aliasing) unless {@code params.render} selects the Java2D reference renderer.
      */
     void drawFibers() {
+        if (params.render.use && params.render.value().equals(Rasterizer.JAVA2D)) {
+            drawFibersJava2D();
+            return;
+        }
+        boolean antialiased = params.render.use && params.render.value().equals(Rasterizer.ANTIALIASED);
+        byte[] pixels = ImageUtility.grayPixels(image);
+        for (Fiber fiber : fibers) {
+            for (int i = 0; i < fiber.size() - 1; i++) {
+                if (antialiased) {
+                    Rasterizer.coverCapsule(pixels, image.getWidth(), image.getHeight(),
+                            fiber.getX(i), fiber.getY(i), fiber.getX(i + 1), fiber.getY(i + 1), fiber.getWidth(i),
+                            0xFF);
+                } else {
+                    Rasterizer.fillCapsule(pixels, image.getWidth(), image.getHeight(),
+                            fiber.getX(i), fiber.getY(i), fiber.getX(i + 1), fiber.getY(i + 1), fiber.getWidth(i),
+                            0xFF);
+                }
+            }
+        }
+        ImageUtility.setGrayPixels(image, pixels);
+    }
+
+    /**
+     * Draws fibers with a Java2D round-capped stroke per segment, truncating endpoints to integer coordinates.
+     */
+    private void drawFibersJava2D() {
         Graphics2D graphics = image.createGraphics();
         graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
         graphics.setColor(Color.WHITE);
         for (Fiber fiber : fibers) {
-            for (Fiber.Segment segment : fiber) {
+            for (int i = 0; i < fiber.size() - 1; i++) {
                 graphics.setStroke(
-                        new BasicStroke((float) segment.width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                        new BasicStroke((float) fiber.getWidth(i), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
                 graphics.drawLine(
-                        (int) segment.start.getX(), (int) segment.start.getY(),
-                        (int) segment.end.getX(), (int) segment.end.getY());
+                        (int) fiber.getX(i), (int) fiber.getY(i),
+                        (int) fiber.getX(i + 1), (int) fiber.getY(i + 1));
             }
         }
     }
 
     /**
-     * Applies a distance filter, adds noise, blurs, draws a scale bar, and down samples (in that order) according to
-     * the rules given in {@code params.distance}, {@code params.noise}, {@code params.blur}, {@code params.scale}, and
-     * {@code params.downSample} respectively.
+     * Applies a distance filter, adds noise, blurs, draws a scale bar, down samples, caps, and normalizes (in that
+     * order) according to the rules given in {@code params.distance}, {@code params.noise}, {@code params.blur}, {@code
+     * params.scale}, {@code params.downSample}, {@code params.cap}, and {@code params.normalize} respectively.
+     * <p>
+     * Every effect except down sampling works in place on the image's pixel array. Cap and normalize are collapsed
+     * into a single lookup table; when no spatial effect separates them from the noise, the cap is applied in the same
+     * pass as the noise, which also records the maximum needed for normalization.
      */
     void applyEffects() {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = ImageUtility.grayPixels(image);
+
+        // Maximum intensity currently in the image, or -1 if unknown
+        int max = -1;
+        byte[] levels = params.cap.use ? ImageUtility.capTable(params.cap.value()) : ImageUtility.identityTable();
+        boolean capApplied = false;
+
         if (params.distance.use) {
-            image = ImageUtility.distanceFunction(image, params.distance.value());
+            ImageUtility.distanceFunction(pixels, pixels, width, height, params.distance.value());
         }
         if (params.noise.use) {
-            addNoise();
+            capApplied = !params.blur.use && !params.scale.use && !params.downSample.use;
+            max = addNoise(pixels, capApplied ? levels : ImageUtility.identityTable());
         }
         if (params.blur.use) {
-            image = ImageUtility.gaussianBlur(image, params.blur.value());
+            ImageUtility.gaussianBlur(pixels, pixels, width, height, params.blur.value());
+            max = -1;
         }
         if (params.scale.use) {
+            ImageUtility.setGrayPixels(image, pixels);
             drawScaleBar();
+            pixels = ImageUtility.grayPixels(image);
+            max = -1;
         }
         if (params.downSample.use) {
+            ImageUtility.setGrayPixels(image, pixels);
             image = ImageUtility.scale(image, params.downSample.value(), AffineTransformOp.TYPE_BILINEAR);
-        }
-        if (params.cap.use) {
-            image = ImageUtility.cap(image, params.cap.value());
+            pixels = ImageUtility.grayPixels(image);
+            max = -1;
         }
         if (params.normalize.use) {
-            image = ImageUtility.normalize(image, params.normalize.value());
+            int currentMax = levels[max >= 0 ? max : ImageUtility.maxValue(pixels)] & 0xFF;
+            byte[] normalize = ImageUtility.normalizeTable(params.normalize.value(), currentMax);
+            levels = ImageUtility.composeTables(levels, normalize);
+        }
+        if (params.normalize.use || (params.cap.use && !capApplied)) {
+            ImageUtility.applyTable(pixels, pixels, levels);
         }
+        ImageUtility.setGrayPixels(image, pixels);
     }
 
     /**
@@ -304,7 +452,7 @@ class FiberImage implements Iterable<Fiber> {
         Vector sumDirection = new Vector(Math.cos(sumAngle * 2.0), Math.sin(sumAngle * 2.0));
         Vector sum = sumDirection.scalarMultiply(params.alignment.value() * params.nFibers.value());
 
-        ArrayList<Vector> chain = RngUtility.randomChain(new Vector(), sum, params.nFibers.value(), 1.0);
+        ArrayList<Vector> chain = rng.randomChain(new Vector(), sum, params.nFibers.value(), 1.0);
         ArrayList<Vector> directions = MiscUtility.toDeltas(chain);
 
         ArrayList<Vector> output = new ArrayList<>();
@@ -341,20 +489,20 @@ class FiberImage implements Iterable<Fiber> {
      * @param buffer    The size of the buffer/padding in the chosen dimension
      * @return The starting point in the chosen dimension
      */
-    private static double findStart(double length, int dimension, int buffer) {
+    private double findStart(double length, int dimension, int buffer) {
         double min, max;
         buffer = (int) Math.max(length / 2, buffer);
         if (Math.abs(length) > dimension) {
             min = Math.min(dimension - length, dimension);
             max = Math.max(0, -length);
-            return RngUtility.nextDouble(min, max);
+            return rng.nextDouble(min, max);
         }
         if (Math.abs(length) > dimension - 2 * buffer) {
             buffer = 0;
         }
         min = Math.max(buffer, buffer - length);
         max = Math.min(dimension - buffer - length, dimension - buffer);
-        return RngUtility.nextDouble(min, max);
+        return rng.nextDouble(min, max);
     }
 
     /**
@@ -399,22 +547,25 @@ class FiberImage implements Iterable<Fiber> {
     }
 
     /**
-     * Adds Poisson-distributed noise to the image.
+     * Adds Poisson-distributed noise to the image, then maps each pixel through a lookup table.
+     *
+     * @param pixels The image's pixels
+     * @param table  A 256-entry lookup table applied after the noise
+     * @return The maximum intensity after the lookup
      */
-    private void addNoise() {
-
-        // Sequence of poisson seeds depends on the initial rng seed
-        PoissonDistribution noise = new PoissonDistribution(params.noise.value());
-        noise.reseedRandomGenerator(RngUtility.rng.nextInt());
-
-        WritableRaster raster = image.getRaster();
-        int[] pixel = new int[1];
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                raster.getPixel(x, y, pixel);
-                pixel[0] = Math.min(0xFF, pixel[0] + noise.sample());
-                raster.setPixel(x, y, pixel);
-            }
+    private int addNoise(byte[] pixels, byte[] table) {
+
+        // Draw the noise from this image's random context so it follows the chosen seed and backend
+        PoissonDistribution noise = new PoissonDistribution(rng.asRandomGenerator(), params.noise.value(),
+                PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+
+        // Samples are drawn in row-major order
+        int max = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int value = table[Math.min(0xFF, (pixels[i] & 0xFF) + noise.sample())] & 0xFF;
+            pixels[i] = (byte) value;
+            max = Math.max(max, value);
         }
+        return max;
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Fast Fourier transforms and FFT-based two-dimensional correlation of row-major float data.
+ */
+class FourierUtility {
+
+    /**
+     * Precomputed twiddle factors and bit-reversal permutation for radix-2 transforms of one size. Plans are immutable
+     * and can be shared between threads.
+     */
+    static class Plan {
+
+        // The transform length (a power of two)
+        final int n;
+
+        // cos and sin of -2*pi*k/n for k < n/2
+        private final double[] cos;
+        private final double[] sin;
+
+        // Index of each element after bit reversal
+        private final int[] reversed;
+
+
+        /**
+         * @param n The transform length; must be a power of two
+         * @throws IllegalArgumentException If {@code n} isn't a power of two
+         */
+        Plan(int n) throws IllegalArgumentException {
+            if (n <= 0 || (n & (n - 1)) != 0) {
+                throw new IllegalArgumentException("FFT length must be a power of two");
+            }
+            this.n = n;
+            cos = new double[n / 2];
+            sin = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                cos[k] = Math.cos(-2 * Math.PI * k / n);
+                sin[k] = Math.sin(-2 * Math.PI * k / n);
+            }
+            reversed = new int[n];
+            int bits = Integer.numberOfTrailingZeros(n);
+            for (int i = 0; i < n; i++) {
+                reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+        }
+
+        /**
+         * In-place iterative radix-2 transform of {@code n} complex values. The inverse transform is unscaled.
+         *
+         * @param re      Real parts
+         * @param im      Imaginary parts
+         * @param offset  Index of the first element in {@code re} and {@code im}
+         * @param inverse Whether to compute the inverse transform
+         */
+        void transform(double[] re, double[] im, int offset, boolean inverse) {
+            for (int i = 0; i < n; i++) {
+                int j = reversed[i];
+                if (j > i) {
+                    double t = re[offset + i];
+                    re[offset + i] = re[offset + j];
+                    re[offset + j] = t;
+                    t = im[offset + i];
+                    im[offset + i] = im[offset + j];
+                    im[offset + j] = t;
+                }
+            }
+            double sign = inverse ? -1.0 : 1.0;
+            for (int half = 1; half < n; half *= 2) {
+                int step = n / (2 * half);
+                for (int start = 0; start < n; start += 2 * half) {
+                    for (int k = 0; k < half; k++) {
+                        double wr = cos[k * step];
+                        double wi = sign * sin[k * step];
+                        int a = offset + start + k;
+                        int b = a + half;
+                        double tr = wr * re[b] - wi * im[b];
+                        double ti = wr * im[b] + wi * re[b];
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+        }
+
+        /**
+         * In-place two-dimensional transform of an {@code n*n} row-major complex array.
+         *
+         * @param re      Real parts
+         * @param im      Imaginary parts
+         * @param inverse Whether to compute the inverse transform (unscaled)
+         * @param colRe   Scratch space of length {@code n}
+         * @param colIm   Scratch space of length {@code n}
+         */
+        void transform2D(double[] re, double[] im, boolean inverse, double[] colRe, double[] colIm) {
+            for (int row = 0; row < n; row++) {
+                transform(re, im, row * n, inverse);
+            }
+            for (int col = 0; col < n; col++) {
+                for (int row = 0; row < n; row++) {
+                    colRe[row] = re[row * n + col];
+                    colIm[row] = im[row * n + col];
+                }
+                transform(colRe, colIm, 0, inverse);
+                for (int row = 0; row < n; row++) {
+                    re[row * n + col] = colRe[row];
+                    im[row * n + col] = colIm[row];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param value A positive integer
+     * @return The smallest power of two greater than or equal to {@code value}
+     */
+    static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Chooses the side length of the square tiles used by {@code correlate}. Larger tiles waste less work on the
+     * overlapping halo but cost more per pixel; four times the kernel size is a good balance.
+     *
+     * @param kernelSize The larger of the kernel's width and height
+     * @param width      The width of the image
+     * @param height     The height of the image
+     * @return A power-of-two tile size
+     */
+    static int tileSize(int kernelSize, int width, int height) {
+        int preferred = Math.max(64, nextPowerOfTwo(4 * kernelSize));
+        int whole = nextPowerOfTwo(Math.max(width, height) + kernelSize - 1);
+        return Math.min(preferred, whole);
+    }
+
+    /**
+     * Computes {@code out(x, y) = sum over i, j of kernel[i][j] * values(x + j - xOrigin, y + i - yOrigin)}, treating
+     * values beyond the edges as zero (the same convention as {@code java.awt.image.ConvolveOp}). Uses overlap-save
+     * with square tiles whose spectra are computed two at a time (one in the real part and one in the imaginary part
+     * of a single complex transform). Tile pairs are processed in parallel.
+     *
+     * @param values  Row-major input values
+     * @param width   Number of values per row
+     * @param height  Number of rows
+     * @param kernel  Row-major kernel weights
+     * @param kWidth  Kernel width
+     * @param kHeight Kernel height
+     * @param xOrigin Column of the kernel element aligned with each output pixel
+     * @param yOrigin Row of the kernel element aligned with each output pixel
+     * @return A new row-major array holding the result
+     */
+    static float[] correlate(float[] values, int width, int height, float[] kernel, int kWidth, int kHeight,
+                             int xOrigin, int yOrigin) {
+        int n = tileSize(Math.max(kWidth, kHeight), width, height);
+        Plan plan = new Plan(n);
+
+        // The kernel is stored reversed (circularly) so that the circular convolution computes a correlation
+        double[] kRe = new double[n * n];
+        double[] kIm = new double[n * n];
+        for (int i = 0; i < kHeight; i++) {
+            for (int j = 0; j < kWidth; j++) {
+                kRe[((n - i) % n) * n + (n - j) % n] = kernel[i * kWidth + j];
+            }
+        }
+        plan.transform2D(kRe, kIm, false, new double[n], new double[n]);
+
+        int blockWidth = n - kWidth + 1;
+        int blockHeight = n - kHeight + 1;
+        int tilesX = (width + blockWidth - 1) / blockWidth;
+        int tilesY = (height + blockHeight - 1) / blockHeight;
+        int nTiles = tilesX * tilesY;
+        float[] output = new float[width * height];
+        double scale = 1.0 / ((double) n * n);
+
+        IntStream.range(0, (nTiles + 1) / 2).parallel().forEach(pair -> {
+            double[] re = new double[n * n];
+            double[] im = new double[n * n];
+            double[] colRe = new double[n];
+            double[] colIm = new double[n];
+            int first = 2 * pair;
+            int second = first + 1 < nTiles ? first + 1 : -1;
+            int x0 = (first % tilesX) * blockWidth;
+            int y0 = (first / tilesX) * blockHeight;
+            loadTile(values, width, height, x0 - xOrigin, y0 - yOrigin, re, n);
+            int x1 = 0, y1 = 0;
+            if (second >= 0) {
+                x1 = (second % tilesX) * blockWidth;
+                y1 = (second / tilesX) * blockHeight;
+                loadTile(values, width, height, x1 - xOrigin, y1 - yOrigin, im, n);
+            } else {
+                Arrays.fill(im, 0.0);
+            }
+            plan.transform2D(re, im, false, colRe, colIm);
+            for (int i = 0; i < n * n; i++) {
+                double r = re[i] * kRe[i] - im[i] * kIm[i];
+                im[i] = re[i] * kIm[i] + im[i] * kRe[i];
+                re[i] = r;
+            }
+            plan.transform2D(re, im, true, colRe, colIm);
+            storeBlock(re, n, scale, output, width, height, x0, y0, blockWidth, blockHeight);
+            if (second >= 0) {
+                storeBlock(im, n, scale, output, width, height, x1, y1, blockWidth, blockHeight);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Copies an {@code n*n} window of the input into a tile, filling positions outside the input with zero.
+     */
+    private static void loadTile(float[] values, int width, int height, int left, int top, double[] tile, int n) {
+        Arrays.fill(tile, 0.0);
+        for (int r = Math.max(0, -top); r < n && top + r < height; r++) {
+            int source = (top + r) * width;
+            for (int c = Math.max(0, -left); c < n && left + c < width; c++) {
+                tile[r * n + c] = values[source + left + c];
+            }
+        }
+    }
+
+    /**
+     * Copies the valid (non-wrapped) part of a transformed tile into the output.
+     */
+    private static void storeBlock(double[] tile, int n, double scale, float[] output, int width, int height, int x0,
+                                   int y0, int blockWidth, int blockHeight) {
+        for (int r = 0; r < blockHeight && y0 + r < height; r++) {
+            int target = (y0 + r) * width + x0;
+            for (int c = 0; c < blockWidth && x0 + c < width; c++) {
+                output[target + c] = (float) (tile[r * n + c] * scale);
+            }
+        }
+    }
+}
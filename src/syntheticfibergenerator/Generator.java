@@ -0,0 +1,164 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+
+/**
+ * Abstract class representing a source of pseudo-random bits. Subclasses only need to provide {@code nextLong},
+ * {@code split}, and {@code reseed}; the remaining methods are derived from it but may be overridden where the backend
+ * has a faster or sequence-preserving implementation. Instances are not thread-safe.
+ */
+abstract class Generator {
+
+    // Scale factor which maps the top 53 bits of a long onto [0, 1)
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    // The second value produced by the last call to nextGaussian() (the polar method produces values in pairs)
+    private double nextNextGaussian;
+    private boolean haveNextNextGaussian = false;
+
+
+    /**
+     * Constructs a generator from its typename (see the {@code typename} members of subclasses).
+     *
+     * @param typename The name of the generator backend
+     * @param seed     The seed which fully determines the generator's sequence
+     * @return A newly seeded generator of the requested type
+     * @throws IllegalArgumentException If {@code typename} doesn't name a known backend
+     */
+    static Generator create(String typename, long seed) throws IllegalArgumentException {
+        switch (typename) {
+            case JavaRandom.typename:
+                return new JavaRandom(seed);
+            case Splittable.typename:
+                return new Splittable(seed);
+            case Xoshiro256.typename:
+                return new Xoshiro256(seed);
+            case Philox.typename:
+                return new Philox(seed);
+            default:
+                throw new IllegalArgumentException("Unknown random generator \"" + typename + '\"');
+        }
+    }
+
+    /**
+     * @return The type of the generator (e.g. "java" or "philox")
+     */
+    abstract String getType();
+
+    /**
+     * @return 64 random bits
+     */
+    abstract long nextLong();
+
+    /**
+     * Creates a new generator whose sequence is statistically independent of this one's. Calling this advances the
+     * state of this generator, so repeated calls give different children.
+     *
+     * @return A new generator of the same type
+     */
+    abstract Generator split();
+
+    /**
+     * Restarts the generator as if it had just been created with the given seed, discarding any cached values.
+     *
+     * @param seed The seed which fully determines the generator's new sequence
+     */
+    void setSeed(long seed) {
+        haveNextNextGaussian = false;
+        reseed(seed);
+    }
+
+    /**
+     * Sets the backend's state from a seed in the same way as its seeded constructor.
+     *
+     * @param seed The seed which fully determines the generator's sequence
+     */
+    abstract void reseed(long seed);
+
+    /**
+     * @return 32 random bits
+     */
+    int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Uses the same rejection scheme as {@code Random.nextInt(int)} so that the result is exactly uniform.
+     *
+     * @param bound The upper bound (exclusive); must be positive
+     * @return A random integer between zero (inclusive) and {@code bound} (exclusive)
+     */
+    int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive");
+        }
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        int u = r;
+        while (u - (r = u % bound) + m < 0) {
+            u = (int) (nextLong() >>> 33);
+        }
+        return r;
+    }
+
+    /**
+     * @return A random double between zero (inclusive) and one (exclusive) with 53 bits of precision
+     */
+    double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return A random boolean, {@code true} and {@code false} being equally likely
+     */
+    boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * Samples using the Marsaglia polar method, caching the second value of each pair.
+     *
+     * @return A random value drawn from the standard normal distribution
+     */
+    double nextGaussian() {
+        if (haveNextNextGaussian) {
+            haveNextNextGaussian = false;
+            return nextNextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+        nextNextGaussian = v2 * multiplier;
+        haveNextNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /**
+     * One step of the SplitMix64 generator; used to expand 64-bit seeds into larger states.
+     *
+     * @param state The state word, advanced by the caller between calls
+     * @return A well-mixed function of {@code state}
+     */
+    static long mix64(long state) {
+        long z = state;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
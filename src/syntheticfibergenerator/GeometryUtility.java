@@ -0,0 +1,368 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+
+/**
+ * Circle intersection and vector operations on primitive coordinates. Results are written to caller-supplied arrays, so
+ * nothing is allocated; {@code Circle} and {@code Vector} are thin wrappers over these methods and give bit-for-bit
+ * the same results.
+ */
+class GeometryUtility {
+
+    /* Sometimes we'll have two circles that should be touching but are actually some very small distance apart because
+     * of floating-point limitations. In this case we can try widening both by some small amount BUFF. */
+    static final double BUFF = 1e-10;
+
+    // Relative rounding error allowed, on top of BUFF, between circles which should touch (about 50 ulps)
+    private static final double ROUNDOFF = 1e-14;
+
+    // Length of the array which intersection methods need for their results and scratch space
+    static final int OUT_LENGTH = 4;
+
+    /* Number of points diskDiskIntersect draws from a lens's bounding box before sampling the lens directly. At least
+     * two thirds of the box is lens, so the direct (slower) sampler is needed for at most one point in nine. */
+    private static final int LENS_TRIES = 2;
+
+    // Below this value of 2*phi, capArea sums a series instead of subtracting nearly equal values
+    private static final double CAP_SERIES_LIMIT = 0.5;
+
+    // Upper bound on the steps taken by capAngle; bisection alone reaches full precision in fewer
+    private static final int CAP_ITERATIONS = 64;
+
+    // capAngle stops after a Newton step this small relative to the angle; convergence is quadratic, so the result is
+    // then accurate to about double precision
+    private static final double CAP_TOLERANCE = 1e-9;
+
+
+    /**
+     * @return The distance between {@code (x1, y1)} and {@code (x2, y2)}
+     */
+    static double distance(double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return {@code true} if {@code (px, py)} lies in the disk's interior or within {@code BUFF} of its border
+     */
+    static boolean contains(double cx, double cy, double radius, double px, double py) {
+        return distance(px, py, cx, cy) <= radius + BUFF;
+    }
+
+    /**
+     * Rotates {@code (vx, vy)} counter-clockwise by the angle of {@code (axisX, axisY)}, transforming from the
+     * coordinate system where that vector is the x-axis to an un-rotated frame, and adds the result to {@code (ox,
+     * oy)}.
+     *
+     * @param out    Receives the x- and y-coordinates at {@code index} and {@code index + 1}
+     * @param index  Where in {@code out} to write
+     * @throws ArithmeticException If the axis is zero
+     */
+    static void unRotateAdd(double vx, double vy, double axisX, double axisY, double ox, double oy, double[] out,
+                            int index) throws ArithmeticException {
+        if (axisX == 0 && axisY == 0) {
+            throw new ArithmeticException("New x-axis must be nonzero");
+        }
+        double scale = 1 / Math.sqrt(axisX * axisX + axisY * axisY);
+        double ux = scale * axisX;
+        double uy = scale * axisY;
+        out[index] = ox + (vx * ux + vy * -uy);
+        out[index + 1] = oy + (vx * uy + vy * ux);
+    }
+
+    /**
+     * Finds both points where two circles meet. In the degenerate case the two points are the same.
+     *
+     * @param out Receives the first point's coordinates at indices 0 and 1 and the second's at 2 and 3
+     * @throws ArithmeticException If the circles are equal, nested, or the distance between their boundaries is
+     *                             greater than {@code 2*BUFF} plus rounding error (they're too far to intersect within
+     *                             a small margin of error)
+     */
+    static void circleCircleIntersect(double x1, double y1, double r1, double x2, double y2, double r2, double[] out)
+            throws ArithmeticException {
+
+        // Enlarge the circles slightly if they're too far away to intersect
+        double d = distance(x1, y1, x2, y2);
+        double space = d - r1 - r2;
+        if (space > 0) {
+            r1 += BUFF;
+            r2 += BUFF;
+            space -= 2 * BUFF;
+        }
+
+        // Check that the circles (possibly enlarged) intersect; any remaining space is treated as touching
+        boolean equal = x1 == x2 && y1 == y2 && r1 == r2;
+        boolean nested = d < Math.abs(r1 - r2);
+        if (equal || nested || space > roundoff(x1, y1, r1, x2, y2, r2)) {
+            throw new ArithmeticException("Circles do not intersect");
+        }
+
+        // a: distance to the center of the lens, h: distance from axis to intersection point
+        double a = (MiscUtility.sq(r1) - MiscUtility.sq(r2) + MiscUtility.sq(d)) / (2 * d);
+        double h = Math.sqrt(Math.max(0.0, MiscUtility.sq(r1) - MiscUtility.sq(a)));
+
+        // The axis is normalized here and again in unRotateAdd, as Vector.unRotate did with a normalized axis
+        double scale = 1 / Math.sqrt(MiscUtility.sq(x2 - x1) + MiscUtility.sq(y2 - y1));
+        double axisX = scale * (x2 - x1);
+        double axisY = scale * (y2 - y1);
+        unRotateAdd(a, h, axisX, axisY, x1, y1, out, 0);
+        unRotateAdd(a, -h, axisX, axisY, x1, y1, out, 2);
+    }
+
+    /**
+     * Points placed on one circle's boundary are only exact to within rounding, which for coordinates far from the
+     * origin (e.g. along a fiber of many thousands of steps) can exceed {@code BUFF}.
+     *
+     * @return A bound on the rounding error in the distance between two circles' boundaries
+     */
+    private static double roundoff(double x1, double y1, double r1, double x2, double y2, double r2) {
+        return ROUNDOFF * (Math.abs(x1) + Math.abs(y1) + r1 + Math.abs(x2) + Math.abs(y2) + r2);
+    }
+
+    /**
+     * Chooses a random point on a circle's boundary which lies within a disk.
+     *
+     * @param out Receives the point's coordinates at indices 0 and 1; its length must be at least {@code OUT_LENGTH}
+     * @throws ArithmeticException If the boundary of the circle doesn't intersect the disk within some small margin of
+     *                             error ({@code 2*BUFF})
+     */
+    static void diskCircleIntersect(double diskX, double diskY, double diskR, double circleX, double circleY,
+                                    double circleR, RngUtility rng, double[] out) throws ArithmeticException {
+
+        // Check the special case where the circle is entirely within the disk
+        double d = distance(diskX, diskY, circleX, circleY);
+        if (d < diskR - circleR) {
+            choosePoint(circleX, circleY, circleR, -Math.PI, Math.PI, rng, out);
+            return;
+        }
+
+        // Determine the range of valid angles on the circle's border
+        double scale = 1 / Math.sqrt(MiscUtility.sq(diskX - circleX) + MiscUtility.sq(diskY - circleY));
+        double axisX = scale * (diskX - circleX);
+        double axisY = scale * (diskY - circleY);
+        circleCircleIntersect(diskX, diskY, diskR, circleX, circleY, circleR, out);
+        double delta = Vector.angle(axisX, axisY, out[0] - circleX, out[1] - circleY);
+
+        double theta = Math.atan2(axisY, axisX);
+        choosePoint(circleX, circleY, circleR, theta - delta, theta + delta, rng, out);
+    }
+
+    /**
+     * Chooses a uniformly random point which lies on both disks (boundary or interior) with a bounded number of random
+     * draws, however thin the "lens" where the disks overlap. Nested disks are sampled by inverting the distribution of
+     * the distance from the center. Otherwise a point is drawn from the lens's bounding box up to {@code LENS_TRIES}
+     * times. If none land in the lens, it is split by its chord into two circular caps; a cap is chosen in proportion
+     * to its area and sampled by inverting the distribution of the distance from the chord (see {@code capAngle}).
+     * Both ways give a uniform point, so the result is too.
+     *
+     * @param out Receives the point's coordinates at indices 0 and 1; its length must be at least {@code OUT_LENGTH}
+     * @throws ArithmeticException If the disks are equal or the distance between them is greater than {@code 2*BUFF}
+     *                             (i.e. they don't intersect within some small margin of error)
+     */
+    static void diskDiskIntersect(double x1, double y1, double r1, double x2, double y2, double r2, RngUtility rng,
+                                  double[] out) throws ArithmeticException {
+
+        // Check the special case where the disks are nested
+        double d = distance(x1, y1, x2, y2);
+        if (d < Math.abs(r1 - r2)) {
+            boolean firstInner = r1 < r2;
+            double radius = (firstInner ? r1 : r2) * Math.sqrt(rng.nextDouble());
+            double theta = rng.nextDouble(-Math.PI, Math.PI);
+            out[0] = (firstInner ? x1 : x2) + radius * Math.cos(theta);
+            out[1] = (firstInner ? y1 : y2) + radius * Math.sin(theta);
+            return;
+        }
+
+        // Enlarge the disks slightly if they're too far away to intersect, as in circleCircleIntersect
+        double space = d - r1 - r2;
+        if (space > 0) {
+            r1 += BUFF;
+            r2 += BUFF;
+            space -= 2 * BUFF;
+        }
+        if ((x1 == x2 && y1 == y2 && r1 == r2) || space > roundoff(x1, y1, r1, x2, y2, r2)) {
+            throw new ArithmeticException("Circles do not intersect");
+        }
+
+        // Work where disk 1 is centered at the origin and disk 2 on the positive x-axis, so the chord is at x = a
+        double a = (MiscUtility.sq(r1) - MiscUtility.sq(r2) + MiscUtility.sq(d)) / (2 * d);
+        double h = Math.sqrt(Math.max(0.0, (r1 - a) * (r1 + a)));
+
+        // Disks which only touch (or are apart by less than the roundoff) have no lens, just a point on the chord
+        if (space > 0 || (h == 0 && a > 0 && a < d)) {
+            unRotateAdd(a, 0.0, x2 - x1, y2 - y1, x1, y1, out, 0);
+            return;
+        }
+
+        // A cap larger than a half-disk is taller than the chord
+        double top = Math.max(a < 0 ? r1 : h, d - a < 0 ? r2 : h);
+        double dx;
+        double dy;
+        for (int i = 0; i < LENS_TRIES; i++) {
+            dx = rng.nextDouble(d - r2, r1);
+            dy = rng.nextDouble(-top, top);
+            if (dx * dx + dy * dy <= r1 * r1 && MiscUtility.sq(dx - d) + dy * dy <= r2 * r2) {
+                unRotateAdd(dx, dy, x2 - x1, y2 - y1, x1, y1, out, 0);
+                return;
+            }
+        }
+
+        double alpha1 = Math.atan2(h, a);
+        double alpha2 = Math.atan2(h, d - a);
+        double area1 = MiscUtility.sq(r1) * capArea(alpha1);
+        double area2 = MiscUtility.sq(r2) * capArea(alpha2);
+        double halfHeight;
+        if (rng.nextDouble() * (area1 + area2) < area1) {
+            double phi = capAngle(alpha1, rng.nextDouble());
+            dx = r1 * Math.cos(phi);
+            halfHeight = r1 * Math.sin(phi);
+        } else {
+            double phi = capAngle(alpha2, rng.nextDouble());
+            dx = d - r2 * Math.cos(phi);
+            halfHeight = r2 * Math.sin(phi);
+        }
+        dy = rng.nextDouble(-halfHeight, halfHeight);
+        unRotateAdd(dx, dy, x2 - x1, y2 - y1, x1, y1, out, 0);
+    }
+
+    /**
+     * Chooses a random point which lies on both disks (boundary or interior) by rejection sampling from the bounding
+     * box of their intersection. This is the sampler of earlier versions and reproduces their output. Note that there
+     * is no upper bound on the number of tries - when the lens is thin, this can get stuck in an effectively infinite
+     * loop.
+     *
+     * @param out Receives the point's coordinates at indices 0 and 1; its length must be at least {@code OUT_LENGTH}
+     * @return The number of candidate points which were rejected
+     * @throws ArithmeticException If the distance between the two disks is greater than {@code 2*BUFF} (i.e. they don't
+     *                             intersect within some small margin of error)
+     */
+    static long diskDiskReject(double x1, double y1, double r1, double x2, double y2, double r2, RngUtility rng,
+                               double[] out) throws ArithmeticException {
+
+        // Every candidate but the last is rejected
+        long rejections = -1;
+
+        // Check the special case where the disks are nested
+        double d = distance(x1, y1, x2, y2);
+        if (d < Math.abs(r1 - r2)) {
+            boolean firstInner = r1 < r2;
+            double cx = firstInner ? x1 : x2;
+            double cy = firstInner ? y1 : y2;
+            double r = firstInner ? r1 : r2;
+            double px;
+            double py;
+            do {
+                px = rng.nextDouble(cx - r, cx + r);
+                py = rng.nextDouble(cy - r, cy + r);
+                rejections++;
+            } while (!contains(cx, cy, r, px, py));
+            out[0] = px;
+            out[1] = py;
+            return rejections;
+        }
+
+        // Without the allowance for rounding made by circleCircleIntersect, candidates might never land in both disks
+        if (d - r1 - r2 > 2 * BUFF) {
+            throw new ArithmeticException("Circles do not intersect");
+        }
+
+        // Determine the dimensions of the "lens" bounding box
+        circleCircleIntersect(x1, y1, r1, x2, y2, r2, out);
+        double boxHeight = distance(out[2], out[3], out[0], out[1]);
+        double boxLeft = Math.min(d - r2, r1);
+        double boxRight = Math.max(d - r2, r1);
+
+        double scale = 1 / Math.sqrt(MiscUtility.sq(x2 - x1) + MiscUtility.sq(y2 - y1));
+        double axisX = scale * (x2 - x1);
+        double axisY = scale * (y2 - y1);
+        do {
+            double dx = rng.nextDouble(boxLeft, boxRight);
+            double dy = rng.nextDouble(-boxHeight, boxHeight);
+            unRotateAdd(dx, dy, axisX, axisY, x1, y1, out, 0);
+            rejections++;
+        } while (!contains(x1, y1, r1, out[0], out[1]) || !contains(x2, y2, r2, out[0], out[1]));
+        return rejections;
+    }
+
+    /**
+     * A circular cap is the part of a disk beyond a chord. With the cap's half-angle {@code phi} (the angle at the
+     * center between the cap's axis and either end of the chord), the cap has area {@code r^2 * capArea(phi) / 2}.
+     * Close to zero a series is used, since {@code 2*phi - sin(2*phi)} would lose most of its precision to
+     * cancellation.
+     *
+     * @param phi The half-angle of the cap, from 0 to pi
+     * @return {@code 2*phi - sin(2*phi)}
+     */
+    static double capArea(double phi) {
+        double x = 2 * phi;
+        if (x > CAP_SERIES_LIMIT) {
+            return x - Math.sin(x);
+        }
+        double x2 = x * x;
+        return x * x2 / 6 * (1 - x2 / 20 * (1 - x2 / 42 * (1 - x2 / 72 * (1 - x2 / 110 * (1 - x2 / 156)))));
+    }
+
+    /**
+     * Inverts the distribution of a uniform point's distance from the tip of a cap: the returned cap, with the same
+     * axis and center, covers {@code fraction} of the area of the cap with half-angle {@code alpha}. Newton's method
+     * (with bisection as a fallback) solves {@code capArea(phi) = fraction * capArea(alpha)}, usually in three or
+     * four steps and never more than {@code CAP_ITERATIONS}.
+     *
+     * @param alpha    The half-angle of the whole cap, from 0 to pi
+     * @param fraction A value from 0 to 1
+     * @return The half-angle of the smaller cap, from 0 to {@code alpha}
+     */
+    static double capAngle(double alpha, double fraction) {
+        double target = fraction * capArea(alpha);
+        double low = 0.0;
+        double high = alpha;
+
+        // For small angles capArea(phi) ~ 4/3 * phi^3
+        double phi = Math.min(alpha, Math.cbrt(0.75 * target));
+        for (int i = 0; i < CAP_ITERATIONS; i++) {
+            double error = capArea(phi) - target;
+            if (error == 0.0) {
+                break;
+            } else if (error > 0.0) {
+                high = phi;
+            } else {
+                low = phi;
+            }
+            double step = error / (4 * MiscUtility.sq(Math.sin(phi)));
+            if (Math.abs(step) <= CAP_TOLERANCE * phi) {
+                phi -= step;
+                break;
+            }
+            phi -= step;
+            if (!(phi > low && phi < high)) {
+                phi = 0.5 * (low + high);
+            }
+        }
+        return Math.max(0.0, Math.min(alpha, phi));
+    }
+
+    /**
+     * Chooses a random point on a circle's boundary whose angle with respect to the center is within the given bounds.
+     * The positive x-axis has an angle of zero.
+     *
+     * @param minTheta The lower bound in radians (inclusive)
+     * @param maxTheta The upper bound in radians (exclusive)
+     * @param out      Receives the point's coordinates at indices 0 and 1
+     */
+    static void choosePoint(double cx, double cy, double radius, double minTheta, double maxTheta, RngUtility rng,
+                            double[] out) {
+        double theta = rng.nextDouble(minTheta, maxTheta);
+        out[0] = cx + radius * Math.cos(theta);
+        out[1] = cy + radius * Math.sin(theta);
+    }
+}
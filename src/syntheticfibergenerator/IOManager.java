@@ -13,10 +13,13 @@ package syntheticfibergenerator;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 
 /**
@@ -24,6 +27,20 @@ import java.io.*;
  */
 class IOManager {
 
+    /**
+     * The state of one image as it moves through the stages of {@code writeResultsStaged}.
+     */
+    private static class Job {
+
+        // The image, until it's encoded or added to the stack
+        FiberImage image;
+
+        // Encoded image and data files, until they're written
+        byte[] imageBytes;
+        byte[] dataBytes;
+    }
+
+
     // Save serializer and deserializer so we don't have to re-construct them
     private Gson serializer;
     private Gson deserializer;
@@ -31,11 +48,43 @@ class IOManager {
     // Starting portion of name for data files
     private static final String DATA_PREFIX = "data";
 
+    // Data formats accepted by ImageCollection.Params.dataFormat
+    static final String DATA_JSON = "json";
+    static final String DATA_COMPACT = "compact";
+    static final String DATA_BINARY = "binary";
+    static final String DATA_JSONL = "jsonl";
+
+    // Extension of data files in the binary format
+    static final String BINARY_EXTENSION = "fib";
+
+    // Identifies a binary data file; the version is bumped whenever the layout changes
+    private static final byte[] BINARY_MAGIC = {'S', 'F', 'G', 'F'};
+    private static final int BINARY_VERSION = 1;
+
+    // Quantization steps for point coordinates and widths in binary data files, in pixels
+    static final double POINT_STEP = 1.0 / 1024;
+    static final double WIDTH_STEP = 1.0 / 1024;
+
     // Starting portion of name for image files
     private static final String IMAGE_PREFIX = "image";
 
-    // Image filename extension
-    private static final String IMAGE_EXT = "png";
+    // Name (without extension) of the file holding all images when a stack format is used
+    private static final String STACK_NAME = "images";
+
+    // Format of written image files, which also gives their extension
+    private ImageEncoder encoder = new PngEncoder(PngEncoder.DEFAULT_LEVEL);
+
+    // Receives images in place of separate image files while a collection is written, or null
+    private StackWriter stack;
+
+    // Format of written data files, one of the DATA_ constants
+    private String dataFormat = DATA_JSON;
+
+    // Receives data records in place of separate data files while a collection is written in the JSONL format, or null
+    private JsonlWriter dataset;
+
+    // Capacity of each queue between stages of writeResultsStaged
+    private static final int QUEUE_CAPACITY = 4;
 
 
     /**
@@ -46,12 +95,25 @@ class IOManager {
                 .setPrettyPrinting()
                 .serializeSpecialFloatingPointValues()
                 .registerTypeAdapter(Distribution.class, new Distribution.Serializer())
+                .registerTypeAdapter(FiberImage.class, new FiberImage.Adapter().nullSafe())
                 .create();
         deserializer = new GsonBuilder()
                 .registerTypeAdapter(Distribution.class, new Distribution.Deserializer())
+                .registerTypeAdapter(FiberImage.class, new FiberImage.Adapter().nullSafe())
                 .create();
     }
 
+    /**
+     * @param format A data format name
+     * @throws IllegalArgumentException If {@code format} isn't one of the supported data formats
+     */
+    static void verifyDataFormat(String format) throws IllegalArgumentException {
+        if (!format.equals(DATA_JSON) && !format.equals(DATA_COMPACT) && !format.equals(DATA_BINARY) &&
+                !format.equals(DATA_JSONL)) {
+            throw new IllegalArgumentException("Unknown data format \"" + format + '\"');
+        }
+    }
+
     /**
      * Attempts to read and deserialize a JSON file to an {@code ImageCollection.Params} object.
      *
@@ -80,9 +142,106 @@ class IOManager {
         return params;
     }
 
+    /**
+     * Reads back a data file written by {@code writeResults}, in either the JSON or the binary format (as told by the
+     * extension). The returned image holds only fibers; it can't be drawn.
+     *
+     * @param filename The path of the data file
+     * @return An image holding the file's fibers
+     * @throws IOException If the file can't be read or isn't a valid data file
+     */
+    FiberImage readDataFile(String filename) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(filename))) {
+            if (filename.endsWith('.' + BINARY_EXTENSION)) {
+                return readBinaryData(stream, new File(filename).length());
+            }
+            return deserializer.fromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), FiberImage.class);
+        } catch (FileNotFoundException e) {
+            throw new IOException("File \"" + filename + "\" not found");
+        } catch (IOException | JsonParseException e) {
+            throw new IOException("Malformed data file \"" + filename + '\"', e);
+        }
+    }
+
+    /**
+     * Reads back one image's record from a JSONL dataset written by {@code writeResults}, using the dataset's index.
+     *
+     * @param outFolder The path (with folder separator) where the dataset was written
+     * @param index     The index of the image
+     * @return An image holding the record's fibers; it can't be drawn
+     * @throws IOException If the dataset can't be read, has no record for {@code index}, or the record is malformed
+     */
+    FiberImage readDatasetRecord(String outFolder, int index) throws IOException {
+        String record;
+        try {
+            record = new String(JsonlWriter.readRecord(outFolder + DATA_PREFIX, index), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        try {
+            return deserializer.fromJson(record, FiberImage.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed record " + index + " in \"" + outFolder + '\"');
+        }
+    }
+
+    /**
+     * Writes an image's fibers in the binary data format. The file starts with a header: the four bytes "SFGF", a
+     * version byte, and the quantization steps for points and widths as big-endian doubles. The number of fibers
+     * follows as a varint (see {@code MiscUtility.writeVarLong}), then each fiber as written by {@code
+     * Fiber.writeBinary}.
+     *
+     * @param image  The image whose fibers are written
+     * @param stream Where to write the data
+     * @throws IOException If writing fails
+     */
+    static void writeBinaryData(FiberImage image, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(BINARY_MAGIC);
+        out.writeByte(BINARY_VERSION);
+        out.writeDouble(POINT_STEP);
+        out.writeDouble(WIDTH_STEP);
+        MiscUtility.writeVarLong(out, image.size());
+        for (Fiber fiber : image) {
+            fiber.writeBinary(out, POINT_STEP, WIDTH_STEP);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reverses {@code writeBinaryData}.
+     *
+     * @param stream Where to read the data
+     * @param length The length of the data in bytes; counts in the data which couldn't fit in it are rejected before
+     *               anything is allocated
+     * @return An image holding the fibers read; it can't be drawn
+     * @throws IOException If reading fails or the data isn't in a supported version of the format
+     */
+    static FiberImage readBinaryData(InputStream stream, long length) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[BINARY_MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, BINARY_MAGIC)) {
+            throw new IOException("Not a binary fiber data file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported binary data version " + version);
+        }
+        double pointStep = in.readDouble();
+        double widthStep = in.readDouble();
+        int nFibers = MiscUtility.readCount(in, length);
+        FiberGeometry geometry = new FiberGeometry();
+        ArrayList<Fiber> fibers = new ArrayList<>(nFibers);
+        for (int i = 0; i < nFibers; i++) {
+            fibers.add(Fiber.readBinary(in, pointStep, widthStep, geometry, length));
+        }
+        return new FiberImage(geometry, fibers);
+    }
+
     /**
      * Writes an image and JSON data file for each {@code FiberImage} in the collection. Also records the given
-     * parameters in a JSON file.
+     * parameters in a JSON file. If {@code params.stack} is used, the images go into a single stack file instead.
      *
      * @param params     The parameters to record
      * @param collection The collection of {@code FiberImage} objects to write
@@ -90,12 +249,260 @@ class IOManager {
      * @throws IOException If any of the file writes fail
      */
     void writeResults(ImageCollection.Params params, ImageCollection collection, String outFolder) throws IOException {
+        beginResults(params, outFolder);
+        try {
+            for (int i = 0; i < collection.size(); i++) {
+                writeImage(collection.get(i), i, outFolder);
+            }
+        } finally {
+            endResults();
+        }
+    }
+
+    /**
+     * Generates the collection's images and writes them as in {@code writeResults}, writing each image as soon as it's
+     * finished so that images aren't kept in memory.
+     *
+     * @param params     The parameters to record
+     * @param collection The collection to generate; its images aren't kept
+     * @param outFolder  The path (with folder separator) where output should be written
+     * @throws IOException If any of the file writes fail
+     */
+    void writeResultsStreamed(ImageCollection.Params params, ImageCollection collection, String outFolder)
+            throws IOException {
+        beginResults(params, outFolder);
+        try {
+            collection.generateImages((index, image) -> writeImage(image, index, outFolder));
+        } finally {
+            endResults();
+        }
+    }
+
+    /**
+     * Sets the format of image files written by this object (PNG at the default level unless changed). The {@code
+     * writeResults} methods set it from their parameters.
+     *
+     * @param encoder The image format
+     */
+    void setEncoder(ImageEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Records the given parameters in a JSON file.
+     *
+     * @param params    The parameters to record
+     * @param outFolder The path (with folder separator) where output should be written
+     * @throws IOException If the file write fails
+     */
+    void writeParams(ImageCollection.Params params, String outFolder) throws IOException {
         writeStringFile(outFolder + "params.json", serializer.toJson(params, ImageCollection.Params.class));
-        for (int i = 0; i < collection.size(); i++) {
-            String imagePrefix = outFolder + IMAGE_PREFIX + i;
-            writeImageFile(imagePrefix, collection.getImage(i));
-            String dataFilename = outFolder + DATA_PREFIX + i + ".json";
-            writeStringFile(dataFilename, serializer.toJson(collection.get(i), FiberImage.class));
+    }
+
+    /**
+     * Writes the image and JSON data file for a single {@code FiberImage}; the files are named as in {@code
+     * writeResults}. While a stack or JSONL dataset is open, the image or data is added to it instead; these must be
+     * written in index order.
+     *
+     * @param image     The image to write
+     * @param index     The index of the image within its collection
+     * @param outFolder The path (with folder separator) where output should be written
+     * @throws IOException If either file write fails
+     */
+    void writeImage(FiberImage image, int index, String outFolder) throws IOException {
+        if (stack != null) {
+            stack.write(index, image.getImage());
+        } else {
+            writeImageFile(outFolder + IMAGE_PREFIX + index, image.getImage());
+        }
+        if (dataset != null) {
+            dataset.write(index, encodeData(image));
+        } else {
+            writeDataFile(dataFilename(outFolder, index), image);
+        }
+    }
+
+    /**
+     * Generates the collection's images and writes them (along with the parameters) as in {@code writeResults}, but as
+     * a pipeline of five stages - fiber generation, drawing, effects, encoding, and writing - each with the number of
+     * threads given by {@code params.pipeline}. Stages are connected by bounded queues, so at most a few images are in
+     * memory at once. File names and contents don't depend on the thread counts. If {@code params.stack} is used,
+     * images are added to the stack in index order by the calling thread, and likewise data records to a JSONL dataset;
+     * any part of the stack that doesn't depend on order, such as Zarr chunks, is written in the encoding stage
+     * instead.
+     *
+     * @param params     The parameters to record; {@code params.pipeline} must be used
+     * @param collection The collection to generate; its images aren't kept
+     * @param outFolder  The path (with folder separator) where output should be written
+     * @throws IOException If any of the file writes fail
+     */
+    void writeResultsStaged(ImageCollection.Params params, ImageCollection collection, String outFolder)
+            throws IOException {
+        int[] threads = params.pipelineThreads();
+        long seed = collection.collectionSeed();
+        Pipeline<Job> pipeline = new Pipeline<Job>(QUEUE_CAPACITY)
+                .addStage(threads[0], (index, job) -> {
+                    Job created = new Job();
+                    created.image = collection.generateFibers(seed, index);
+                    return created;
+                })
+                .addStage(threads[1], (index, job) -> {
+                    job.image.drawFibers();
+                    return job;
+                })
+                .addStage(threads[2], (index, job) -> {
+                    job.image.applyEffects();
+                    return job;
+                })
+                .addStage(threads[3], (index, job) -> {
+                    job.dataBytes = encodeData(job.image);
+                    if (stack == null) {
+                        job.imageBytes = encoder.encode(job.image.getImage());
+                        job.image = null;
+                    } else {
+                        stack.prepare(index, job.image.getImage());
+                    }
+                    return job;
+                })
+                .addStage(threads[4], (index, job) -> {
+                    if (job.imageBytes != null) {
+                        writeBytesFile(outFolder + IMAGE_PREFIX + index + '.' + encoder.getType(), job.imageBytes);
+                    }
+                    if (dataset == null) {
+                        writeBytesFile(dataFilename(outFolder, index), job.dataBytes);
+                    }
+                    return job;
+                });
+        beginResults(params, outFolder);
+        try {
+            pipeline.run(params.nImages.value(), (index, job) -> {
+                if (stack != null) {
+                    stack.write(index, job.image.getImage());
+                }
+                if (dataset != null) {
+                    dataset.write(index, job.dataBytes);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            endResults();
+        }
+    }
+
+    /**
+     * Applies the output settings in {@code params}, records the parameters, and opens the stack file and JSONL dataset
+     * if they're used.
+     *
+     * @param params    The parameters to apply and record
+     * @param outFolder The path (with folder separator) where output should be written
+     * @throws IOException If a file can't be written
+     */
+    private void beginResults(ImageCollection.Params params, String outFolder) throws IOException {
+        setEncoder(params.imageEncoder());
+        dataFormat = params.dataFormat.use ? params.dataFormat.value() : DATA_JSON;
+        writeParams(params, outFolder);
+        if (params.stack.use) {
+            stack = StackWriter.create(params.stack.value(), outFolder + STACK_NAME, params.nImages.value(),
+                    params.compressionLevel());
+        }
+        if (dataFormat.equals(DATA_JSONL)) {
+            dataset = new JsonlWriter(outFolder + DATA_PREFIX, params.nImages.value(),
+                    params.shards.use ? params.shards.value() : 1);
+        }
+    }
+
+    /**
+     * Closes the stack file and JSONL dataset, if they're open.
+     *
+     * @throws IOException If the stack or dataset can't be finished
+     */
+    private void endResults() throws IOException {
+        try {
+            if (stack != null) {
+                StackWriter finished = stack;
+                stack = null;
+                finished.close();
+            }
+        } finally {
+            if (dataset != null) {
+                JsonlWriter finished = dataset;
+                dataset = null;
+                finished.close();
+            }
+        }
+    }
+
+    /**
+     * @param outFolder The path (with folder separator) where output is written
+     * @param index     The index of the image within its collection
+     * @return The name of the image's data file, whose extension depends on {@code dataFormat}
+     */
+    private String dataFilename(String outFolder, int index) {
+        return outFolder + DATA_PREFIX + index + '.' + (dataFormat.equals(DATA_BINARY) ? BINARY_EXTENSION : "json");
+    }
+
+    /**
+     * Writes an image's fiber data to a file, streaming it through a buffer rather than building the document in
+     * memory.
+     *
+     * @param filename The name of the file to write
+     * @param image    The image whose fibers are written
+     * @throws IOException If the file write fails
+     */
+    private void writeDataFile(String filename, FiberImage image) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename))) {
+            writeData(image, stream);
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * @param image The image whose fibers are encoded
+     * @return The contents of the image's data file
+     * @throws IOException If encoding fails
+     */
+    private byte[] encodeData(FiberImage image) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        writeData(image, stream);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Writes an image's fiber data in the format given by {@code dataFormat}: binary, or JSON which is indented unless
+     * the format is compact or JSONL.
+     */
+    private void writeData(FiberImage image, OutputStream stream) throws IOException {
+        if (dataFormat.equals(DATA_BINARY)) {
+            writeBinaryData(image, stream);
+            return;
+        }
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        if (dataFormat.equals(DATA_JSON)) {
+            json.setIndent("  ");
+        }
+
+        // Allows NaN and infinite values, like serializeSpecialFloatingPointValues()
+        json.setLenient(true);
+        serializer.getAdapter(FiberImage.class).write(json, image);
+        json.flush();
+    }
+
+    /**
+     * Writes bytes to a file.
+     *
+     * @param filename The name of the file to write
+     * @param contents The contents of the file
+     * @throws IOException If the file write fails
+     */
+    private void writeBytesFile(String filename, byte[] contents) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(filename)) {
+            stream.write(contents);
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
         }
     }
 
@@ -118,16 +525,16 @@ class IOManager {
     }
 
     /**
-     * Writes a {@code BufferedImage} to a file. The image format is given by {@code IMAGE_EXT}.
+     * Writes a {@code BufferedImage} to a file. The image format (and the extension) is given by {@code encoder}.
      *
      * @param prefix The filename up to, but not including the extension
      * @param image  The {@code BufferedImage} to write
      * @throws IOException If the image write fails
      */
     private void writeImageFile(String prefix, BufferedImage image) throws IOException {
-        String filename = prefix + '.' + IMAGE_EXT;
-        try {
-            ImageIO.write(image, IMAGE_EXT, new File(filename));
+        String filename = prefix + '.' + encoder.getType();
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename))) {
+            encoder.write(image, stream);
         } catch (IOException e) {
             throw new IOException("Error while writing \"" + filename + '\"');
         }
@@ -11,8 +11,14 @@
 package syntheticfibergenerator;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -27,6 +33,19 @@ class ImageCollection {
 
         Param<Integer> nImages = new Param<>();
         Optional<Long> seed = new Optional<>();
+        Optional<String> generator = new Optional<>();
+        Optional<String> sampler = new Optional<>();
+        Optional<Integer> threads = new Optional<>();
+        Optional<Integer> forkThreshold = new Optional<>();
+        Optional<String> pipeline = new Optional<>();
+        Optional<String> format = new Optional<>();
+        Optional<Integer> compression = new Optional<>();
+        Optional<String> stack = new Optional<>();
+        Optional<String> dataFormat = new Optional<>();
+        Optional<Integer> shards = new Optional<>();
+
+        // Number of stages in the command-line pipeline (see IOManager.writeResultsStaged)
+        static final int PIPELINE_STAGES = 5;
 
 
         /**
@@ -37,6 +56,16 @@ class ImageCollection {
             super.setNames();
             nImages.setName("number of images");
             seed.setName("seed");
+            generator.setName("generator");
+            sampler.setName("sampler");
+            threads.setName("threads");
+            forkThreshold.setName("fork threshold");
+            pipeline.setName("pipeline");
+            format.setName("format");
+            compression.setName("compression");
+            stack.setName("stack");
+            dataFormat.setName("data format");
+            shards.setName("data shards");
         }
 
         /**
@@ -46,6 +75,26 @@ class ImageCollection {
             super.setHints();
             nImages.setHint("The number of images to generate");
             seed.setHint("Check to fix the random seed; value is the seed");
+            generator.setHint("Check to choose the random generator; value is one of \"java\", \"splittable\", " +
+                    "\"xoshiro256**\", or \"philox\"");
+            sampler.setHint("Check to choose how fiber paths are sampled; value is \"exact\" (the default) or " +
+                    "\"rejection\" (slower, but reproduces earlier versions)");
+            threads.setHint("Check to generate images in parallel; value is the number of worker threads");
+            forkThreshold.setHint("Check to build each very long fiber in parallel; value is the number of segments " +
+                    "above which part of a fiber is split between threads");
+            pipeline.setHint("Check to generate and write command-line results in a pipeline; value is the number of " +
+                    "threads for the fiber, drawing, effect, encoding, and writing stages (e.g. \"2,2,2,2,1\")");
+            format.setHint("Check to choose the image file format; value is one of \"png\", \"pgm\", \"qoi\", or " +
+                    "\"raw\"");
+            compression.setHint("Check to set the PNG or Zarr compression level; value is from 0 (fastest, largest " +
+                    "files) to 9 (slowest, smallest files)");
+            stack.setHint("Check to write all images to a single array instead of one file per image; value is " +
+                    "\"npy\", \"zarr\", or \"tiff\"");
+            dataFormat.setHint("Check to choose the format of the fiber data files; value is \"json\" (indented, " +
+                    "the default), \"compact\" (JSON without whitespace), \"binary\" (quantized .fib files), or " +
+                    "\"jsonl\" (one JSON Lines file with an index)");
+            shards.setHint("Check to split a JSONL dataset across several files, filled one after another; value is " +
+                    "the number of files");
         }
 
         /**
@@ -56,16 +105,98 @@ class ImageCollection {
         void verify() throws IllegalArgumentException {
             super.verify();
             nImages.verify(0, Param::greater);
+            threads.verify(0, Param::greater);
+            forkThreshold.verify(0, Param::greater);
+            shards.verify(0, Param::greater);
+            if (generator.use) {
+                Generator.create(generator.value(), 0);
+            }
+            if (sampler.use) {
+                RngUtility.verifySampler(sampler.value());
+            }
+            if (pipeline.use) {
+                pipelineThreads();
+            }
+            if (compression.use) {
+                PngEncoder.verifyLevel(compression.value());
+            }
+            if (format.use) {
+                imageEncoder();
+            }
+            if (stack.use) {
+                StackWriter.verifyType(stack.value());
+            }
+            if (dataFormat.use) {
+                IOManager.verifyDataFormat(dataFormat.value());
+            }
+        }
+
+        /**
+         * @return The number of threads for each of the {@code PIPELINE_STAGES} stages given by {@code pipeline}
+         * @throws IllegalArgumentException If {@code pipeline} isn't a comma-separated list of {@code PIPELINE_STAGES}
+         *                                  positive integers
+         */
+        int[] pipelineThreads() throws IllegalArgumentException {
+            String[] parts = pipeline.value().split(",");
+            if (parts.length != PIPELINE_STAGES) {
+                throw new IllegalArgumentException("Value of \"" + pipeline.name() + "\" must list " +
+                        PIPELINE_STAGES + " thread counts");
+            }
+            int[] counts = new int[PIPELINE_STAGES];
+            for (int i = 0; i < PIPELINE_STAGES; i++) {
+                try {
+                    counts[i] = Integer.parseInt(parts[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Value of \"" + pipeline.name() + "\" must list integers");
+                }
+                if (counts[i] <= 0) {
+                    throw new IllegalArgumentException("Value of \"" + pipeline.name() + "\" must be positive");
+                }
+            }
+            return counts;
+        }
+
+        /**
+         * @return The deflate level given by {@code compression}, or {@code PngEncoder.DEFAULT_LEVEL} if it isn't used
+         */
+        int compressionLevel() {
+            return compression.use ? compression.value() : PngEncoder.DEFAULT_LEVEL;
+        }
+
+        /**
+         * @return An encoder for the format given by {@code format} (PNG if it isn't used), with the level given by
+         * {@code compressionLevel}
+         * @throws IllegalArgumentException If {@code format} doesn't name a known format or the level is out of range
+         */
+        ImageEncoder imageEncoder() throws IllegalArgumentException {
+            return ImageEncoder.create(format.use ? format.value() : PngEncoder.typename, compressionLevel());
         }
     }
 
 
+    /**
+     * Receives images from {@code generateImages(ImageConsumer)} as they are finished.
+     */
+    interface ImageConsumer {
+
+        /**
+         * @param index The index of the image within the collection
+         * @param image The generated image with all effects applied
+         * @throws IOException If the consumer fails to write the image
+         */
+        void accept(int index, FiberImage image) throws IOException;
+    }
+
+
     // Parameters used to construct the image stack
     private Params params;
 
     // The image stack
     private ArrayList<FiberImage> imageStack;
 
+    // Maximum number of images generated ahead of the consumer, per thread
+    private static final int STREAM_AHEAD = 2;
+
 
     /**
      * Note that this doesn't generate images, it just instantiates the underlying data structures. {@code
@@ -78,25 +209,116 @@ class ImageCollection {
     }
 
     /**
-     * Randomly generates images based on the parameters passed to the constructor.
+     * Randomly generates images based on the parameters passed to the constructor and keeps them in the stack. Each
+     * image draws from its own random stream, seeded from the collection seed and the image's index, so the output is
+     * identical regardless of the number of threads given by {@code params.threads}.
      *
      * @throws ArithmeticException If generation fails due to non-intersection of circles - see {@code
      *                             Circle.circleCircleIntersect}
      */
     void generateImages() throws ArithmeticException {
-        if (params.seed.use) {
-            RngUtility.rng = new Random(params.seed.value());
+        FiberImage[] images = new FiberImage[params.nImages.value()];
+        try {
+            generateImages((index, image) -> images[index] = image);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
-
         imageStack.clear();
-        for (int i = 0; i < params.nImages.value(); i++) {
-            FiberImage image = new FiberImage(params);
-            image.generateFibers();
-            image.smooth();
-            image.drawFibers();
-            image.applyEffects();
-            imageStack.add(image);
+        imageStack.addAll(Arrays.asList(images));
+    }
+
+    /**
+     * Randomly generates images as in {@code generateImages()}, but hands each one to {@code consumer} (in index order)
+     * instead of keeping it in the stack. At most {@code STREAM_AHEAD} images per thread are generated ahead of the
+     * consumer, so memory use doesn't grow with the number of images.
+     *
+     * @param consumer Receives each image once it's finished; called from the calling thread
+     * @throws ArithmeticException If generation fails due to non-intersection of circles - see {@code
+     *                             Circle.circleCircleIntersect}
+     * @throws IOException         If the consumer fails
+     */
+    void generateImages(ImageConsumer consumer) throws ArithmeticException, IOException {
+        long seed = collectionSeed();
+        int nImages = params.nImages.value();
+        int nThreads = params.threads.use ? Math.min(params.threads.value(), nImages) : 1;
+
+        if (nThreads <= 1) {
+            for (int i = 0; i < nImages; i++) {
+                consumer.accept(i, generateImage(seed, i));
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            ArrayDeque<Future<FiberImage>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            for (int i = 0; i < nImages; i++) {
+                while (submitted < nImages && submitted < i + nThreads * STREAM_AHEAD) {
+                    final int index = submitted++;
+                    pending.add(pool.submit(() -> generateImage(seed, index)));
+                }
+                consumer.accept(i, pending.remove().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating images");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Generates a single image using a random context derived from {@code seed} and {@code index}.
+     *
+     * @param seed  The seed of the whole collection
+     * @param index The index of the image within the collection
+     * @return The generated image with all effects applied
+     * @throws ArithmeticException If generation fails due to non-intersection of circles - see {@code
+     *                             Circle.circleCircleIntersect}
+     */
+    private FiberImage generateImage(long seed, int index) throws ArithmeticException {
+        FiberImage image = generateFibers(seed, index);
+        image.drawFibers();
+        image.applyEffects();
+        return image;
+    }
+
+    /**
+     * Generates and smooths the fibers of a single image without drawing them. Together with {@code
+     * FiberImage.drawFibers} and {@code FiberImage.applyEffects} this gives the same image as {@code generateImages}.
+     *
+     * @param seed  The seed of the whole collection (see {@code collectionSeed})
+     * @param index The index of the image within the collection
+     * @return The image with its fibers generated
+     * @throws ArithmeticException If generation fails due to non-intersection of circles - see {@code
+     *                             Circle.circleCircleIntersect}
+     */
+    FiberImage generateFibers(long seed, int index) throws ArithmeticException {
+        String typename = params.generator.use ? params.generator.value() : JavaRandom.typename;
+        RngUtility rng = new RngUtility(typename, RngUtility.deriveSeed(seed, index));
+        if (params.sampler.use) {
+            rng.setSampler(params.sampler.value());
+        }
+        if (params.forkThreshold.use) {
+            rng.setForkThreshold(params.forkThreshold.value());
         }
+        FiberImage image = new FiberImage(params, rng);
+        image.generateFibers();
+        image.smooth();
+        return image;
+    }
+
+    /**
+     * @return The seed from which every image's random stream is derived: {@code params.seed} if it's used, otherwise
+     * a random value
+     */
+    long collectionSeed() {
+        return params.seed.use ? params.seed.value() : new RngUtility().nextLong();
     }
 
     /**
@@ -0,0 +1,74 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Abstract class representing an image file format. Subclasses write 8-bit grey scale images; the format's typename is
+ * also its filename extension. Instances are immutable and can be shared between threads.
+ */
+abstract class ImageEncoder {
+
+    /**
+     * Constructs an encoder from its typename (see the {@code typename} members of subclasses).
+     *
+     * @param typename    The name of the format
+     * @param compression The deflate level, used by formats which compress
+     * @return An encoder for the requested format
+     * @throws IllegalArgumentException If {@code typename} doesn't name a known format or the level is out of range
+     */
+    static ImageEncoder create(String typename, int compression) throws IllegalArgumentException {
+        switch (typename) {
+            case PngEncoder.typename:
+                return new PngEncoder(compression);
+            case PgmEncoder.typename:
+                return new PgmEncoder();
+            case QoiEncoder.typename:
+                return new QoiEncoder();
+            case RawEncoder.typename:
+                return new RawEncoder();
+            default:
+                throw new IllegalArgumentException("Unknown image format \"" + typename + '\"');
+        }
+    }
+
+    /**
+     * @return The type of the format (e.g. "png" or "raw"), which is also its filename extension
+     */
+    abstract String getType();
+
+    /**
+     * Writes an image to a stream in this format.
+     *
+     * @param image  The image to write
+     * @param stream Where to write the file
+     * @throws IOException              If writing to the stream fails
+     * @throws IllegalArgumentException If the format doesn't support the image's type
+     */
+    abstract void write(BufferedImage image, OutputStream stream) throws IOException, IllegalArgumentException;
+
+    /**
+     * @param image The image to encode
+     * @return The contents of a file holding the image
+     * @throws IOException              If encoding fails
+     * @throws IllegalArgumentException If the format doesn't support the image's type
+     */
+    byte[] encode(BufferedImage image) throws IOException, IllegalArgumentException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(image, stream);
+        return stream.toByteArray();
+    }
+}
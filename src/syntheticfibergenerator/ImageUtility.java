@@ -10,15 +10,38 @@
 
 package syntheticfibergenerator;
 
-import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 
 class ImageUtility {
 
-    // Used to maximize efficiency of the backgroundDist function
-    private static final int DIST_SEARCH_STEP = 4;
+    // Squared distance assigned to pixels which have no background pixel anywhere in the image
+    private static final int DIST_INF = Integer.MAX_VALUE;
+
+    // Number of rows or columns handed to each parallel task of the distance transform and blur
+    private static final int DIST_BAND = 64;
+
+    // Smallest Gaussian kernel size for which the iterated box approximation is used instead of the exact kernel
+    private static final int BOX_MIN_SIZE = 15;
+
+    // Number of box filters whose composition approximates the Gaussian
+    private static final int BOX_PASSES = 3;
+
+    // Measured per-pixel cost of one separable tap and one box pass, and cost of one FFT unit (see chooseMethod),
+    // relative to one multiply-add of direct convolution
+    private static final double SEPARABLE_COST = 0.9;
+    private static final double BOX_COST = 15.0;
+    private static final double FFT_COST = 17.0;
+
+    /**
+     * Algorithms available for convolving an image with a kernel.
+     */
+    enum ConvolutionMethod {
+        DIRECT, SEPARABLE, BOX, FFT
+    }
 
 
     /**
@@ -30,48 +53,197 @@ class ImageUtility {
      * @return An 8-bit grey scale image with the distance filter applied
      */
     static BufferedImage distanceFunction(BufferedImage image, double falloff) {
-        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
-            throw new IllegalArgumentException("Image must be TYPE_BYTE_GRAY");
-        }
         BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Raster inRaster = image.getRaster();
-        WritableRaster outRaster = output.getRaster();
-        for (int y = 0; y < output.getHeight(); y++) {
-            for (int x = 0; x < output.getWidth(); x++) {
-                if (getPixel(inRaster, x, y) == 0) {
-                    setPixel(outRaster, x, y, 0);
-                    continue;
-                }
-                double minDist = backgroundDist(inRaster, x, y);
-                int outValue = 255;
-                if (minDist > 0) {
-                    outValue = Math.min(255, (int) (minDist * falloff));
-                }
-                setPixel(outRaster, x, y, outValue);
+        distanceFunction(grayPixels(image), grayPixels(output), image.getWidth(), image.getHeight(), falloff);
+        return output;
+    }
+
+    /**
+     * Applies a distance filter (see above) to row-major pixels.
+     *
+     * @param in      Input pixels
+     * @param out     Receives the output pixels; may be the same array as {@code in}
+     * @param width   Number of pixels per row
+     * @param height  Number of rows
+     * @param falloff Determines the intensity of the distance function
+     */
+    static void distanceFunction(byte[] in, byte[] out, int width, int height, double falloff) {
+        int[] sqDist = squaredBackgroundDist(in, width, height);
+        for (int i = 0; i < sqDist.length; i++) {
+            int outValue = 0;
+            if (sqDist[i] == DIST_INF) {
+                outValue = 255;
+            } else if (sqDist[i] != 0) {
+                outValue = Math.min(255, (int) (Math.sqrt(sqDist[i]) * falloff));
             }
+            out[i] = (byte) outValue;
         }
-        return output;
     }
 
     /**
-     * Applies a Gaussian blur to the input image. Let {@code a = Math.ceil(radius)}, if {@code a} is even, the kernel
-     * is a square matrix of size {@code a*a}. If {@code a} is odd, the kernel is a square matrix of size {@code
-     * (a-1)*(a-1)}. The radius of the Gaussian function is equal to {@code radius/3}.
+     * Applies a Gaussian blur to the input image. Let {@code a = Math.ceil(radius)}, if {@code a} is odd, the kernel
+     * is a square matrix of size {@code a*a}. If {@code a} is even, the kernel is a square matrix of size {@code
+     * (a+1)*(a+1)}. The radius of the Gaussian function is equal to {@code radius/3}. Pixels beyond the edge of the
+     * image are treated as zero.
+     * <p>
+     * The convolution algorithm is picked by {@code chooseMethod}. For kernels of at least {@code BOX_MIN_SIZE} the
+     * Gaussian may be approximated by {@code BOX_PASSES} running-sum box filters with the same variance.
      *
-     * @param image  The image to blur
+     * @param image  An 8-bit grey scale image
      * @param radius The size of the Gaussian kernel (see above)
      * @return A blurred copy of the input image
      */
     static BufferedImage gaussianBlur(BufferedImage image, double radius) {
-        Kernel kernel = gaussianKernel(radius);
-        ConvolveOp op = new ConvolveOp(kernel, ConvolveOp.EDGE_ZERO_FILL, null);
-        int pad = kernel.getWidth() / 2;
-        BufferedImage padded = zeroPad(image, pad);
-        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
-        op.filter(padded, output);
+        int size = gaussianKernel(radius).length;
+        return gaussianBlur(image, radius, chooseMethod(size, size, image.getWidth(), image.getHeight(), true));
+    }
+
+    /**
+     * Applies a Gaussian blur (see above) using the given convolution algorithm.
+     *
+     * @param image  An 8-bit grey scale image
+     * @param radius The size of the Gaussian kernel
+     * @param method The algorithm to use; {@code BOX} is an approximation, the others are exact
+     * @return A blurred copy of the input image
+     */
+    static BufferedImage gaussianBlur(BufferedImage image, double radius, ConvolutionMethod method) {
+        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        gaussianBlur(grayPixels(image), grayPixels(output), image.getWidth(), image.getHeight(), radius, method);
+        return output;
+    }
+
+    /**
+     * Applies a Gaussian blur (see above) to row-major pixels using the algorithm picked by {@code chooseMethod}.
+     *
+     * @param in     Input pixels
+     * @param out    Receives the output pixels; may be the same array as {@code in}
+     * @param width  Number of pixels per row
+     * @param height Number of rows
+     * @param radius The size of the Gaussian kernel
+     */
+    static void gaussianBlur(byte[] in, byte[] out, int width, int height, double radius) {
+        int size = gaussianKernel(radius).length;
+        gaussianBlur(in, out, width, height, radius, chooseMethod(size, size, width, height, true));
+    }
+
+    /**
+     * Applies a Gaussian blur (see above) to row-major pixels using the given algorithm.
+     *
+     * @param in     Input pixels
+     * @param out    Receives the output pixels; may be the same array as {@code in}
+     * @param width  Number of pixels per row
+     * @param height Number of rows
+     * @param radius The size of the Gaussian kernel
+     * @param method The algorithm to use
+     */
+    static void gaussianBlur(byte[] in, byte[] out, int width, int height, double radius,
+                             ConvolutionMethod method) {
+        float[] kernel = gaussianKernel(radius);
+        float[] values = toFloat(in);
+        int half = kernel.length / 2;
+        switch (method) {
+            case DIRECT:
+                values = directCorrelate(values, width, height, outerProduct(kernel), kernel.length, kernel.length,
+                        half, half);
+                break;
+            case SEPARABLE:
+                separableConvolve(values, width, height, kernel);
+                break;
+            case BOX:
+                boxBlur(values, width, height, boxSizes(kernelVariance(kernel), BOX_PASSES));
+                break;
+            default:
+                values = FourierUtility.correlate(values, width, height, outerProduct(kernel), kernel.length,
+                        kernel.length, half, half);
+        }
+        fromFloat(values, out);
+    }
+
+    /**
+     * Convolves the input image with an arbitrary kernel, such as a measured point spread function. The kernel is
+     * applied as {@code java.awt.image.ConvolveOp} applies it (without flipping, centered on the kernel's origin);
+     * pixels beyond the edge of the image are treated as zero. Direct or FFT convolution is picked by {@code
+     * chooseMethod}.
+     *
+     * @param image  An 8-bit grey scale image
+     * @param kernel The kernel to apply
+     * @return A convolved copy of the input image
+     */
+    static BufferedImage convolve(BufferedImage image, Kernel kernel) {
+        return convolve(image, kernel,
+                chooseMethod(kernel.getWidth(), kernel.getHeight(), image.getWidth(), image.getHeight(), false));
+    }
+
+    /**
+     * Convolves the input image with an arbitrary kernel (see above) using the given algorithm.
+     *
+     * @param image  An 8-bit grey scale image
+     * @param kernel The kernel to apply
+     * @param method Either {@code DIRECT} or {@code FFT}
+     * @return A convolved copy of the input image
+     */
+    static BufferedImage convolve(BufferedImage image, Kernel kernel, ConvolutionMethod method) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        float[] values = toFloat(grayPixels(image));
+        float[] weights = kernel.getKernelData(null);
+        switch (method) {
+            case DIRECT:
+                values = directCorrelate(values, width, height, weights, kernel.getWidth(), kernel.getHeight(),
+                        kernel.getXOrigin(), kernel.getYOrigin());
+                break;
+            case FFT:
+                values = FourierUtility.correlate(values, width, height, weights, kernel.getWidth(),
+                        kernel.getHeight(), kernel.getXOrigin(), kernel.getYOrigin());
+                break;
+            default:
+                throw new IllegalArgumentException("Arbitrary kernels support only DIRECT and FFT convolution");
+        }
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        fromFloat(values, grayPixels(output));
         return output;
     }
 
+    /**
+     * Picks the cheapest convolution algorithm for a kernel and image size according to a simple cost model: direct
+     * convolution costs one multiply-add per kernel element per pixel, separable convolution {@code SEPARABLE_COST}
+     * per kernel row and column element, box filtering {@code BOX_COST} per pass, and FFT convolution {@code FFT_COST
+     * * n^2 * log2(n)} per pair of {@code n*n} tiles. The constants were measured on 512x512 and 2048x2048 images.
+     *
+     * @param kWidth    Kernel width
+     * @param kHeight   Kernel height
+     * @param width     Image width
+     * @param height    Image height
+     * @param separable Whether the kernel is a separable Gaussian (so that {@code SEPARABLE} and {@code BOX} are
+     *                  allowed)
+     * @return The method with the lowest estimated cost
+     */
+    static ConvolutionMethod chooseMethod(int kWidth, int kHeight, int width, int height, boolean separable) {
+        double pixels = (double) width * height;
+        ConvolutionMethod best = ConvolutionMethod.DIRECT;
+        double bestCost = pixels * kWidth * kHeight;
+        if (separable) {
+            double separableCost = pixels * (kWidth + kHeight) * SEPARABLE_COST;
+            if (separableCost < bestCost) {
+                best = ConvolutionMethod.SEPARABLE;
+                bestCost = separableCost;
+            }
+            double boxCost = pixels * BOX_PASSES * BOX_COST;
+            if (Math.max(kWidth, kHeight) >= BOX_MIN_SIZE && boxCost < bestCost) {
+                best = ConvolutionMethod.BOX;
+                bestCost = boxCost;
+            }
+        }
+        int n = FourierUtility.tileSize(Math.max(kWidth, kHeight), width, height);
+        long tilesX = (width + n - kWidth) / (n - kWidth + 1);
+        long tilesY = (height + n - kHeight) / (n - kHeight + 1);
+        double fftCost = FFT_COST * ((tilesX * tilesY + 1) / 2) * n * n * Integer.numberOfTrailingZeros(n);
+        if (fftCost < bestCost) {
+            best = ConvolutionMethod.FFT;
+        }
+        return best;
+    }
+
     /**
      * Scales the height and width of the input image by some factor.
      *
@@ -97,18 +269,8 @@ class ImageUtility {
      * @return An intensity-capped copy of the input image
      */
     static BufferedImage cap(BufferedImage image, int max) {
-        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
-            throw new IllegalArgumentException("Image must be TYPE_BYTE_GRAY");
-        }
         BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Raster inRaster = image.getRaster();
-        WritableRaster outRaster = output.getRaster();
-        for (int y = 0; y < output.getHeight(); y++) {
-            for (int x = 0; x < output.getWidth(); x++) {
-                int value = getPixel(inRaster, x, y);
-                setPixel(outRaster, x, y, value > max ? max : value);
-            }
-        }
+        applyTable(grayPixels(image), grayPixels(output), capTable(max));
         return output;
     }
 
@@ -120,127 +282,469 @@ class ImageUtility {
      * @return A normalized copy of the input image
      */
     static BufferedImage normalize(BufferedImage image, int max) {
-        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
-            throw new IllegalArgumentException("Image must be TYPE_BYTE_GRAY");
+        byte[] in = grayPixels(image);
+        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        applyTable(in, grayPixels(output), normalizeTable(max, maxValue(in)));
+        return output;
+    }
+
+    /**
+     * @return A lookup table which maps every intensity to itself
+     */
+    static byte[] identityTable() {
+        byte[] table = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = (byte) i;
         }
-        int currentMax = 0;
-        Raster inRaster = image.getRaster();
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                currentMax = Math.max(currentMax, getPixel(inRaster, x, y));
-            }
+        return table;
+    }
+
+    /**
+     * @param max The maximum intensity, inclusive, on a scale 0-255
+     * @return A lookup table which performs the same operation as {@code cap}
+     */
+    static byte[] capTable(int max) {
+        byte[] table = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = (byte) Math.min(i, max);
         }
-        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        WritableRaster outRaster = output.getRaster();
-        for (int y = 0; y < output.getHeight(); y++) {
-            for (int x = 0; x < output.getWidth(); x++) {
-                int value = getPixel(inRaster, x, y);
-                setPixel(outRaster, x, y, value * max / currentMax);
-            }
+        return table;
+    }
+
+    /**
+     * @param max        The maximum intensity, inclusive, on a scale 0-255
+     * @param currentMax The maximum intensity currently in the image
+     * @return A lookup table which performs the same operation as {@code normalize}
+     * @throws ArithmeticException If {@code currentMax} is zero
+     */
+    static byte[] normalizeTable(int max, int currentMax) throws ArithmeticException {
+        byte[] table = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = (byte) (i * max / currentMax);
         }
-        return output;
+        return table;
     }
 
     /**
-     * A helper for {@code distanceFunction}.
+     * @param first  A lookup table
+     * @param second Another lookup table
+     * @return A lookup table equivalent to applying {@code first} and then {@code second}
+     */
+    static byte[] composeTables(byte[] first, byte[] second) {
+        byte[] table = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            table[i] = second[first[i] & 0xFF];
+        }
+        return table;
+    }
+
+    /**
+     * Maps every pixel through a lookup table.
      *
-     * @param raster A {@code Raster} obtained from the source image
-     * @param x      Pixel's x-coordinate
-     * @param y      Pixel's y-coordinate
-     * @return The distance between the specified pixel and the closest background pixel.
+     * @param in    Input pixels
+     * @param out   Receives the output pixels; may be the same array as {@code in}
+     * @param table A 256-entry lookup table
      */
-    private static double backgroundDist(Raster raster, int x, int y) {
-        int rMax = (int) Math.sqrt(MiscUtility.sq(raster.getWidth()) + MiscUtility.sq(raster.getHeight())) + 1;
-        boolean found = false;
-        double minDist = Double.POSITIVE_INFINITY;
-        for (int r = DIST_SEARCH_STEP; r < rMax && !found; r += DIST_SEARCH_STEP) {
-            int xMin = Math.max(0, x - r);
-            int xMax = Math.min(raster.getWidth(), x + r);
-            int yMin = Math.max(0, y - r);
-            int yMax = Math.min(raster.getHeight(), y + r);
-            for (int yIn = yMin; yIn < yMax; yIn++) {
-                for (int xIn = xMin; xIn < xMax; xIn++) {
-                    if (getPixel(raster, xIn, yIn) > 0) {
-                        continue;
-                    }
-                    double dist = Math.sqrt(MiscUtility.sq(xIn - x) + MiscUtility.sq(yIn - y));
-                    if (dist <= r && dist < minDist) {
-                        found = true;
-                        minDist = dist;
-                    }
+    static void applyTable(byte[] in, byte[] out, byte[] table) {
+        for (int i = 0; i < in.length; i++) {
+            out[i] = table[in[i] & 0xFF];
+        }
+    }
+
+    /**
+     * @param pixels Unsigned 8-bit pixel values
+     * @return The largest value
+     */
+    static int maxValue(byte[] pixels) {
+        int max = 0;
+        for (byte pixel : pixels) {
+            max = Math.max(max, pixel & 0xFF);
+        }
+        return max;
+    }
+
+    /**
+     * A helper for {@code distanceFunction}. Computes the exact squared Euclidean distance transform in linear time
+     * using the lower-envelope method of Felzenszwalb and Huttenlocher: a 1D transform down every column followed by a
+     * 1D transform along every row. Columns (and then rows) are processed in parallel bands.
+     *
+     * @param pixels Row-major grey scale pixels; zero is background
+     * @param width  The width of the image
+     * @param height The height of the image
+     * @return Row-major squared distances from each pixel to the closest background pixel ({@code DIST_INF} if the
+     * image has no background)
+     */
+    private static int[] squaredBackgroundDist(byte[] pixels, int width, int height) {
+        int[] grid = new int[width * height];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = pixels[i] == 0 ? 0 : DIST_INF;
+        }
+        IntStream.range(0, (width + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            int[] f = new int[height];
+            int[] d = new int[height];
+            int[] v = new int[height];
+            double[] z = new double[height + 1];
+            for (int x = band * DIST_BAND; x < Math.min(width, (band + 1) * DIST_BAND); x++) {
+                for (int y = 0; y < height; y++) {
+                    f[y] = grid[y * width + x];
                 }
+                lowerEnvelope(f, d, v, z, height);
+                for (int y = 0; y < height; y++) {
+                    grid[y * width + x] = d[y];
+                }
+            }
+        });
+        IntStream.range(0, (height + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            int[] f = new int[width];
+            int[] d = new int[width];
+            int[] v = new int[width];
+            double[] z = new double[width + 1];
+            for (int y = band * DIST_BAND; y < Math.min(height, (band + 1) * DIST_BAND); y++) {
+                System.arraycopy(grid, y * width, f, 0, width);
+                lowerEnvelope(f, d, v, z, width);
+                System.arraycopy(d, 0, grid, y * width, width);
+            }
+        });
+        return grid;
+    }
+
+    /**
+     * One-dimensional squared distance transform of a sampled function: {@code d[q] = min_p((q - p)^2 + f[p])}.
+     * Entries equal to {@code DIST_INF} are treated as infinite and never chosen as parabola vertices.
+     *
+     * @param f The sampled function
+     * @param d Receives the transform
+     * @param v Scratch space for the locations of the parabolas in the lower envelope
+     * @param z Scratch space for the boundaries between parabolas (one longer than {@code n})
+     * @param n The number of samples
+     */
+    private static void lowerEnvelope(int[] f, int[] d, int[] v, double[] z, int n) {
+        int k = -1;
+        for (int q = 0; q < n; q++) {
+            if (f[q] == DIST_INF) {
+                continue;
+            }
+            double s = Double.NEGATIVE_INFINITY;
+            while (k >= 0) {
+                int p = v[k];
+                s = ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * (q - p));
+                if (s > z[k]) {
+                    break;
+                }
+                k--;
+            }
+            k++;
+            v[k] = q;
+            z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            for (int q = 0; q < n; q++) {
+                d[q] = DIST_INF;
             }
+            return;
+        }
+        int j = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[j + 1] < q) {
+                j++;
+            }
+            long dist = (long) (q - v[j]) * (q - v[j]) + f[v[j]];
+            d[q] = (int) Math.min(dist, DIST_INF);
         }
-        return minDist;
     }
 
     /**
-     * Wrapper used to get the intensity value of a grey scale pixel.
+     * Gives access to the pixels of an 8-bit grey scale image in row-major order, one unsigned byte per pixel. The
+     * image's backing array is returned directly when its layout allows (always the case for images created with the
+     * {@code BufferedImage(width, height, TYPE_BYTE_GRAY)} constructor); otherwise the pixels are copied. Callers which
+     * modify the array should finish with {@code setGrayPixels}.
      *
-     * @param raster The image
-     * @param x      Pixel's x-coordinate
-     * @param y      Pixel's y-coordinate
-     * @return A value in the range 0-255 representing the intensity of the specified pixel
+     * @param image An 8-bit grey scale image
+     * @return An array of {@code width*height} pixel values
+     * @throws IllegalArgumentException If the image isn't {@code TYPE_BYTE_GRAY}
      */
-    private static int getPixel(Raster raster, int x, int y) {
-        int[] pixel = new int[1];
-        raster.getPixel(x, y, pixel);
-        return pixel[0];
+    static byte[] grayPixels(BufferedImage image) throws IllegalArgumentException {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new IllegalArgumentException("Image must be TYPE_BYTE_GRAY");
+        }
+        Raster raster = image.getRaster();
+        if (raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getParent() == null) {
+            ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            if (model.getScanlineStride() == image.getWidth() && model.getPixelStride() == 1
+                    && data.length == image.getWidth() * image.getHeight()) {
+                return data;
+            }
+        }
+        return (byte[]) raster.getDataElements(0, 0, image.getWidth(), image.getHeight(), null);
     }
 
     /**
-     * Wrapper used to set the intensity value of a grey scale pixel.
+     * Stores pixels obtained from {@code grayPixels} back into the image. Does nothing if the array is the image's
+     * backing array.
      *
-     * @param raster The image
-     * @param x      Pixel's x-coordinate
-     * @param y      Pixel's y-coordinate
-     * @param value  Desired value for the pixel in the range 0-255
+     * @param image  An 8-bit grey scale image
+     * @param pixels An array of {@code width*height} pixel values
      */
-    private static void setPixel(WritableRaster raster, int x, int y, int value) {
-        int[] pixel = {value};
-        raster.setPixel(x, y, pixel);
+    static void setGrayPixels(BufferedImage image, byte[] pixels) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (!(buffer instanceof DataBufferByte) || ((DataBufferByte) buffer).getData() != pixels) {
+            image.getRaster().setDataElements(0, 0, image.getWidth(), image.getHeight(), pixels);
+        }
     }
 
     /**
-     * Constructs a Gaussian kernel of the specified size. See notes for {@code gaussianBlur}.
+     * Constructs a normalized one-dimensional Gaussian kernel of the specified size; the outer product of this kernel
+     * with itself is the two-dimensional kernel described in {@code gaussianBlur}.
      *
      * @param radius The size of the Gaussian kernel
      * @return A Gaussian kernel with the specified size
      */
-    private static Kernel gaussianKernel(double radius) {
+    private static float[] gaussianKernel(double radius) {
         double sigma = radius / 3.0;
         int size = (int) Math.ceil(radius);
         size -= size % 2 - 1;
-        float[] weightMatrix = new float[MiscUtility.sq(size)];
+        double[] weights = new double[size];
         int center = size / 2;
         double normConst = 0.0;
         for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                double gauss = Math.exp(
-                        -(MiscUtility.sq(i - center) + MiscUtility.sq(j - center)) / (2 * MiscUtility.sq(sigma)));
-                weightMatrix[i + j * size] = (float) gauss;
-                normConst += gauss;
-            }
+            weights[i] = Math.exp(-MiscUtility.sq(i - center) / (2 * MiscUtility.sq(sigma)));
+            normConst += weights[i];
+        }
+        float[] kernel = new float[size];
+        for (int i = 0; i < size; i++) {
+            kernel[i] = (float) (weights[i] / normConst);
+        }
+        return kernel;
+    }
+
+    /**
+     * @param kernel A normalized, symmetric one-dimensional kernel
+     * @return The variance of the kernel about its center
+     */
+    private static double kernelVariance(float[] kernel) {
+        int center = kernel.length / 2;
+        double variance = 0.0;
+        for (int i = 0; i < kernel.length; i++) {
+            variance += kernel[i] * MiscUtility.sq(i - center);
+        }
+        return variance;
+    }
+
+    /**
+     * Chooses the widths of {@code n} box filters whose composition has (approximately) the given variance. Widths are
+     * odd so that every box is centered; they differ by at most two.
+     *
+     * @param variance The target variance
+     * @param n        The number of boxes
+     * @return The width of each box
+     */
+    private static int[] boxSizes(double variance, int n) {
+        int lower = (int) Math.floor(Math.sqrt(12.0 * variance / n + 1.0));
+        if (lower % 2 == 0) {
+            lower--;
         }
-        for (int i = 0; i < weightMatrix.length; i++) {
-            weightMatrix[i] /= normConst;
+        int upper = lower + 2;
+        double nLowerIdeal = (12.0 * variance - n * lower * lower - 4.0 * n * lower - 3.0 * n) / (-4.0 * lower - 4.0);
+        int nLower = (int) Math.round(nLowerIdeal);
+        int[] sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            sizes[i] = i < nLower ? lower : upper;
         }
-        return new Kernel(size, size, weightMatrix);
+        return sizes;
     }
 
     /**
-     * Pads an image with a zero border (typically to prepare for a convolution).
+     * @param kernel A one-dimensional kernel
+     * @return The row-major square kernel whose element {@code (i, j)} is {@code kernel[i] * kernel[j]}
+     */
+    private static float[] outerProduct(float[] kernel) {
+        float[] product = new float[kernel.length * kernel.length];
+        for (int i = 0; i < kernel.length; i++) {
+            for (int j = 0; j < kernel.length; j++) {
+                product[i * kernel.length + j] = kernel[i] * kernel[j];
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Directly computes {@code out(x, y) = sum over i, j of kernel[i][j] * values(x + j - xOrigin, y + i - yOrigin)},
+     * treating values beyond the edges as zero. Rows are processed in parallel bands.
      *
-     * @param image The image to pad
-     * @param pad   The size in pixels of the border
-     * @return A padded copy of the input image
+     * @param values  Row-major input values
+     * @param width   Number of values per row
+     * @param height  Number of rows
+     * @param kernel  Row-major kernel weights
+     * @param kWidth  Kernel width
+     * @param kHeight Kernel height
+     * @param xOrigin Column of the kernel element aligned with each output pixel
+     * @param yOrigin Row of the kernel element aligned with each output pixel
+     * @return A new row-major array holding the result
      */
-    private static BufferedImage zeroPad(BufferedImage image, int pad) {
-        int width = image.getWidth() + pad * 2;
-        int height = image.getHeight() + pad * 2;
-        BufferedImage output = new BufferedImage(width, height, image.getType());
-        Graphics2D graphics = output.createGraphics();
-        graphics.drawImage(image, pad, pad, null);
+    private static float[] directCorrelate(float[] values, int width, int height, float[] kernel, int kWidth,
+                                           int kHeight, int xOrigin, int yOrigin) {
+        float[] output = new float[values.length];
+        IntStream.range(0, (height + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            for (int y = band * DIST_BAND; y < Math.min(height, (band + 1) * DIST_BAND); y++) {
+                int row = y * width;
+                for (int i = Math.max(0, yOrigin - y); i < Math.min(kHeight, height + yOrigin - y); i++) {
+                    int source = (y + i - yOrigin) * width - xOrigin;
+                    for (int j = 0; j < kWidth; j++) {
+                        float weight = kernel[i * kWidth + j];
+                        if (weight == 0.0f) {
+                            continue;
+                        }
+                        int xMin = Math.max(0, xOrigin - j);
+                        int xMax = Math.min(width, width + xOrigin - j);
+                        for (int x = xMin; x < xMax; x++) {
+                            output[row + x] += weight * values[source + x + j];
+                        }
+                    }
+                }
+            }
+        });
         return output;
     }
+
+    /**
+     * Convolves row-major values with a symmetric kernel along rows and then along columns, in place. Values beyond
+     * the edges are treated as zero.
+     *
+     * @param values The values to convolve
+     * @param width  Number of values per row
+     * @param height Number of rows
+     * @param kernel A one-dimensional kernel of odd length
+     */
+    private static void separableConvolve(float[] values, int width, int height, float[] kernel) {
+        int half = kernel.length / 2;
+        float[] rowPass = new float[values.length];
+        IntStream.range(0, (height + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            for (int y = band * DIST_BAND; y < Math.min(height, (band + 1) * DIST_BAND); y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    int kMin = Math.max(0, half - x);
+                    int kMax = Math.min(kernel.length, width + half - x);
+                    float sum = 0.0f;
+                    for (int k = kMin; k < kMax; k++) {
+                        sum += kernel[k] * values[row + x + k - half];
+                    }
+                    rowPass[row + x] = sum;
+                }
+            }
+        });
+        IntStream.range(0, (height + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            for (int y = band * DIST_BAND; y < Math.min(height, (band + 1) * DIST_BAND); y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    values[row + x] = 0.0f;
+                }
+                int kMin = Math.max(0, half - y);
+                int kMax = Math.min(kernel.length, height + half - y);
+                for (int k = kMin; k < kMax; k++) {
+                    float weight = kernel[k];
+                    int source = (y + k - half) * width;
+                    for (int x = 0; x < width; x++) {
+                        values[row + x] += weight * rowPass[source + x];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies a sequence of box filters along rows and then along columns, in place, using running sums. Values beyond
+     * the edges are treated as zero.
+     *
+     * @param values The values to filter
+     * @param width  Number of values per row
+     * @param height Number of rows
+     * @param sizes  The odd width of each box
+     */
+    private static void boxBlur(float[] values, int width, int height, int[] sizes) {
+        IntStream.range(0, (height + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            float[] line = new float[width];
+            for (int y = band * DIST_BAND; y < Math.min(height, (band + 1) * DIST_BAND); y++) {
+                for (int size : sizes) {
+                    System.arraycopy(values, y * width, line, 0, width);
+                    int half = size / 2;
+                    float scale = 1.0f / size;
+                    double sum = 0.0;
+                    for (int x = 0; x < Math.min(half, width); x++) {
+                        sum += line[x];
+                    }
+                    for (int x = 0; x < width; x++) {
+                        if (x + half < width) {
+                            sum += line[x + half];
+                        }
+                        if (x - half - 1 >= 0) {
+                            sum -= line[x - half - 1];
+                        }
+                        values[y * width + x] = (float) sum * scale;
+                    }
+                }
+            }
+        });
+        IntStream.range(0, (width + DIST_BAND - 1) / DIST_BAND).parallel().forEach(band -> {
+            int x0 = band * DIST_BAND;
+            int x1 = Math.min(width, x0 + DIST_BAND);
+            int bandWidth = x1 - x0;
+            float[] column = new float[height * bandWidth];
+            double[] sums = new double[bandWidth];
+            for (int size : sizes) {
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(values, y * width + x0, column, y * bandWidth, bandWidth);
+                }
+                int half = size / 2;
+                float scale = 1.0f / size;
+                Arrays.fill(sums, 0.0);
+                for (int y = 0; y < Math.min(half, height); y++) {
+                    for (int i = 0; i < bandWidth; i++) {
+                        sums[i] += column[y * bandWidth + i];
+                    }
+                }
+                for (int y = 0; y < height; y++) {
+                    int add = (y + half) * bandWidth;
+                    int remove = (y - half - 1) * bandWidth;
+                    int out = y * width + x0;
+                    for (int i = 0; i < bandWidth; i++) {
+                        if (y + half < height) {
+                            sums[i] += column[add + i];
+                        }
+                        if (remove >= 0) {
+                            sums[i] -= column[remove + i];
+                        }
+                        values[out + i] = (float) sums[i] * scale;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param pixels Unsigned 8-bit pixel values
+     * @return The same values as floats
+     */
+    private static float[] toFloat(byte[] pixels) {
+        float[] values = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            values[i] = pixels[i] & 0xFF;
+        }
+        return values;
+    }
+
+    /**
+     * Truncates float values to integers, clamps them to the range 0-255, and stores them as unsigned 8-bit pixels.
+     *
+     * @param values The values to convert
+     * @param pixels Receives the pixel values; must be at least as long as {@code values}
+     */
+    private static void fromFloat(float[] values, byte[] pixels) {
+        for (int i = 0; i < values.length; i++) {
+            pixels[i] = (byte) Math.max(0, Math.min(255, (int) values[i]));
+        }
+    }
 }
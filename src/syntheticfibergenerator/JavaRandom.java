@@ -0,0 +1,78 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.util.Random;
+
+
+/**
+ * The legacy backend, a thin wrapper around {@code java.util.Random}, and slower than the others. Given a seed it draws
+ * the same values as {@code java.util.Random}. This doesn't reproduce the images of versions before per-image seeds,
+ * since collections now seed each image from the master seed and its index (see {@code RngUtility.deriveSeed}).
+ */
+class JavaRandom extends Generator {
+
+    // The wrapped generator
+    private final Random random;
+
+    // To see whether a generator is a JavaRandom use generator.getType().equals(JavaRandom.typename)
+    static final String typename = "java";
+
+
+    /**
+     * @param seed The seed passed to {@code java.util.Random}
+     */
+    JavaRandom(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @return "java"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void reseed(long seed) {
+        random.setSeed(seed);
+    }
+
+    long nextLong() {
+        return random.nextLong();
+    }
+
+    int nextInt() {
+        return random.nextInt();
+    }
+
+    int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    double nextDouble() {
+        return random.nextDouble();
+    }
+
+    boolean nextBoolean() {
+        return random.nextBoolean();
+    }
+
+    double nextGaussian() {
+        return random.nextGaussian();
+    }
+
+    /**
+     * {@code java.util.Random} can't be split, so the child is seeded from this generator's output.
+     */
+    Generator split() {
+        return new JavaRandom(mix64(random.nextLong()));
+    }
+}
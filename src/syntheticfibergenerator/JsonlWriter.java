@@ -0,0 +1,188 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.io.*;
+
+
+/**
+ * Writes the fiber data of a whole collection as JSON Lines: one record per line, in index order, split across one or
+ * more shard files which are filled one after another. An index file gives the shard, length, and offset of every
+ * record, so one image's data can be read without scanning the shards. Only a handful of files are created however
+ * many images there are.
+ */
+class JsonlWriter implements Closeable {
+
+    // Filename extensions of the shards and of the index
+    static final String EXTENSION = "jsonl";
+    static final String INDEX_EXTENSION = "index";
+
+    // Sizes of the index header and of each index entry, in bytes
+    static final int INDEX_HEADER_BYTES = 8;
+    static final int INDEX_ENTRY_BYTES = 16;
+
+    // Size of the buffer in front of each shard
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    // The filename of the index, and of the shards up to the shard number
+    private final String prefix;
+
+    // Number of records in each shard (the last may hold fewer)
+    private final int perShard;
+
+    // Number of shard files
+    private final int nShards;
+
+    // Shard, length, and offset of each record written
+    private final int[] shards;
+    private final int[] lengths;
+    private final long[] offsets;
+
+    // Index of the next record
+    private int next = 0;
+
+    // The shard being written, or null before the first record
+    private OutputStream shard;
+
+    // Number of bytes written to the current shard
+    private long position = 0;
+
+
+    /**
+     * @param prefix  The filename of the index and shards, up to (but not including) the shard number and extension
+     * @param nImages The number of records which will be written
+     * @param nShards The number of shards to split the records across; fewer are used if there are too few records
+     * @throws IllegalArgumentException If {@code nShards} isn't positive
+     */
+    JsonlWriter(String prefix, int nImages, int nShards) throws IllegalArgumentException {
+        if (nShards <= 0) {
+            throw new IllegalArgumentException("Number of shards must be positive");
+        }
+        this.prefix = prefix;
+        this.perShard = Math.max(1, (nImages + nShards - 1) / nShards);
+        this.nShards = Math.max(1, (nImages + perShard - 1) / perShard);
+        this.shards = new int[nImages];
+        this.lengths = new int[nImages];
+        this.offsets = new long[nImages];
+    }
+
+    /**
+     * @param prefix  The prefix given to the writer
+     * @param shard   The shard number
+     * @param nShards The number of shards, as recorded in the index
+     * @return The shard's filename; a lone shard isn't numbered
+     */
+    static String shardFilename(String prefix, int shard, int nShards) {
+        return nShards == 1 ? prefix + '.' + EXTENSION : prefix + '-' + shard + '.' + EXTENSION;
+    }
+
+    /**
+     * Appends a record (followed by a newline) to the current shard, moving on to the next shard when the current one
+     * is full.
+     *
+     * @param index  The index of the image the record belongs to; records must be written in index order
+     * @param record The record, which mustn't contain a newline
+     * @throws IllegalArgumentException If {@code index} isn't the next index
+     * @throws IOException              If the shard can't be written
+     */
+    void write(int index, byte[] record) throws IllegalArgumentException, IOException {
+        if (index != next || index >= offsets.length) {
+            throw new IllegalArgumentException("Expected record " + next + " but got record " + index);
+        }
+        int shardNumber = index / perShard;
+        if (index % perShard == 0) {
+            closeShard();
+            String filename = shardFilename(prefix, shardNumber, nShards);
+            try {
+                shard = new BufferedOutputStream(new FileOutputStream(filename), BUFFER_BYTES);
+            } catch (IOException e) {
+                throw new IOException("Error while writing \"" + filename + '\"');
+            }
+            position = 0;
+        }
+        shard.write(record);
+        shard.write('\n');
+        shards[index] = shardNumber;
+        lengths[index] = record.length;
+        offsets[index] = position;
+        position += record.length + 1;
+        next++;
+    }
+
+    /**
+     * Finishes the current shard and writes the index. The index starts with the number of records written and the
+     * number of shards, followed by an entry for each record: its shard and length as four-byte integers and its
+     * offset within the shard as an eight-byte integer. All values are big-endian, so record {@code i}'s entry starts
+     * at byte {@code INDEX_HEADER_BYTES + i * INDEX_ENTRY_BYTES}.
+     *
+     * @throws IOException If the shard or the index can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        closeShard();
+        String filename = prefix + '.' + INDEX_EXTENSION;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(next);
+            out.writeInt(nShards);
+            for (int i = 0; i < next; i++) {
+                out.writeInt(shards[i]);
+                out.writeInt(lengths[i]);
+                out.writeLong(offsets[i]);
+            }
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * Reads one record using the index, without reading the rest of the shard.
+     *
+     * @param prefix The prefix the records were written with
+     * @param index  The index of the record
+     * @return The record, without its newline
+     * @throws IllegalArgumentException If the index doesn't have an entry for {@code index}
+     * @throws IOException              If the index or shard can't be read
+     */
+    static byte[] readRecord(String prefix, int index) throws IllegalArgumentException, IOException {
+        int shardNumber;
+        int length;
+        long offset;
+        int nShards;
+        try (RandomAccessFile file = new RandomAccessFile(prefix + '.' + INDEX_EXTENSION, "r")) {
+            int count = file.readInt();
+            if (index < 0 || index >= count) {
+                throw new IllegalArgumentException("No record " + index + " in a dataset of " + count);
+            }
+            nShards = file.readInt();
+            file.seek(INDEX_HEADER_BYTES + (long) index * INDEX_ENTRY_BYTES);
+            shardNumber = file.readInt();
+            length = file.readInt();
+            offset = file.readLong();
+        }
+        byte[] record = new byte[length];
+        try (RandomAccessFile file = new RandomAccessFile(shardFilename(prefix, shardNumber, nShards), "r")) {
+            file.seek(offset);
+            file.readFully(record);
+        }
+        return record;
+    }
+
+    /**
+     * Flushes and closes the current shard, if there is one.
+     */
+    private void closeShard() throws IOException {
+        if (shard != null) {
+            OutputStream finished = shard;
+            shard = null;
+            finished.close();
+        }
+    }
+}
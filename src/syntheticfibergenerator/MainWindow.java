@@ -53,6 +53,26 @@ class MainWindow extends JFrame {
     private JTextField nImagesField;
     private JCheckBox seedCheck;
     private JTextField seedField;
+    private JCheckBox generatorCheck;
+    private JTextField generatorField;
+    private JCheckBox samplerCheck;
+    private JTextField samplerField;
+    private JCheckBox threadsCheck;
+    private JTextField threadsField;
+    private JCheckBox forkThresholdCheck;
+    private JTextField forkThresholdField;
+    private JCheckBox pipelineCheck;
+    private JTextField pipelineField;
+    private JCheckBox formatCheck;
+    private JTextField formatField;
+    private JCheckBox compressionCheck;
+    private JTextField compressionField;
+    private JCheckBox stackCheck;
+    private JTextField stackField;
+    private JCheckBox dataFormatCheck;
+    private JTextField dataFormatField;
+    private JCheckBox shardsCheck;
+    private JTextField shardsField;
 
     // Elements of the "Distributions" panel
     private JButton lengthButton;
@@ -89,6 +109,8 @@ class MainWindow extends JFrame {
     private JTextField capField;
     private JCheckBox normalizeCheck;
     private JTextField normalizeField;
+    private JCheckBox renderCheck;
+    private JTextField renderField;
 
     // Elements of the "Smoothing" panel
     private JCheckBox bubbleCheck;
@@ -216,6 +238,26 @@ class MainWindow extends JFrame {
         nImagesField = session.addFieldLine(params.nImages);
         seedCheck = session.addCheckBox(params.seed);
         seedField = session.addField();
+        generatorCheck = session.addCheckBox(params.generator);
+        generatorField = session.addField();
+        samplerCheck = session.addCheckBox(params.sampler);
+        samplerField = session.addField();
+        threadsCheck = session.addCheckBox(params.threads);
+        threadsField = session.addField();
+        forkThresholdCheck = session.addCheckBox(params.forkThreshold);
+        forkThresholdField = session.addField();
+        pipelineCheck = session.addCheckBox(params.pipeline);
+        pipelineField = session.addField();
+        formatCheck = session.addCheckBox(params.format);
+        formatField = session.addField();
+        compressionCheck = session.addCheckBox(params.compression);
+        compressionField = session.addField();
+        stackCheck = session.addCheckBox(params.stack);
+        stackField = session.addField();
+        dataFormatCheck = session.addCheckBox(params.dataFormat);
+        dataFormatField = session.addField();
+        shardsCheck = session.addCheckBox(params.shards);
+        shardsField = session.addField();
 
         lengthButton = distribution.addButtonLine(
                 "Length distribution:", "Distribution of fiber lengths in pixels", "Modify...");
@@ -251,6 +293,8 @@ class MainWindow extends JFrame {
         capField = optional.addField();
         normalizeCheck = optional.addCheckBox(params.normalize);
         normalizeField = optional.addField();
+        renderCheck = optional.addCheckBox(params.render);
+        renderField = optional.addField();
 
         bubbleCheck = smooth.addCheckBox(params.bubble);
         bubbleField = smooth.addField();
@@ -275,6 +319,26 @@ class MainWindow extends JFrame {
         nImagesField.setText(params.nImages.string());
         seedCheck.setSelected(params.seed.use);
         seedField.setText(params.seed.string());
+        generatorCheck.setSelected(params.generator.use);
+        generatorField.setText(params.generator.string());
+        samplerCheck.setSelected(params.sampler.use);
+        samplerField.setText(params.sampler.string());
+        threadsCheck.setSelected(params.threads.use);
+        threadsField.setText(params.threads.string());
+        forkThresholdCheck.setSelected(params.forkThreshold.use);
+        forkThresholdField.setText(params.forkThreshold.string());
+        pipelineCheck.setSelected(params.pipeline.use);
+        pipelineField.setText(params.pipeline.string());
+        formatCheck.setSelected(params.format.use);
+        formatField.setText(params.format.string());
+        compressionCheck.setSelected(params.compression.use);
+        compressionField.setText(params.compression.string());
+        stackCheck.setSelected(params.stack.use);
+        stackField.setText(params.stack.string());
+        dataFormatCheck.setSelected(params.dataFormat.use);
+        dataFormatField.setText(params.dataFormat.string());
+        shardsCheck.setSelected(params.shards.use);
+        shardsField.setText(params.shards.string());
 
         lengthDisplay.setPreferredSize(lengthDisplay.getSize());
         lengthDisplay.setText(params.length.getString());
@@ -307,6 +371,8 @@ class MainWindow extends JFrame {
         capField.setText(params.cap.string());
         normalizeCheck.setSelected(params.normalize.use);
         normalizeField.setText(params.normalize.string());
+        renderCheck.setSelected(params.render.use);
+        renderField.setText(params.render.string());
 
         bubbleCheck.setSelected(params.bubble.use);
         bubbleField.setText(params.bubble.string());
@@ -324,6 +390,16 @@ class MainWindow extends JFrame {
     private void parseParams() throws IllegalArgumentException {
         params.nImages.parse(nImagesField.getText(), Integer::parseInt);
         params.seed.parse(seedCheck.isSelected(), seedField.getText(), Long::parseLong);
+        params.generator.parse(generatorCheck.isSelected(), generatorField.getText(), String::trim);
+        params.sampler.parse(samplerCheck.isSelected(), samplerField.getText(), String::trim);
+        params.threads.parse(threadsCheck.isSelected(), threadsField.getText(), Integer::parseInt);
+        params.forkThreshold.parse(forkThresholdCheck.isSelected(), forkThresholdField.getText(), Integer::parseInt);
+        params.pipeline.parse(pipelineCheck.isSelected(), pipelineField.getText(), String::trim);
+        params.format.parse(formatCheck.isSelected(), formatField.getText(), String::trim);
+        params.compression.parse(compressionCheck.isSelected(), compressionField.getText(), Integer::parseInt);
+        params.stack.parse(stackCheck.isSelected(), stackField.getText(), String::trim);
+        params.dataFormat.parse(dataFormatCheck.isSelected(), dataFormatField.getText(), String::trim);
+        params.shards.parse(shardsCheck.isSelected(), shardsField.getText(), Integer::parseInt);
 
         params.nFibers.parse(nFibersField.getText(), Integer::parseInt);
         params.segmentLength.parse(segmentField.getText(), Double::parseDouble);
@@ -342,6 +418,7 @@ class MainWindow extends JFrame {
         params.distance.parse(distanceCheck.isSelected(), distanceField.getText(), Double::parseDouble);
         params.cap.parse(capCheck.isSelected(), capField.getText(), Integer::parseInt);
         params.normalize.parse(normalizeCheck.isSelected(), normalizeField.getText(), Integer::parseInt);
+        params.render.parse(renderCheck.isSelected(), renderField.getText(), String::trim);
 
         params.bubble.parse(bubbleCheck.isSelected(), bubbleField.getText(), Integer::parseInt);
         params.swap.parse(swapCheck.isSelected(), swapField.getText(), Integer::parseInt);
@@ -12,6 +12,9 @@ package syntheticfibergenerator;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 
 
@@ -98,4 +101,56 @@ class MiscUtility {
         }
         return points;
     }
+
+    /**
+     * Writes a signed integer as a zigzag-encoded variable-length integer: seven bits per byte, least significant
+     * first, with the high bit set on every byte but the last. Values near zero of either sign take a single byte.
+     *
+     * @param out   Where to write the value
+     * @param value The value to write
+     * @throws IOException If writing fails
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    /**
+     * Reverses {@code writeVarLong}.
+     *
+     * @param in Where to read the value
+     * @return The value read
+     * @throws IOException If reading fails or the value is longer than ten bytes
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads a count written by {@code writeVarLong}, checking it before it's used to size anything.
+     *
+     * @param in  Where to read the count
+     * @param max The largest count allowed, such as the number of bytes in the data when each item takes at least one
+     * @return The count read
+     * @throws IOException If reading fails or the count is negative or greater than {@code max}
+     */
+    static int readCount(DataInput in, long max) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Math.min(max, Integer.MAX_VALUE)) {
+            throw new IOException("Invalid count " + count);
+        }
+        return (int) count;
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+
+/**
+ * A NumPy {@code .npy} file holding an {@code (nImages, height, width)} array of {@code uint8}, which NumPy and PyTorch
+ * can memory-map directly. The file is filled through memory-mapped windows of several images each, so each image is a
+ * single bulk copy from the raster's backing array.
+ */
+class NpyWriter extends StackWriter {
+
+    // Format name, which is also the filename extension
+    static final String typename = "npy";
+
+    // The header (magic string, version, length, and dictionary) is padded to a multiple of this
+    private static final int HEADER_ALIGN = 64;
+
+    // Approximate size of each memory-mapped window
+    private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+
+    // The name of the file being written
+    private final String filename;
+
+    // The open file
+    private final FileChannel channel;
+
+    // Size of the header in bytes, once the first image is written
+    private long dataStart;
+
+    // Number of images covered by each window
+    private int windowImages;
+
+    // The current window and the index of its first image
+    private MappedByteBuffer window;
+    private int windowFirst;
+
+
+    /**
+     * @param filename The name of the file to write
+     * @param nImages  The number of images in the stack
+     * @throws IOException If the file can't be created
+     */
+    NpyWriter(String filename, int nImages) throws IOException {
+        super(nImages);
+        this.filename = filename;
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * The array shape is only known once the first image arrives, so the header is written then.
+     */
+    void write(int index, BufferedImage image) throws IOException {
+        byte[] pixels = ImageUtility.grayPixels(image);
+        try {
+            if (checkImage(index, image)) {
+                writeHeader();
+            }
+            long imageBytes = (long) width * height;
+            if (window == null || index < windowFirst || index >= windowFirst + windowImages) {
+                if (window != null) {
+                    window.force();
+                }
+                windowFirst = index - index % windowImages;
+                int count = Math.min(windowImages, nImages - windowFirst);
+                window = channel.map(FileChannel.MapMode.READ_WRITE, dataStart + windowFirst * imageBytes,
+                        count * imageBytes);
+            }
+            ByteBuffer target = window.duplicate();
+            target.position((int) ((index - windowFirst) * imageBytes));
+            target.put(pixels, 0, (int) imageBytes);
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * Flushes the last window and closes the file.
+     */
+    public void close() throws IOException {
+        try {
+            if (window != null) {
+                window.force();
+                window = null;
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * Writes a version 1.0 header, padded with spaces (and a final newline) to a multiple of {@code HEADER_ALIGN}.
+     */
+    private void writeHeader() throws IOException {
+        String dict = "{'descr': '|u1', 'fortran_order': False, 'shape': (" + nImages + ", " + height + ", " + width +
+                "), }";
+        int prefix = 6 + 2 + 2;
+        int length = prefix + dict.length() + 1;
+        int padded = (length + HEADER_ALIGN - 1) / HEADER_ALIGN * HEADER_ALIGN;
+        StringBuilder builder = new StringBuilder(dict);
+        while (prefix + builder.length() + 1 < padded) {
+            builder.append(' ');
+        }
+        builder.append('\n');
+        byte[] text = builder.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer header = ByteBuffer.allocate(prefix + text.length);
+        header.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        header.put((byte) 1).put((byte) 0);
+        header.put((byte) text.length).put((byte) (text.length >>> 8));
+        header.put(text);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        dataStart = prefix + text.length;
+        windowImages = (int) Math.max(1, WINDOW_BYTES / ((long) width * height));
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Binary ("P5") portable graymap: a short text header followed by the pixels, one byte each.
+ */
+class PgmEncoder extends ImageEncoder {
+
+    // To see whether an encoder is a PgmEncoder use encoder.getType().equals(PgmEncoder.typename)
+    static final String typename = "pgm";
+
+
+    /**
+     * @return "pgm"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void write(BufferedImage image, OutputStream stream) throws IOException {
+        byte[] pixels = ImageUtility.grayPixels(image);
+        String header = "P5\n" + image.getWidth() + ' ' + image.getHeight() + "\n255\n";
+        stream.write(header.getBytes(StandardCharsets.US_ASCII));
+        stream.write(pixels, 0, image.getWidth() * image.getHeight());
+        stream.flush();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+
+/**
+ * The Philox4x32-10 counter-based generator of Salmon et al. Each output block is a keyed bijection of a 128-bit
+ * counter, so any position in the sequence can be reached in constant time and streams with different keys are
+ * independent.
+ */
+class Philox extends Generator {
+
+    // Round multipliers and Weyl key increments from the reference implementation
+    private static final long M0 = 0xD2511F53L;
+    private static final long M1 = 0xCD9E8D57L;
+    private static final int W0 = 0x9E3779B9;
+    private static final int W1 = 0xBB67AE85;
+
+    // The 64-bit key selecting the stream
+    private int k0, k1;
+
+    // The 128-bit block counter, least significant word first
+    private int c0, c1, c2, c3;
+
+    // The current output block and the number of its 64-bit halves that have been consumed
+    private final int[] block = new int[4];
+    private int used = 2;
+
+    // To see whether a generator is Philox use generator.getType().equals(Philox.typename)
+    static final String typename = "philox";
+
+
+    /**
+     * @param seed Used as the key; the counter starts at zero
+     */
+    Philox(long seed) {
+        reseed(seed);
+    }
+
+    /**
+     * @return "philox"
+     */
+    String getType() {
+        return typename;
+    }
+
+    /**
+     * Uses the seed as the key and moves back to the start of the stream.
+     */
+    void reseed(long seed) {
+        k0 = (int) seed;
+        k1 = (int) (seed >>> 32);
+        seek(0);
+    }
+
+    long nextLong() {
+        if (used == 2) {
+            bijection(c0, c1, c2, c3, k0, k1, block);
+            if (++c0 == 0 && ++c1 == 0 && ++c2 == 0) {
+                ++c3;
+            }
+            used = 0;
+        }
+        int i = 2 * used++;
+        return (block[i] & 0xFFFFFFFFL) | ((long) block[i + 1] << 32);
+    }
+
+    /**
+     * Moves to an arbitrary position in the stream without generating the intermediate values.
+     *
+     * @param position The index of the 64-bit output to produce next
+     */
+    void seek(long position) {
+        c0 = (int) (position >>> 1);
+        c1 = (int) (position >>> 33);
+        c2 = 0;
+        c3 = 0;
+        used = 2;
+        if ((position & 1) != 0) {
+            nextLong();
+        }
+    }
+
+    /**
+     * The child uses a fresh key drawn from this stream.
+     */
+    Generator split() {
+        return new Philox(mix64(nextLong()));
+    }
+
+    /**
+     * Applies ten Philox rounds to a counter block.
+     *
+     * @param c0  Counter word 0 (least significant)
+     * @param c1  Counter word 1
+     * @param c2  Counter word 2
+     * @param c3  Counter word 3 (most significant)
+     * @param k0  Key word 0
+     * @param k1  Key word 1
+     * @param out Receives the four output words
+     */
+    static void bijection(int c0, int c1, int c2, int c3, int k0, int k1, int[] out) {
+        for (int round = 0; round < 10; round++) {
+            long p0 = M0 * (c0 & 0xFFFFFFFFL);
+            long p1 = M1 * (c2 & 0xFFFFFFFFL);
+            int n0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+            int n2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+            c1 = (int) p1;
+            c3 = (int) p0;
+            c0 = n0;
+            c2 = n2;
+            k0 += W0;
+            k1 += W1;
+        }
+        out[0] = c0;
+        out[1] = c1;
+        out[2] = c2;
+        out[3] = c3;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A chain of stages connected by bounded queues. Each stage has its own pool of worker threads; a stage blocks when the
+ * queue to the next stage is full, so a slow stage throttles the ones before it. Items are identified by an index and
+ * are handed to the sink in index order, whatever order the workers finish them in. Items finished ahead of their turn
+ * wait in a reorder buffer, and new items are only started while the window of unfinished indices is below the total
+ * capacity of the queues and workers, so one slow item can't let the buffer grow without bound.
+ *
+ * @param <T> The type of item passed between stages
+ */
+class Pipeline<T> {
+
+    /**
+     * One step of the pipeline.
+     */
+    interface Stage<T> {
+
+        /**
+         * @param index The index of the item
+         * @param item  The output of the previous stage ({@code null} for the first stage)
+         * @return The item to pass to the next stage
+         * @throws Exception If processing fails; this stops the pipeline
+         */
+        T process(int index, T item) throws Exception;
+    }
+
+    /**
+     * Receives finished items on the thread which called {@code run}.
+     */
+    interface Sink<T> {
+
+        /**
+         * @param index The index of the item
+         * @param item  The output of the last stage
+         * @throws Exception If the sink fails; this stops the pipeline
+         */
+        void accept(int index, T item) throws Exception;
+    }
+
+    /**
+     * An item together with its index.
+     */
+    private static class Indexed<T> {
+
+        // Position of the item in the input sequence
+        final int index;
+
+        // The item as produced by the most recent stage
+        T item;
+
+
+        Indexed(int index, T item) {
+            this.index = index;
+            this.item = item;
+        }
+    }
+
+
+    // The stages in the order they're applied
+    private ArrayList<Stage<T>> stages = new ArrayList<>();
+
+    // Number of worker threads for each stage
+    private ArrayList<Integer> workers = new ArrayList<>();
+
+    // Capacity of each queue between stages
+    private int capacity;
+
+    // How long the sink waits for an item before checking for failures
+    private static final long POLL_MILLIS = 100;
+
+
+    /**
+     * @param capacity Capacity of each queue between stages
+     * @throws IllegalArgumentException If {@code capacity} isn't positive
+     */
+    Pipeline(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Appends a stage to the pipeline.
+     *
+     * @param nWorkers Number of worker threads for the stage
+     * @param stage    The stage
+     * @return This pipeline
+     * @throws IllegalArgumentException If {@code nWorkers} isn't positive
+     */
+    Pipeline<T> addStage(int nWorkers, Stage<T> stage) throws IllegalArgumentException {
+        if (nWorkers <= 0) {
+            throw new IllegalArgumentException("Each stage needs at least one worker");
+        }
+        stages.add(stage);
+        workers.add(nWorkers);
+        return this;
+    }
+
+    /**
+     * Runs items {@code 0} to {@code nItems - 1} through every stage and passes them to {@code sink} in index order.
+     * If any stage or the sink throws, the remaining work is cancelled and the first failure is rethrown.
+     *
+     * @param nItems The number of items
+     * @param sink   Receives finished items
+     * @throws Exception The first exception thrown by a stage or the sink (an {@code Error} thrown by a stage, such as
+     *                   running out of memory, is rethrown in the same way)
+     */
+    void run(int nItems, Sink<T> sink) throws Exception {
+        int nThreads = 1;
+        ArrayList<BlockingQueue<Indexed<T>>> queues = new ArrayList<>();
+        for (int nWorkers : workers) {
+            nThreads += nWorkers;
+            queues.add(new ArrayBlockingQueue<>(capacity));
+        }
+        queues.add(new ArrayBlockingQueue<>(capacity));
+        Semaphore window = new Semaphore(nThreads + capacity * queues.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            pool.submit(() -> {
+                try {
+                    for (int i = 0; i < nItems; i++) {
+                        window.acquire();
+                        queues.get(0).put(new Indexed<>(i, null));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int s = 0; s < stages.size(); s++) {
+                Stage<T> stage = stages.get(s);
+                BlockingQueue<Indexed<T>> in = queues.get(s);
+                BlockingQueue<Indexed<T>> out = queues.get(s + 1);
+                AtomicInteger claimed = new AtomicInteger();
+                for (int w = 0; w < workers.get(s); w++) {
+                    pool.submit(() -> {
+                        try {
+                            while (claimed.getAndIncrement() < nItems) {
+                                Indexed<T> job = in.take();
+                                job.item = stage.process(job.index, job.item);
+                                out.put(job);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                }
+            }
+            drain(queues.get(queues.size() - 1), nItems, sink, window, failure);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes finished items from the last queue and passes them to the sink in index order, releasing a place in the
+     * window for each item the sink accepts.
+     */
+    private static <T> void drain(BlockingQueue<Indexed<T>> finished, int nItems, Sink<T> sink, Semaphore window,
+                                  AtomicReference<Throwable> failure) throws Exception {
+        HashMap<Integer, T> early = new HashMap<>();
+        int next = 0;
+        while (next < nItems) {
+            Throwable thrown = failure.get();
+            if (thrown instanceof Error) {
+                throw (Error) thrown;
+            } else if (thrown != null) {
+                throw (Exception) thrown;
+            }
+            Indexed<T> job = finished.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (job == null) {
+                continue;
+            }
+            early.put(job.index, job.item);
+            while (early.containsKey(next)) {
+                sink.accept(next, early.remove(next));
+                window.release();
+                next++;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes 8-bit grey scale PNG files, filtering rows and compressing stripes of rows in parallel. Each stripe is
+ * compressed independently with the preceding 32 KB of data as its dictionary and ends in a sync flush, so the
+ * compressed stripes concatenate into a single valid zlib stream. Images of other types are written with {@code
+ * ImageIO}.
+ */
+class PngEncoder extends ImageEncoder {
+
+    // To see whether an encoder is a PngEncoder use encoder.getType().equals(PngEncoder.typename)
+    static final String typename = "png";
+
+    // The deflate level
+    private final int level;
+
+    // Every PNG file starts with these bytes
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // Compression level used when none is given (the zlib default)
+    static final int DEFAULT_LEVEL = 6;
+
+    // Approximate amount of filtered data compressed by each parallel task
+    private static final int STRIPE_BYTES = 256 * 1024;
+
+    // Size of the deflate window, and so of the dictionary given to each stripe
+    private static final int WINDOW_BYTES = 32 * 1024;
+
+    // PNG filter types
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+
+    /**
+     * @param level The deflate compression level, from 0 (stored, fastest) to 9 (smallest)
+     * @throws IllegalArgumentException If {@code level} isn't in the range 0-9
+     */
+    PngEncoder(int level) throws IllegalArgumentException {
+        verifyLevel(level);
+        this.level = level;
+    }
+
+    /**
+     * @return "png"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void write(BufferedImage image, OutputStream stream) throws IOException {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            write(image, level, stream);
+        } else {
+            ImageIO.write(image, typename, stream);
+        }
+    }
+
+    /**
+     * @param level A deflate compression level
+     * @throws IllegalArgumentException If {@code level} isn't in the range 0-9
+     */
+    static void verifyLevel(int level) throws IllegalArgumentException {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+    }
+
+    /**
+     * @param image An 8-bit grey scale image
+     * @param level The deflate compression level, from 0 (stored, fastest) to 9 (smallest)
+     * @return The contents of a PNG file holding the image
+     */
+    static byte[] encode(BufferedImage image, int level) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            write(image, level, stream);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Writes an image to a stream as a PNG file.
+     *
+     * @param image  An 8-bit grey scale image
+     * @param level  The deflate compression level, from 0 (stored, fastest) to 9 (smallest)
+     * @param stream Where to write the file
+     * @throws IOException If writing to the stream fails
+     */
+    static void write(BufferedImage image, int level, OutputStream stream) throws IOException {
+        verifyLevel(level);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] filtered = filter(ImageUtility.grayPixels(image), width, height, level > 0);
+
+        int stripeRows = Math.max(1, STRIPE_BYTES / (width + 1));
+        int nStripes = (height + stripeRows - 1) / stripeRows;
+        byte[][] compressed = new byte[nStripes][];
+        IntStream.range(0, nStripes).parallel().forEach(i -> {
+            int start = i * stripeRows * (width + 1);
+            int end = Math.min(height, (i + 1) * stripeRows) * (width + 1);
+            compressed[i] = deflateStripe(filtered, start, end, level, i == nStripes - 1);
+        });
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);  // bit depth
+        headerData.writeByte(0);  // grey scale
+        headerData.writeByte(0);  // deflate
+        headerData.writeByte(0);  // adaptive filtering
+        headerData.writeByte(0);  // no interlace
+        writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+        for (int i = 0; i < nStripes; i++) {
+            byte[] data = compressed[i];
+            if (i == 0) {
+                data = concat(zlibHeader(level), data);
+            }
+            if (i == nStripes - 1) {
+                long checksum = adler.getValue();
+                data = concat(data, new byte[]{
+                        (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum});
+            }
+            writeChunk(out, "IDAT", data, 0, data.length);
+        }
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    /**
+     * Prefixes each row with a filter type and applies that filter. With {@code adaptive} set, each row uses the
+     * filter which minimizes the sum of absolute (signed) filtered values, the usual heuristic; otherwise rows are left
+     * unfiltered. Rows are filtered in parallel bands.
+     *
+     * @param pixels   Row-major pixels
+     * @param width    Number of pixels per row
+     * @param height   Number of rows
+     * @param adaptive Whether to choose a filter per row
+     * @return {@code height} rows of {@code width + 1} bytes
+     */
+    private static byte[] filter(byte[] pixels, int width, int height, boolean adaptive) {
+        byte[] filtered = new byte[height * (width + 1)];
+        int band = Math.max(1, STRIPE_BYTES / (width + 1));
+        IntStream.range(0, (height + band - 1) / band).parallel().forEach(b -> {
+            byte[] candidate = new byte[width];
+            byte[] best = new byte[width];
+            byte[] zeros = new byte[width];
+            for (int y = b * band; y < Math.min(height, (b + 1) * band); y++) {
+                int out = y * (width + 1);
+                if (!adaptive) {
+                    filtered[out] = FILTER_NONE;
+                    System.arraycopy(pixels, y * width, filtered, out + 1, width);
+                    continue;
+                }
+                int bestType = FILTER_NONE;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+                    long sum = filterRow(pixels, y * width, y > 0 ? (y - 1) * width : -1, width, type, candidate,
+                            zeros);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        bestType = type;
+                        byte[] swap = best;
+                        best = candidate;
+                        candidate = swap;
+                    }
+                }
+                filtered[out] = (byte) bestType;
+                System.arraycopy(best, 0, filtered, out + 1, width);
+            }
+        });
+        return filtered;
+    }
+
+    /**
+     * Applies one PNG filter to a row.
+     *
+     * @param pixels Row-major pixels
+     * @param row    Index of the row's first pixel
+     * @param prior  Index of the previous row's first pixel, or -1 for the first row
+     * @param width  Number of pixels per row
+     * @param type   The filter type
+     * @param out    Receives the filtered row
+     * @param zeros  A row of zeros, used as the previous row of the first row
+     * @return The sum of the absolute values of the filtered bytes, treated as signed
+     */
+    private static long filterRow(byte[] pixels, int row, int prior, int width, int type, byte[] out, byte[] zeros) {
+        byte[] up = prior >= 0 ? pixels : zeros;
+        int upStart = prior >= 0 ? prior : 0;
+        long sum = 0;
+        for (int x = 0; x < width; x++) {
+            int current = pixels[row + x] & 0xFF;
+            int a = x > 0 ? pixels[row + x - 1] & 0xFF : 0;
+            int b = up[upStart + x] & 0xFF;
+            int c = x > 0 ? up[upStart + x - 1] & 0xFF : 0;
+            int predictor;
+            switch (type) {
+                case FILTER_SUB:
+                    predictor = a;
+                    break;
+                case FILTER_UP:
+                    predictor = b;
+                    break;
+                case FILTER_AVERAGE:
+                    predictor = (a + b) >>> 1;
+                    break;
+                case FILTER_PAETH:
+                    predictor = paeth(a, b, c);
+                    break;
+                default:
+                    predictor = 0;
+            }
+            byte value = (byte) (current - predictor);
+            out[x] = value;
+            sum += Math.abs(value);
+        }
+        return sum;
+    }
+
+    /**
+     * The Paeth predictor from the PNG specification.
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Compresses part of the data as raw deflate blocks, using the preceding {@code WINDOW_BYTES} as a dictionary. The
+     * output ends with a sync flush (so it's byte-aligned and can be followed by the next stripe) unless it's the last
+     * stripe, which is finished.
+     *
+     * @param data  All of the data
+     * @param start Index of the stripe's first byte
+     * @param end   Index one past the stripe's last byte
+     * @param level The compression level
+     * @param last  Whether this is the last stripe
+     * @return The compressed stripe
+     */
+    private static byte[] deflateStripe(byte[] data, int start, int end, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (start > 0) {
+                int dictStart = Math.max(0, start - WINDOW_BYTES);
+                deflater.setDictionary(data, dictStart, start - dictStart);
+            }
+            deflater.setInput(data, start, end - start);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, (end - start) / 4));
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param level The compression level
+     * @return The two-byte zlib header for a 32 KB window and no preset dictionary
+     */
+    private static byte[] zlibHeader(int level) {
+        int cmf = 0x78;
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    /**
+     * Writes a PNG chunk: length, type, data, and the CRC of the type and data.
+     */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
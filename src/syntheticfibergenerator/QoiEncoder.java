@@ -0,0 +1,108 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * The "Quite OK Image" format, a simple lossless codec which encodes and decodes many times faster than PNG, though
+ * files are typically a few times larger. Grey values are written as three-channel pixels with equal channels, so
+ * standard QOI decoders read the files as RGB; only the run, index, diff, luma, and RGB operations are produced.
+ */
+class QoiEncoder extends ImageEncoder {
+
+    // To see whether an encoder is a QoiEncoder use encoder.getType().equals(QoiEncoder.typename)
+    static final String typename = "qoi";
+
+    // Operation tags
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE;
+
+    // Longest run a single OP_RUN can encode
+    private static final int MAX_RUN = 62;
+
+    // Marks the end of the stream
+    private static final byte[] END = {0, 0, 0, 0, 0, 0, 0, 1};
+
+
+    /**
+     * @return "qoi"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void write(BufferedImage image, OutputStream stream) throws IOException {
+        byte[] pixels = ImageUtility.grayPixels(image);
+        int nPixels = image.getWidth() * image.getHeight();
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeBytes("qoif");
+        out.writeInt(image.getWidth());
+        out.writeInt(image.getHeight());
+        out.writeByte(3);  // channels
+        out.writeByte(0);  // sRGB
+
+        // The worst case is four bytes per pixel
+        byte[] buffer = new byte[4 * nPixels + END.length];
+        int n = 0;
+
+        // Recently seen grey values by hash; -1 is empty (no grey pixel hashes like transparent black)
+        int[] index = new int[64];
+        Arrays.fill(index, -1);
+        int previous = 0;
+        int run = 0;
+        for (int i = 0; i < nPixels; i++) {
+            int value = pixels[i] & 0xFF;
+            if (value == previous) {
+                run++;
+                if (run == MAX_RUN || i == nPixels - 1) {
+                    buffer[n++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                buffer[n++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+            int hash = (value * (3 + 5 + 7) + 255 * 11) % 64;
+            if (index[hash] == value) {
+                buffer[n++] = (byte) (OP_INDEX | hash);
+            } else {
+                index[hash] = value;
+                int diff = (byte) (value - previous);
+                if (diff >= -2 && diff <= 1) {
+                    buffer[n++] = (byte) (OP_DIFF | (diff + 2) << 4 | (diff + 2) << 2 | (diff + 2));
+                } else if (diff >= -32 && diff <= 31) {
+                    buffer[n++] = (byte) (OP_LUMA | (diff + 32));
+                    buffer[n++] = (byte) (8 << 4 | 8);
+                } else {
+                    buffer[n++] = (byte) OP_RGB;
+                    buffer[n++] = (byte) value;
+                    buffer[n++] = (byte) value;
+                    buffer[n++] = (byte) value;
+                }
+            }
+            previous = value;
+        }
+        System.arraycopy(END, 0, buffer, n, END.length);
+        out.write(buffer, 0, n + END.length);
+        out.flush();
+    }
+}
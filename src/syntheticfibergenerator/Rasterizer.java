@@ -0,0 +1,198 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+
+/**
+ * Draws fiber segments as capsules (a thick segment with round caps) directly into 8-bit grey scale pixel arrays.
+ * Pixel {@code (i, j)} covers the square {@code [i, i+1) x [j, j+1)}. Endpoints keep their subpixel positions.
+ */
+class Rasterizer {
+
+    // Render modes accepted by FiberImage.Params.render
+    static final String SCANLINE = "scanline";
+    static final String JAVA2D = "java2d";
+    static final String ANTIALIASED = "antialiased";
+
+    // Smallest radius drawn, so that thin fibers stay connected (as with Java2D's thin lines)
+    private static final double MIN_RADIUS = 0.5;
+
+
+    /**
+     * @param mode A render mode name
+     * @throws IllegalArgumentException If {@code mode} isn't one of the supported render modes
+     */
+    static void verifyMode(String mode) throws IllegalArgumentException {
+        if (!mode.equals(SCANLINE) && !mode.equals(JAVA2D) && !mode.equals(ANTIALIASED)) {
+            throw new IllegalArgumentException("Unknown render mode \"" + mode + '\"');
+        }
+    }
+
+    /**
+     * Fills every pixel whose center is within {@code width/2} of the segment from {@code (x0, y0)} to {@code (x1,
+     * y1)}. The capsule's intersection with each row is an interval, found as the hull of its intersections with the
+     * two end disks and the central rectangle.
+     *
+     * @param pixels      Row-major pixels of the image
+     * @param imageWidth  Number of pixels per row
+     * @param imageHeight Number of rows
+     * @param x0          x-coordinate of the start point
+     * @param y0          y-coordinate of the start point
+     * @param x1          x-coordinate of the end point
+     * @param y1          y-coordinate of the end point
+     * @param width       The segment width
+     * @param value       The intensity written to covered pixels
+     */
+    static void fillCapsule(byte[] pixels, int imageWidth, int imageHeight, double x0, double y0, double x1, double y1,
+                            double width, int value) {
+        double radius = Math.max(MIN_RADIUS, width / 2.0);
+        int rowMin = Math.max(0, (int) Math.ceil(Math.min(y0, y1) - radius - 0.5));
+        int rowMax = Math.min(imageHeight - 1, (int) Math.floor(Math.max(y0, y1) + radius - 0.5));
+        double[] span = new double[2];
+        for (int row = rowMin; row <= rowMax; row++) {
+            if (!capsuleSpan(x0, y0, x1, y1, radius, row + 0.5, span)) {
+                continue;
+            }
+            int colMin = Math.max(0, (int) Math.ceil(span[0] - 0.5));
+            int colMax = Math.min(imageWidth - 1, (int) Math.floor(span[1] - 0.5));
+            int offset = row * imageWidth;
+            for (int col = colMin; col <= colMax; col++) {
+                pixels[offset + col] = (byte) value;
+            }
+        }
+    }
+
+    /**
+     * Draws an anti-aliased capsule. Each pixel's coverage is estimated analytically from the distance {@code d}
+     * between its center and the segment as {@code clamp(width/2 - d + 0.5, 0, 1)}, which is exact for a straight edge
+     * crossing the pixel vertically or horizontally. The pixel is set to {@code coverage * value} unless it's already
+     * brighter, so overlapping segments of one fiber don't add up.
+     *
+     * @param pixels      Row-major pixels of the image
+     * @param imageWidth  Number of pixels per row
+     * @param imageHeight Number of rows
+     * @param x0          x-coordinate of the start point
+     * @param y0          y-coordinate of the start point
+     * @param x1          x-coordinate of the end point
+     * @param y1          y-coordinate of the end point
+     * @param width       The segment width
+     * @param value       The intensity of fully covered pixels
+     */
+    static void coverCapsule(byte[] pixels, int imageWidth, int imageHeight, double x0, double y0, double x1,
+                             double y1, double width, int value) {
+        double radius = width / 2.0;
+        double outer = radius + 0.5;
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSq = dx * dx + dy * dy;
+        int rowMin = Math.max(0, (int) Math.ceil(Math.min(y0, y1) - outer - 0.5));
+        int rowMax = Math.min(imageHeight - 1, (int) Math.floor(Math.max(y0, y1) + outer - 0.5));
+        double[] span = new double[2];
+        for (int row = rowMin; row <= rowMax; row++) {
+            double yc = row + 0.5;
+            if (!capsuleSpan(x0, y0, x1, y1, outer, yc, span)) {
+                continue;
+            }
+            int colMin = Math.max(0, (int) Math.ceil(span[0] - 0.5));
+            int colMax = Math.min(imageWidth - 1, (int) Math.floor(span[1] - 0.5));
+            int offset = row * imageWidth;
+            for (int col = colMin; col <= colMax; col++) {
+                double px = col + 0.5 - x0;
+                double py = yc - y0;
+                double t = lengthSq > 0.0 ? Math.max(0.0, Math.min(1.0, (px * dx + py * dy) / lengthSq)) : 0.0;
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double coverage = radius - Math.sqrt(ex * ex + ey * ey) + 0.5;
+                if (coverage <= 0.0) {
+                    continue;
+                }
+                int intensity = (int) Math.round(Math.min(1.0, coverage) * value);
+                if (intensity > (pixels[offset + col] & 0xFF)) {
+                    pixels[offset + col] = (byte) intensity;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the intersection of a capsule with the horizontal line {@code y = yc}: the hull of its intersections with
+     * the two end disks and the central rectangle.
+     *
+     * @param radius Half the capsule's width
+     * @param yc     The y-coordinate of the line
+     * @param span   Receives the left and right ends of the intersection
+     * @return {@code false} if the line misses the capsule
+     */
+    private static boolean capsuleSpan(double x0, double y0, double x1, double y1, double radius, double yc,
+                                       double[] span) {
+        span[0] = Double.POSITIVE_INFINITY;
+        span[1] = Double.NEGATIVE_INFINITY;
+        diskSpan(x0, y0, radius, yc, span);
+        diskSpan(x1, y1, radius, yc, span);
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double length = Math.sqrt(dx * dx + dy * dy);
+        if (length > 0.0) {
+            rectangleSpan(x0, y0, dx / length, dy / length, length, radius, yc, span);
+        }
+        return span[0] <= span[1];
+    }
+
+    /**
+     * Widens {@code span} to include the intersection of the disk with the horizontal line {@code y = yc}.
+     */
+    private static void diskSpan(double cx, double cy, double radius, double yc, double[] span) {
+        double dy = yc - cy;
+        double sq = radius * radius - dy * dy;
+        if (sq < 0.0) {
+            return;
+        }
+        double half = Math.sqrt(sq);
+        span[0] = Math.min(span[0], cx - half);
+        span[1] = Math.max(span[1], cx + half);
+    }
+
+    /**
+     * Widens {@code span} to include the intersection of the rectangle {@code {p : 0 <= (p - a).u <= length, |(p - a)
+     * x u| <= radius}} with the horizontal line {@code y = yc}. Both constraints are linear in x along the line.
+     */
+    private static void rectangleSpan(double ax, double ay, double ux, double uy, double length, double radius,
+                                      double yc, double[] span) {
+        double lo = Double.NEGATIVE_INFINITY;
+        double hi = Double.POSITIVE_INFINITY;
+        double ry = yc - ay;
+
+        // Along the segment: 0 <= (x - ax) * ux + ry * uy <= length
+        if (ux != 0.0) {
+            double a = (0.0 - ry * uy) / ux + ax;
+            double b = (length - ry * uy) / ux + ax;
+            lo = Math.max(lo, Math.min(a, b));
+            hi = Math.min(hi, Math.max(a, b));
+        } else if (ry * uy < 0.0 || ry * uy > length) {
+            return;
+        }
+
+        // Across the segment: -radius <= (x - ax) * uy - ry * ux <= radius
+        if (uy != 0.0) {
+            double a = (-radius + ry * ux) / uy + ax;
+            double b = (radius + ry * ux) / uy + ax;
+            lo = Math.max(lo, Math.min(a, b));
+            hi = Math.min(hi, Math.max(a, b));
+        } else if (Math.abs(ry * ux) > radius) {
+            return;
+        }
+
+        if (lo <= hi) {
+            span[0] = Math.min(span[0], lo);
+            span[1] = Math.max(span[1], hi);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Headerless 8-bit pixels in row-major order. The dimensions aren't recorded in the file.
+ */
+class RawEncoder extends ImageEncoder {
+
+    // To see whether an encoder is a RawEncoder use encoder.getType().equals(RawEncoder.typename)
+    static final String typename = "raw";
+
+
+    /**
+     * @return "raw"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void write(BufferedImage image, OutputStream stream) throws IOException {
+        stream.write(ImageUtility.grayPixels(image), 0, image.getWidth() * image.getHeight());
+        stream.flush();
+    }
+}
@@ -10,19 +10,258 @@
 
 package syntheticfibergenerator;
 
+import org.apache.commons.math3.random.AbstractRandomGenerator;
+import org.apache.commons.math3.random.RandomGenerator;
+
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
- * A wrapper for a static Random object and associated utility methods.
+ * A random context for a single generation (e.g. one image) along with associated utility methods. Every sampling
+ * operation takes its randomness from an explicit {@code RngUtility} rather than shared global state, so independent
+ * generations can run side by side without contention or cross-talk. Instances are not thread-safe.
  */
 class RngUtility {
 
-    // The static Random member
-    static Random rng = new Random();
+    // The underlying source of randomness; confined to this context
+    private final Generator generator;
+
+    // Results and scratch space for the geometry of randomChain, allocated with the first chain
+    private double[] scratch;
+
+    // Start and end indices of the sections of a chain still to be filled in, grown to fit the longest chain so far
+    private int[] pending;
+
+    // Whether points in the intersection of two disks are found by rejection sampling (see setSampler)
+    private boolean rejection = false;
+
+    // Number of candidate points rejected so far by rejection sampling
+    private long rejections = 0;
+
+    // Sections of a chain with more steps than this are split between fork/join tasks; zero builds chains in one thread
+    private int forkThreshold = 0;
+
+    // Names of the samplers for points in the intersection of two disks
+    static final String EXACT_SAMPLER = "exact";
+    static final String REJECTION_SAMPLER = "rejection";
+
+    // Odd constant used to spread consecutive indices over the 64-bit seed space (see SplitMix64)
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+
+    /**
+     * Creates a context with an unpredictable seed using the default ({@code java.util.Random}) backend.
+     */
+    RngUtility() {
+        this(new Random().nextLong());
+    }
+
+    /**
+     * Uses the default ({@code java.util.Random}) backend, which draws the same values as {@code java.util.Random} with
+     * this seed.
+     *
+     * @param seed The seed which fully determines the sequence produced by this context
+     */
+    RngUtility(long seed) {
+        this(JavaRandom.typename, seed);
+    }
+
+    /**
+     * @param typename The name of the generator backend (see {@code Generator.create})
+     * @param seed     The seed which fully determines the sequence produced by this context
+     * @throws IllegalArgumentException If {@code typename} doesn't name a known backend
+     */
+    RngUtility(String typename, long seed) throws IllegalArgumentException {
+        this(Generator.create(typename, seed));
+    }
+
+    private RngUtility(Generator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Derives an independent seed for one element of a larger job (e.g. a single image in a collection). The result
+     * depends only on {@code seed} and {@code index}, so the derived streams don't depend on the order or the thread
+     * in which the elements are generated.
+     *
+     * @param seed  The seed of the overall job
+     * @param index The index of the element within the job
+     * @return A well-mixed seed for the element at {@code index}
+     */
+    static long deriveSeed(long seed, long index) {
+        return Generator.mix64(seed + (index + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return The name of the generator backend used by this context
+     */
+    String getType() {
+        return generator.getType();
+    }
+
+    /**
+     * Creates a child context whose sequence is independent of this one's, using the same backend. This advances the
+     * state of this context.
+     *
+     * @return A new context
+     */
+    RngUtility split() {
+        RngUtility child = new RngUtility(generator.split());
+        child.rejection = rejection;
+        child.forkThreshold = forkThreshold;
+        return child;
+    }
+
+    /**
+     * @param sampler The name of a sampler for points in the intersection of two disks
+     * @throws IllegalArgumentException If {@code sampler} isn't {@code EXACT_SAMPLER} or {@code REJECTION_SAMPLER}
+     */
+    static void verifySampler(String sampler) throws IllegalArgumentException {
+        if (!sampler.equals(EXACT_SAMPLER) && !sampler.equals(REJECTION_SAMPLER)) {
+            throw new IllegalArgumentException("Unknown sampler \"" + sampler + '\"');
+        }
+    }
 
+    /**
+     * Chooses how {@code nextInDisks} (and so {@code randomChain}) samples. {@code EXACT_SAMPLER}, the default, draws
+     * at most a few values per point (see {@code GeometryUtility.diskDiskIntersect}). {@code REJECTION_SAMPLER}
+     * retries until a point lands in both disks, reproducing the output of earlier versions; its retries are counted
+     * by {@code getRejections}.
+     *
+     * @param sampler The name of the sampler
+     * @throws IllegalArgumentException If {@code sampler} doesn't name a known sampler
+     */
+    void setSampler(String sampler) throws IllegalArgumentException {
+        verifySampler(sampler);
+        rejection = sampler.equals(REJECTION_SAMPLER);
+    }
+
+    /**
+     * @return The name of the sampler used by this context
+     */
+    String getSampler() {
+        return rejection ? REJECTION_SAMPLER : EXACT_SAMPLER;
+    }
+
+    /**
+     * @return The number of candidate points rejected by this context's rejection sampling; always zero for the exact
+     * sampler
+     */
+    long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Lets {@code randomChain} build long chains in parallel (see {@code ChainTask}). The chains depend on the
+     * threshold, but not on the number of threads which build them.
+     *
+     * @param threshold Sections of a chain with more steps than this are built in parallel; zero (the default) builds
+     *                  every chain in the calling thread, as earlier versions did
+     * @throws IllegalArgumentException If {@code threshold} is negative
+     */
+    void setForkThreshold(int threshold) throws IllegalArgumentException {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Fork threshold must be non-negative");
+        }
+        forkThreshold = threshold;
+    }
+
+    /**
+     * @return The number of steps above which sections of a chain are built in parallel, or zero if they never are
+     */
+    int getForkThreshold() {
+        return forkThreshold;
+    }
+
+    /**
+     * Exposes this context as an Apache Commons Math {@code RandomGenerator} so that Commons distributions sample from
+     * the same backend. The returned object shares state with this context, so reseeding it reseeds the context.
+     *
+     * @return An adapter around this context
+     */
+    RandomGenerator asRandomGenerator() {
+        return new AbstractRandomGenerator() {
+            @Override
+            public void setSeed(long seed) {
+                generator.setSeed(seed);
+            }
+
+            @Override
+            public double nextDouble() {
+                return generator.nextDouble();
+            }
+
+            @Override
+            public int nextInt() {
+                return generator.nextInt();
+            }
+
+            @Override
+            public int nextInt(int n) {
+                return generator.nextInt(n);
+            }
+
+            @Override
+            public long nextLong() {
+                return generator.nextLong();
+            }
+
+            @Override
+            public boolean nextBoolean() {
+                return generator.nextBoolean();
+            }
+
+            @Override
+            public double nextGaussian() {
+                return generator.nextGaussian();
+            }
+        };
+    }
+
+    /**
+     * @param bound The upper bound (exclusive); must be positive
+     * @return A random integer between zero (inclusive) and {@code bound} (exclusive)
+     */
+    int nextInt(int bound) {
+        return generator.nextInt(bound);
+    }
+
+    /**
+     * @return A random integer over the full range of {@code int}
+     */
+    int nextInt() {
+        return generator.nextInt();
+    }
+
+    /**
+     * @return A random long over the full range of {@code long}
+     */
+    long nextLong() {
+        return generator.nextLong();
+    }
+
+    /**
+     * @return A random double between zero (inclusive) and one (exclusive)
+     */
+    double nextDouble() {
+        return generator.nextDouble();
+    }
+
+    /**
+     * @return A random value drawn from the standard normal distribution
+     */
+    double nextGaussian() {
+        return generator.nextGaussian();
+    }
+
+    /**
+     * @return A random boolean, {@code true} and {@code false} being equally likely
+     */
+    boolean nextBoolean() {
+        return generator.nextBoolean();
+    }
 
     /**
      * @param xMin The minimum x-value (inclusive)
@@ -31,7 +270,7 @@ class RngUtility {
      * @param yMax The maximum x-value (exclusive)
      * @return A random point ({@code Vector}) in 2D space within the specified bounds
      */
-    static Vector nextPoint(double xMin, double xMax, double yMin, double yMax) {
+    Vector nextPoint(double xMin, double xMax, double yMin, double yMax) {
         double x = nextDouble(xMin, xMax);
         double y = nextDouble(yMin, yMax);
         return new Vector(x, y);
@@ -43,17 +282,17 @@ class RngUtility {
      * @return A random integer within the specified bounds
      * @throws IllegalArgumentException If {@code min >= max}
      */
-    static int nextInt(int min, int max) {
+    int nextInt(int min, int max) {
         if (min > max) {
             throw new IllegalArgumentException("Random bounds are inverted");
         } else if (min == max) {
             throw new IllegalArgumentException("Random range must have nonzero size");
         }
-        return min + rng.nextInt(max - min);
+        return min + generator.nextInt(max - min);
     }
 
     /**
-     * Due to the behavior of {@code Random.nextDouble()}, {@code min} is inclusive but {@code max} is exclusive. In
+     * Due to the behavior of {@code Generator.nextDouble()}, {@code min} is inclusive but {@code max} is exclusive. In
      * practice this doesn't matter as the exact minimum value is only generated ~1/2^54 times.
      *
      * @param min The minimum value (inclusive)
@@ -61,11 +300,28 @@ class RngUtility {
      * @return A random double within the specified bounds
      * @throws IllegalArgumentException If {@code min > max}
      */
-    static double nextDouble(double min, double max) {
+    double nextDouble(double min, double max) {
         if (min > max) {
             throw new IllegalArgumentException("Random bounds are inverted");
         }
-        return min + rng.nextDouble() * (max - min);
+        return min + generator.nextDouble() * (max - min);
+    }
+
+    /**
+     * Chooses a uniformly random point which lies on both disks (boundary or interior) with the sampler given to {@code
+     * setSampler}.
+     *
+     * @param out Receives the point's coordinates at indices 0 and 1; its length must be at least {@code
+     *            GeometryUtility.OUT_LENGTH}
+     * @throws ArithmeticException If the disks don't intersect within some small margin of error
+     */
+    void nextInDisks(double x1, double y1, double r1, double x2, double y2, double r2, double[] out)
+            throws ArithmeticException {
+        if (rejection) {
+            rejections += GeometryUtility.diskDiskReject(x1, y1, r1, x2, y2, r2, this, out);
+        } else {
+            GeometryUtility.diskDiskIntersect(x1, y1, r1, x2, y2, r2, this, out);
+        }
     }
 
     /**
@@ -79,53 +335,186 @@ class RngUtility {
      * @throws ArithmeticException If no path exists (i.e. the distance between {@code start} and {@code end} is greater
      *                             than {@code nSteps*stepSize}
      */
-    static ArrayList<Vector> randomChain(Vector start, Vector end, int nSteps, double stepSize)
+    ArrayList<Vector> randomChain(Vector start, Vector end, int nSteps, double stepSize)
             throws ArithmeticException {
+        verifyChain(nSteps, stepSize);
+        double[] x = new double[nSteps + 1];
+        double[] y = new double[nSteps + 1];
+        randomChain(start.getX(), start.getY(), end.getX(), end.getY(), nSteps, stepSize, x, y, 0);
+        ArrayList<Vector> points = new ArrayList<>(nSteps + 1);
+        for (int i = 0; i <= nSteps; i++) {
+            points.add(new Vector(x[i], y[i]));
+        }
+        return points;
+    }
+
+    /**
+     * Constructs a 2D pseudo-random walk as in {@code randomChain(Vector, Vector, int, double)}, writing its {@code
+     * nSteps + 1} points to {@code x} and {@code y} from {@code offset} on. The chain is built by repeated bisection:
+     * the middle point of a section is placed so that both halves can still be completed, then the left half is filled
+     * in before the right. Sections waiting to be filled are kept on an explicit stack of {@code O(log(nSteps))}
+     * entries rather than the call stack, so chains of millions of steps are fine, and nothing is allocated once this
+     * context has built a chain at least as long. Chains of more than {@code getForkThreshold()} steps are built by
+     * fork/join tasks instead (see {@code ChainTask}).
+     *
+     * @param x      Receives the x-coordinates of the points
+     * @param y      Receives the y-coordinates of the points
+     * @param offset Where in {@code x} and {@code y} the first point is written
+     * @throws ArithmeticException If no path exists (i.e. the distance between the start and end is greater than
+     *                             {@code nSteps*stepSize}
+     */
+    void randomChain(double startX, double startY, double endX, double endY, int nSteps, double stepSize,
+                     double[] x, double[] y, int offset) throws ArithmeticException {
+        verifyChain(nSteps, stepSize);
+        x[offset] = startX;
+        y[offset] = startY;
+        x[offset + nSteps] = endX;
+        y[offset + nSteps] = endY;
+        if (forkThreshold > 0 && nSteps > forkThreshold) {
+            new ChainTask(this, x, y, offset, offset + nSteps, stepSize).invoke();
+        } else {
+            fillChain(x, y, offset, offset + nSteps, stepSize);
+        }
+    }
+
+    /**
+     * @param nSteps   The number of steps in a chain
+     * @param stepSize The distance covered by each step
+     * @throws IllegalArgumentException If there are no steps or the step size isn't positive
+     */
+    static void verifyChain(int nSteps, double stepSize) throws IllegalArgumentException {
         if (nSteps <= 0) {
             throw new IllegalArgumentException("Must have at least one step");
         }
         if (stepSize <= 0.0) {
             throw new IllegalArgumentException("Step size must be positive");
         }
-        ArrayList<Vector> points = new ArrayList<>(Collections.nCopies(nSteps + 1, null));
-        points.set(0, start);
-        points.set(nSteps, end);
-        randomChainRecursive(points, 0, nSteps, stepSize);
-        return points;
     }
 
     /**
-     * Recursive helper for {@code randomChain}.
+     * Fills in the points strictly between {@code iStart} and {@code iEnd} for {@code randomChain}, in the same order
+     * (and so from the same random values) as the recursive bisection of earlier versions.
      *
-     * @param points   The data structure where points are being stored
-     * @param iStart   The beginning of the current section of the path under consideration
-     * @param iEnd     The end of the current section of the path under consideration
+     * @param x        The x-coordinates of the points being generated
+     * @param y        The y-coordinates of the points being generated
+     * @param iStart   The index of the chain's first point
+     * @param iEnd     The index of the chain's last point
      * @param stepSize The distance (2-norm) covered by each step
      * @throws ArithmeticException If no path exists between the points at {@code iStart} and {@code iEnd}
      */
-    private static void randomChainRecursive(ArrayList<Vector> points, int iStart, int iEnd, double stepSize)
+    private void fillChain(double[] x, double[] y, int iStart, int iEnd, double stepSize)
             throws ArithmeticException {
-        if (iEnd - iStart <= 1) {
-            return;
+
+        // Halves differ in length by at most one, so there's at most one pending section per level of bisection
+        int capacity = 2 * (34 - Integer.numberOfLeadingZeros(iEnd - iStart));
+        if (pending == null || pending.length < capacity) {
+            pending = new int[capacity];
         }
+        int top = 0;
+        pending[top++] = iStart;
+        pending[top++] = iEnd;
+
+        while (top > 0) {
+            int end = pending[--top];
+            int start = pending[--top];
+            if (end - start <= 1) {
+                continue;
+            }
+
+            int bridge = placeBridge(x, y, start, end, stepSize);
 
-        int iBridge = (iStart + iEnd) / 2;
-        Circle circle1 = new Circle(points.get(iStart), stepSize * (iBridge - iStart));
-        Circle circle2 = new Circle(points.get(iEnd), stepSize * (iEnd - iBridge));
-        Vector bridge;
-        if (iBridge > iStart + 1 && iBridge < iEnd - 1) {
-            bridge = Circle.diskDiskIntersect(circle1, circle2);
-        } else if (iBridge == iStart + 1 && iBridge == iEnd - 1) {
-            Vector[] intersects = Circle.circleCircleIntersect(circle1, circle2);
-            bridge = RngUtility.rng.nextBoolean() ? intersects[0] : intersects[1];
-        } else if (iBridge == iStart + 1) {
-            bridge = Circle.diskCircleIntersect(circle2, circle1);
+            // The right half goes underneath, so the left half is finished first
+            pending[top++] = bridge;
+            pending[top++] = end;
+            pending[top++] = start;
+            pending[top++] = bridge;
+        }
+    }
+
+    /**
+     * Places the middle point of a section of a chain so that both halves can still be completed.
+     *
+     * @param x        The x-coordinates of the points being generated
+     * @param y        The y-coordinates of the points being generated
+     * @param start    The index of the section's first point, which must already be placed
+     * @param end      The index of the section's last point, which must already be placed; at least {@code start + 2}
+     * @param stepSize The distance (2-norm) covered by each step
+     * @return The index of the point placed
+     * @throws ArithmeticException If no path exists between the points at {@code start} and {@code end}
+     */
+    private int placeBridge(double[] x, double[] y, int start, int end, double stepSize) throws ArithmeticException {
+        if (scratch == null) {
+            scratch = new double[GeometryUtility.OUT_LENGTH];
+        }
+        int bridge = (start + end) >>> 1;
+        double r1 = stepSize * (bridge - start);
+        double r2 = stepSize * (end - bridge);
+        if (bridge > start + 1 && bridge < end - 1) {
+            nextInDisks(x[start], y[start], r1, x[end], y[end], r2, scratch);
+        } else if (bridge == start + 1 && bridge == end - 1) {
+            GeometryUtility.circleCircleIntersect(x[start], y[start], r1, x[end], y[end], r2, scratch);
+            if (!nextBoolean()) {
+                scratch[0] = scratch[2];
+                scratch[1] = scratch[3];
+            }
+        } else if (bridge == start + 1) {
+            GeometryUtility.diskCircleIntersect(x[end], y[end], r2, x[start], y[start], r1, this, scratch);
         } else {
-            bridge = Circle.diskCircleIntersect(circle1, circle2);
+            GeometryUtility.diskCircleIntersect(x[start], y[start], r1, x[end], y[end], r2, this, scratch);
+        }
+        x[bridge] = scratch[0];
+        y[bridge] = scratch[1];
+        return bridge;
+    }
+
+
+    /**
+     * Builds a section of a chain with fork/join parallelism. A section longer than the context's fork threshold has
+     * its middle point placed, then its halves are built as two subtasks, each with its own context split from this
+     * one (left first). Shorter sections are built by {@code fillChain}. Every section is built from the same random
+     * values however the tasks are scheduled, so the chain is reproducible. It isn't the same chain as one built in a
+     * single thread, since the halves draw from split streams.
+     */
+    private static class ChainTask extends RecursiveAction {
+
+        // RecursiveAction is Serializable; tasks are never serialized but the version is fixed to quiet the warning
+        private static final long serialVersionUID = 1L;
+
+        // The context this task draws from, confined to this task
+        private final RngUtility rng;
+
+        // Coordinates of the chain's points; each task writes only the points strictly inside its section
+        private final double[] x;
+        private final double[] y;
+
+        // Indices of the section's first and last points, which are placed before the task runs
+        private final int start;
+        private final int end;
+
+        // The distance (2-norm) covered by each step
+        private final double stepSize;
+
+
+        ChainTask(RngUtility rng, double[] x, double[] y, int start, int end, double stepSize) {
+            this.rng = rng;
+            this.x = x;
+            this.y = y;
+            this.start = start;
+            this.end = end;
+            this.stepSize = stepSize;
         }
-        points.set(iBridge, bridge);
 
-        randomChainRecursive(points, iStart, iBridge, stepSize);
-        randomChainRecursive(points, iBridge, iEnd, stepSize);
+        @Override
+        protected void compute() {
+            if (end - start <= rng.forkThreshold) {
+                rng.fillChain(x, y, start, end, stepSize);
+                return;
+            }
+            int bridge = rng.placeBridge(x, y, start, end, stepSize);
+            ChainTask left = new ChainTask(rng.split(), x, y, start, bridge, stepSize);
+            ChainTask right = new ChainTask(rng.split(), x, y, bridge, end, stepSize);
+            invokeAll(left, right);
+            rng.rejections += left.rng.rejections + right.rng.rejections;
+        }
     }
 }
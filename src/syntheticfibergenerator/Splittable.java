@@ -0,0 +1,73 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.util.SplittableRandom;
+
+
+/**
+ * A wrapper around {@code java.util.SplittableRandom}. Fast, with no internal synchronization and cheap splitting.
+ */
+class Splittable extends Generator {
+
+    // The wrapped generator
+    private SplittableRandom random;
+
+    // To see whether a generator is Splittable use generator.getType().equals(Splittable.typename)
+    static final String typename = "splittable";
+
+
+    /**
+     * @param seed The seed passed to {@code java.util.SplittableRandom}
+     */
+    Splittable(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private Splittable(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * @return "splittable"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void reseed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    long nextLong() {
+        return random.nextLong();
+    }
+
+    int nextInt() {
+        return random.nextInt();
+    }
+
+    int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    double nextDouble() {
+        return random.nextDouble();
+    }
+
+    boolean nextBoolean() {
+        return random.nextBoolean();
+    }
+
+    Generator split() {
+        return new Splittable(random.split());
+    }
+}
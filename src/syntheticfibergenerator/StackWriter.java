@@ -0,0 +1,128 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+
+/**
+ * Abstract class representing a file format which holds a whole collection of 8-bit grey scale images of the same
+ * size. Images are passed to {@code write} one at a time, in index order, as they're generated; the stack is complete
+ * once {@code close} is called.
+ */
+abstract class StackWriter implements Closeable {
+
+    // Number of images in the stack
+    final int nImages;
+
+    // Dimensions of every image, known once the first image is written
+    int width = -1;
+    int height = -1;
+
+
+    /**
+     * @param typename A stack format name
+     * @throws IllegalArgumentException If {@code typename} doesn't name a known format
+     */
+    static void verifyType(String typename) throws IllegalArgumentException {
+        if (!typename.equals(NpyWriter.typename) && !typename.equals(ZarrWriter.typename) &&
+                !typename.equals(TiffWriter.typename)) {
+            throw new IllegalArgumentException("Unknown stack format \"" + typename + '\"');
+        }
+    }
+
+    /**
+     * Constructs a writer from its typename (see the {@code typename} members of subclasses).
+     *
+     * @param typename    The name of the format, which is also the filename extension
+     * @param prefix      The filename up to, but not including the extension
+     * @param nImages     The number of images in the stack
+     * @param compression The deflate level, used by formats which compress
+     * @return A writer for the requested format
+     * @throws IllegalArgumentException If {@code typename} doesn't name a known format
+     * @throws IOException              If the file can't be created
+     */
+    static StackWriter create(String typename, String prefix, int nImages, int compression)
+            throws IllegalArgumentException, IOException {
+        verifyType(typename);
+        switch (typename) {
+            case ZarrWriter.typename:
+                return new ZarrWriter(prefix + '.' + typename, nImages, compression, ZarrWriter.CHUNK_SIZE);
+            case TiffWriter.typename:
+                return new TiffWriter(prefix + '.' + typename, nImages, false);
+            default:
+                return new NpyWriter(prefix + '.' + typename, nImages);
+        }
+    }
+
+    /**
+     * @param nImages The number of images in the stack
+     */
+    StackWriter(int nImages) {
+        this.nImages = nImages;
+    }
+
+    /**
+     * Adds an image to the stack.
+     *
+     * @param index The index of the image; images are written in index order
+     * @param image The image to write
+     * @throws IOException              If the write fails
+     * @throws IllegalArgumentException If the image isn't 8-bit grey scale, its size differs from the first image's,
+     *                                  or the index is out of range
+     */
+    abstract void write(int index, BufferedImage image) throws IOException, IllegalArgumentException;
+
+    /**
+     * Does the part of writing an image which doesn't depend on the order images arrive in, such as compression, so
+     * that {@code write} is left with only the ordered part. This may be called from any thread and in any order, but
+     * must come before {@code write} for the same index. The default does nothing.
+     *
+     * @param index The index of the image
+     * @param image The image which will be written
+     * @throws IOException              If a write fails
+     * @throws IllegalArgumentException If the image isn't 8-bit grey scale or the index is out of range
+     */
+    void prepare(int index, BufferedImage image) throws IOException, IllegalArgumentException {
+    }
+
+    /**
+     * Records the size of the first image and checks that later images match it.
+     *
+     * @param index The index of the image about to be written
+     * @param image The image about to be written
+     * @return {@code true} if this is the first image
+     * @throws IllegalArgumentException If the image's size differs from the first image's or the index is out of range
+     */
+    boolean checkImage(int index, BufferedImage image) throws IllegalArgumentException {
+        checkIndex(index);
+        if (width < 0) {
+            width = image.getWidth();
+            height = image.getHeight();
+            return true;
+        }
+        if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("All images in a stack must be the same size");
+        }
+        return false;
+    }
+
+    /**
+     * @param index The index of an image
+     * @throws IllegalArgumentException If the index is out of range
+     */
+    void checkIndex(int index) throws IllegalArgumentException {
+        if (index < 0 || index >= nImages) {
+            throw new IllegalArgumentException("Image index " + index + " is outside the stack");
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A multi-page TIFF file with one uncompressed page per image, which ImageJ and Fiji open as a stack. Pages are
+ * appended as they arrive and the image file directories (IFDs) go at the end. Since every page has the same size, the
+ * position of the first IFD is known as soon as the first image arrives, so the file is written strictly sequentially
+ * with no seeking. BigTIFF is used when the file would pass 4 GB.
+ */
+class TiffWriter extends StackWriter {
+
+    // Format name, which is also the filename extension
+    static final String typename = "tiff";
+
+    // Field types
+    private static final short ASCII = 2;
+    private static final short SHORT = 3;
+    private static final short LONG = 4;
+    private static final short LONG8 = 16;
+
+    // Tags, in the ascending order they must appear in
+    private static final short IMAGE_WIDTH = 256;
+    private static final short IMAGE_LENGTH = 257;
+    private static final short BITS_PER_SAMPLE = 258;
+    private static final short COMPRESSION = 259;
+    private static final short PHOTOMETRIC = 262;
+    private static final short IMAGE_DESCRIPTION = 270;
+    private static final short STRIP_OFFSETS = 273;
+    private static final short SAMPLES_PER_PIXEL = 277;
+    private static final short ROWS_PER_STRIP = 278;
+    private static final short STRIP_BYTE_COUNTS = 279;
+
+    // Number of entries in the first IFD (which has the description) and in the rest
+    private static final int FIRST_ENTRIES = 10;
+    private static final int ENTRIES = 9;
+
+    // Largest offset a classic TIFF can hold
+    private static final long CLASSIC_LIMIT = 0xFFFFFFFFL;
+
+    // The name of the file being written
+    private final String filename;
+
+    // The open file
+    private final OutputStream stream;
+
+    // Whether to use BigTIFF even for small files
+    private final boolean alwaysBig;
+
+    // Whether the file is a BigTIFF, once the first image is written
+    private boolean big;
+
+    // Offset of the first page, and of the first IFD
+    private long dataStart;
+    private long ifdStart;
+
+    // Index of the next page expected
+    private int next = 0;
+
+
+    /**
+     * @param filename  The name of the file to write
+     * @param nImages   The number of images in the stack
+     * @param alwaysBig Whether to write a BigTIFF even if a classic TIFF would do
+     * @throws IOException If the file can't be created
+     */
+    TiffWriter(String filename, int nImages, boolean alwaysBig) throws IOException {
+        super(nImages);
+        this.filename = filename;
+        this.alwaysBig = alwaysBig;
+        try {
+            stream = new BufferedOutputStream(new FileOutputStream(filename), 1 << 20);
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * The page size is only known once the first image arrives, so the header is written then.
+     *
+     * @throws IllegalArgumentException If images aren't written in index order, or as for {@code
+     *                                  StackWriter.write}
+     */
+    void write(int index, BufferedImage image) throws IOException, IllegalArgumentException {
+        byte[] pixels = ImageUtility.grayPixels(image);
+        boolean first = checkImage(index, image);
+        if (index != next) {
+            throw new IllegalArgumentException("TIFF pages must be written in order");
+        }
+        try {
+            if (first) {
+                writeHeader();
+            }
+            stream.write(pixels, 0, width * height);
+            next++;
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * Writes the IFDs and closes the file. If fewer than {@code nImages} images were written the remaining pages are
+     * left black, so the file is still a valid stack.
+     */
+    public void close() throws IOException {
+        try {
+            if (next > 0) {
+                byte[] blank = new byte[width * height];
+                while (next < nImages) {
+                    stream.write(blank);
+                    next++;
+                }
+                if ((long) nImages * width * height % 2 != 0) {
+                    stream.write(0);
+                }
+                writeDirectories();
+            }
+            stream.close();
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + filename + '\"');
+        }
+    }
+
+    /**
+     * @return The ImageJ description, which tells ImageJ how many images the stack holds
+     */
+    private byte[] description() {
+        String text = "ImageJ=1.11a\nimages=" + nImages + "\nslices=" + nImages + "\nloop=false\n";
+        return (text + '\0').getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param entries Number of entries in the IFD
+     * @return The size of an IFD in bytes
+     */
+    private long ifdSize(int entries) {
+        return big ? 8 + 20L * entries + 8 : 2 + 12L * entries + 4;
+    }
+
+    /**
+     * Chooses between classic TIFF and BigTIFF and writes the header, which points at the first IFD.
+     */
+    private void writeHeader() throws IOException {
+        long pages = (long) nImages * width * height;
+        big = false;
+        long classicEnd = 8 + pages + pages % 2 + ifdSize(FIRST_ENTRIES) + (nImages - 1) * ifdSize(ENTRIES) +
+                description().length;
+        big = alwaysBig || classicEnd > CLASSIC_LIMIT;
+        dataStart = big ? 16 : 8;
+        ifdStart = dataStart + pages + pages % 2;
+        ByteBuffer header = ByteBuffer.allocate((int) dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I');
+        if (big) {
+            header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(ifdStart);
+        } else {
+            header.putShort((short) 42).putInt((int) ifdStart);
+        }
+        stream.write(header.array());
+    }
+
+    /**
+     * Writes one IFD per page, followed by the description referenced by the first.
+     */
+    private void writeDirectories() throws IOException {
+        byte[] description = description();
+        long descriptionStart = ifdStart + ifdSize(FIRST_ENTRIES) + (nImages - 1) * ifdSize(ENTRIES);
+        long pageBytes = (long) width * height;
+        long offset = ifdStart;
+        ByteBuffer ifd = ByteBuffer.allocate((int) ifdSize(FIRST_ENTRIES)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < nImages; i++) {
+            int entries = i == 0 ? FIRST_ENTRIES : ENTRIES;
+            long nextIfd = i == nImages - 1 ? 0 : offset + ifdSize(entries);
+            ifd.clear();
+            putCount(ifd, entries);
+            putEntry(ifd, big, IMAGE_WIDTH, LONG, 1, width);
+            putEntry(ifd, big, IMAGE_LENGTH, LONG, 1, height);
+            putEntry(ifd, big, BITS_PER_SAMPLE, SHORT, 1, 8);
+            putEntry(ifd, big, COMPRESSION, SHORT, 1, 1);
+            putEntry(ifd, big, PHOTOMETRIC, SHORT, 1, 1);
+            if (i == 0) {
+                putEntry(ifd, big, IMAGE_DESCRIPTION, ASCII, description.length, descriptionStart);
+            }
+            putEntry(ifd, big, STRIP_OFFSETS, big ? LONG8 : LONG, 1, dataStart + i * pageBytes);
+            putEntry(ifd, big, SAMPLES_PER_PIXEL, SHORT, 1, 1);
+            putEntry(ifd, big, ROWS_PER_STRIP, LONG, 1, height);
+            putEntry(ifd, big, STRIP_BYTE_COUNTS, big ? LONG8 : LONG, 1, pageBytes);
+            putOffset(ifd, big, nextIfd);
+            stream.write(ifd.array(), 0, ifd.position());
+            offset += ifdSize(entries);
+        }
+        stream.write(description);
+    }
+
+    private void putCount(ByteBuffer ifd, int count) {
+        if (big) {
+            ifd.putLong(count);
+        } else {
+            ifd.putShort((short) count);
+        }
+    }
+
+    private static void putOffset(ByteBuffer ifd, boolean big, long offset) {
+        if (big) {
+            ifd.putLong(offset);
+        } else {
+            ifd.putInt((int) offset);
+        }
+    }
+
+    /**
+     * Writes an IFD entry. Values which fit are stored in the entry itself (left-justified, as TIFF requires); longer
+     * values are stored elsewhere and {@code value} is their offset, which takes eight bytes in a BigTIFF.
+     *
+     * @param big Whether the file is a BigTIFF
+     */
+    static void putEntry(ByteBuffer ifd, boolean big, short tag, short type, long count, long value) {
+        ifd.putShort(tag).putShort(type);
+        if (big) {
+            ifd.putLong(count);
+        } else {
+            ifd.putInt((int) count);
+        }
+        int end = ifd.position() + (big ? 8 : 4);
+        if (count * typeSize(type) > end - ifd.position()) {
+            putOffset(ifd, big, value);
+        } else if (type == SHORT) {
+            ifd.putShort((short) value);
+        } else if (type == LONG8) {
+            ifd.putLong(value);
+        } else {
+            ifd.putInt((int) value);
+        }
+        while (ifd.position() < end) {
+            ifd.put((byte) 0);
+        }
+    }
+
+    /**
+     * @return The size in bytes of one value of a field type
+     */
+    private static int typeSize(short type) {
+        switch (type) {
+            case ASCII:
+                return 1;
+            case SHORT:
+                return 2;
+            case LONG:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+}
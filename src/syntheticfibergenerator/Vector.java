@@ -10,7 +10,16 @@
 
 package syntheticfibergenerator;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.math3.exception.MathArithmeticException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import org.apache.commons.math3.util.FastMath;
+import org.apache.commons.math3.util.MathArrays;
+
+import java.io.IOException;
 
 
 /**
@@ -19,6 +28,42 @@ import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
  */
 public class Vector extends Vector2D {
 
+    /**
+     * Streams a vector to and from JSON as {@code {"x": ..., "y": ...}}, the same form Gson's reflection produces.
+     */
+    static class Adapter extends TypeAdapter<Vector> {
+
+        @Override
+        public void write(JsonWriter out, Vector vector) throws IOException {
+            out.beginObject();
+            out.name("x").value(vector.getX());
+            out.name("y").value(vector.getY());
+            out.endObject();
+        }
+
+        @Override
+        public Vector read(JsonReader in) throws IOException {
+            double x = 0.0;
+            double y = 0.0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "x":
+                        x = in.nextDouble();
+                        break;
+                    case "y":
+                        y = in.nextDouble();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Vector(x, y);
+        }
+    }
+
+
     /**
      * Default constructor; sets the x and y coordinates to zero.
      */
@@ -34,41 +79,41 @@ public class Vector extends Vector2D {
         super(x, y);
     }
 
-    private Vector(Vector2D vec) {
-        this(vec.getX(), vec.getY());
-    }
-
     /**
-     * Wrapper for {@code Vector2D.normalize()} which returns a {@code Vector}.
+     * Like {@code Vector2D.normalize()}, but returns a {@code Vector} and allocates only the result.
      *
      * @return A unit vector with the same direction as this vector
      */
     public Vector normalize() {
-        return new Vector(super.normalize());
+        double norm = getNorm();
+        if (norm == 0) {
+            throw new MathArithmeticException(LocalizedFormats.CANNOT_NORMALIZE_A_ZERO_NORM_VECTOR);
+        }
+        return scalarMultiply(1 / norm);
     }
 
     /**
-     * Wrapper for {@code Vector2D.scalarMultiply} which returns a {@code Vector}.
+     * Like {@code Vector2D.scalarMultiply}, but returns a {@code Vector} and allocates only the result.
      *
      * @param scalar The scalar by which this vector should be multiplied
      * @return A vector pointing in the same direction as this vector but scaled by the specified factor
      */
     public Vector scalarMultiply(double scalar) {
-        return new Vector(super.scalarMultiply(scalar));
+        return new Vector(scalar * getX(), scalar * getY());
     }
 
     /**
-     * Wrapper for {@code Vector2D.add} which returns a {@code Vector}.
+     * Like {@code Vector2D.add}, but returns a {@code Vector} and allocates only the result.
      *
      * @param other The vector which should be added to this vector
      * @return The sum of this vector and {@code other}
      */
     Vector add(Vector2D other) {
-        return new Vector(super.add(other));
+        return new Vector(getX() + other.getX(), getY() + other.getY());
     }
 
     Vector subtract(Vector2D other) {
-        return new Vector(super.subtract(other));
+        return new Vector(getX() - other.getX(), getY() - other.getY());
     }
 
     /**
@@ -85,10 +130,23 @@ public class Vector extends Vector2D {
      * @return The angle in radians between this vector and {@code other} (in the range -pi to pi)
      */
     double angleWith(Vector other) {
-        if (this.isZero() || other.isZero()) {
+        return angle(getX(), getY(), other.getX(), other.getY());
+    }
+
+    /**
+     * Finds the angle between two vectors given by their components, without constructing them. The result is the
+     * same as {@code angleWith}.
+     *
+     * @return The angle in radians between {@code (ax, ay)} and {@code (bx, by)} (in the range 0 to pi)
+     * @throws ArithmeticException If either vector is zero
+     */
+    static double angle(double ax, double ay, double bx, double by) throws ArithmeticException {
+        if ((ax == 0 && ay == 0) || (bx == 0 && by == 0)) {
             throw new ArithmeticException("Cannot compute angle between vectors if one is zero");
         }
-        double cos = this.normalize().dotProduct(other.normalize());
+        double aScale = 1 / FastMath.sqrt(ax * ax + ay * ay);
+        double bScale = 1 / FastMath.sqrt(bx * bx + by * by);
+        double cos = MathArrays.linearCombination(aScale * ax, bScale * bx, aScale * ay, bScale * by);
         cos = Math.min(+1, cos);
         cos = Math.max(-1, cos);
         return Math.acos(cos);
@@ -105,11 +163,10 @@ public class Vector extends Vector2D {
         if (oldXAxis.isZero()) {
             throw new ArithmeticException("New x-axis must be nonzero");
         }
-        oldXAxis = oldXAxis.normalize();
-        Vector newYAxis = new Vector(-oldXAxis.getY(), oldXAxis.getX());
-        Vector xRotated = oldXAxis.scalarMultiply(getX());
-        Vector yRotated = newYAxis.scalarMultiply(getY());
-        return xRotated.add(yRotated);
+        double scale = 1 / oldXAxis.getNorm();
+        double ux = scale * oldXAxis.getX();
+        double uy = scale * oldXAxis.getY();
+        return new Vector(getX() * ux + getY() * -uy, getX() * uy + getY() * ux);
     }
 
     /**
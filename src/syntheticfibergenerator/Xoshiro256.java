@@ -0,0 +1,84 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+
+/**
+ * The xoshiro256** generator of Blackman and Vigna. It has a 256-bit state, passes all known statistical tests, and
+ * needs only a handful of shifts, rotations and multiplications per output.
+ */
+class Xoshiro256 extends Generator {
+
+    // The four words of generator state; never all zero
+    private long s0, s1, s2, s3;
+
+    // To see whether a generator is Xoshiro256 use generator.getType().equals(Xoshiro256.typename)
+    static final String typename = "xoshiro256**";
+
+
+    /**
+     * Expands the seed to the full state with SplitMix64, as recommended by the authors.
+     *
+     * @param seed The seed which fully determines the generator's sequence
+     */
+    Xoshiro256(long seed) {
+        reseed(seed);
+    }
+
+    /**
+     * Sets the raw state; used by {@code split} and for testing against reference values.
+     */
+    Xoshiro256(long s0, long s1, long s2, long s3) {
+        if ((s0 | s1 | s2 | s3) == 0) {
+            throw new IllegalArgumentException("Xoshiro state must be nonzero");
+        }
+        this.s0 = s0;
+        this.s1 = s1;
+        this.s2 = s2;
+        this.s3 = s3;
+    }
+
+    /**
+     * @return "xoshiro256**"
+     */
+    String getType() {
+        return typename;
+    }
+
+    void reseed(long seed) {
+        long gamma = 0x9E3779B97F4A7C15L;
+        s0 = mix64(seed += gamma);
+        s1 = mix64(seed += gamma);
+        s2 = mix64(seed += gamma);
+        s3 = mix64(seed + gamma);
+    }
+
+    long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /**
+     * The child's state is drawn from this generator's output and mixed with SplitMix64. Handing the child the current
+     * state and jumping ahead instead would make the streams of a split tree overlap: a child's second child would
+     * repeat its sibling's stream, shifted by however many values were drawn in between.
+     */
+    Generator split() {
+        return new Xoshiro256(mix64(nextLong()), mix64(nextLong()), mix64(nextLong()), mix64(nextLong()));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Written for the Laboratory for Optical and Computational Instrumentation, UW-Madison
+ *
+ * Author: Matthew Dutson
+ * Email: dutson@wisc.edu, mattdutson@icloud.com
+ * GitHub: https://github.com/uw-loci/syntheticfibergenerator
+ *
+ * Copyright (c) 2019, Board of Regents of the University of Wisconsin-Madison
+ */
+
+package syntheticfibergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+
+/**
+ * A Zarr (version 2) array in a directory store: an {@code (nImages, height, width)} array of {@code uint8} split into
+ * chunks of one image and at most {@code CHUNK_SIZE} pixels square, each compressed with zlib into its own file. Since
+ * every chunk is a separate file, chunks don't depend on order: {@code prepare} compresses and writes them from
+ * whichever thread calls it, leaving only the {@code .zarray} metadata to {@code write}. The chunks of each image are
+ * also compressed in parallel with each other. Each file is written to a temporary file and then renamed into place,
+ * so once the metadata exists a partial array can be read at any time (missing chunks read as zero).
+ */
+class ZarrWriter extends StackWriter {
+
+    // Format name, which is also the directory's extension
+    static final String typename = "zarr";
+
+    // Default height and width of each chunk (edge chunks are padded to this size, as Zarr requires)
+    static final int CHUNK_SIZE = 1024;
+
+    // Suffix of chunk files which are still being written
+    private static final String TEMP_SUFFIX = ".partial";
+
+    // The directory holding the array
+    private final Path directory;
+
+    // The zlib compression level
+    private final int level;
+
+    // Height and width of each chunk
+    private final int chunkSize;
+
+    // Indices of images whose chunks were written by prepare, until they're passed to write
+    private final Set<Integer> prepared = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * Creates the directory, removing any files left in it by an earlier run.
+     *
+     * @param directory The name of the directory to write
+     * @param nImages   The number of images in the stack
+     * @param level     The zlib compression level
+     * @param chunkSize The height and width of each chunk
+     * @throws IllegalArgumentException If the level is out of range or {@code chunkSize} isn't positive
+     * @throws IOException              If the directory can't be created
+     */
+    ZarrWriter(String directory, int nImages, int level, int chunkSize) throws IllegalArgumentException,
+            IOException {
+        super(nImages);
+        PngEncoder.verifyLevel(level);
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.directory = Paths.get(directory);
+        this.level = level;
+        this.chunkSize = chunkSize;
+        try {
+            Files.createDirectories(this.directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+                for (Path file : files) {
+                    if (Files.isRegularFile(file)) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + directory + '\"');
+        }
+    }
+
+    /**
+     * The array shape is only known once the first image arrives, so the metadata is written then. The image's chunks
+     * are written here unless {@code prepare} already wrote them.
+     */
+    void write(int index, BufferedImage image) throws IOException {
+        byte[] pixels = ImageUtility.grayPixels(image);
+        if (checkImage(index, image)) {
+            writeAtomic(".zarray", metadata().getBytes(StandardCharsets.US_ASCII));
+        }
+        if (!prepared.remove(index)) {
+            writeChunks(index, pixels, width, height);
+        }
+    }
+
+    /**
+     * Compresses and writes the image's chunks. Sizes are checked when the image reaches {@code write}.
+     */
+    void prepare(int index, BufferedImage image) throws IOException {
+        checkIndex(index);
+        writeChunks(index, ImageUtility.grayPixels(image), image.getWidth(), image.getHeight());
+        prepared.add(index);
+    }
+
+    /**
+     * Chunks are complete as soon as they're renamed, so there's nothing left to do.
+     */
+    public void close() {
+    }
+
+    /**
+     * @return The contents of the {@code .zarray} file
+     */
+    private String metadata() {
+        return "{\n" +
+                "    \"chunks\": [1, " + chunkSize + ", " + chunkSize + "],\n" +
+                "    \"compressor\": {\"id\": \"zlib\", \"level\": " + level + "},\n" +
+                "    \"dtype\": \"|u1\",\n" +
+                "    \"fill_value\": 0,\n" +
+                "    \"filters\": null,\n" +
+                "    \"order\": \"C\",\n" +
+                "    \"shape\": [" + nImages + ", " + height + ", " + width + "],\n" +
+                "    \"zarr_format\": 2\n" +
+                "}\n";
+    }
+
+    /**
+     * Compresses and writes all chunks of an image in parallel.
+     */
+    private void writeChunks(int index, byte[] pixels, int width, int height) throws IOException {
+        int rows = (height + chunkSize - 1) / chunkSize;
+        int cols = (width + chunkSize - 1) / chunkSize;
+        try {
+            IntStream.range(0, rows * cols).parallel().forEach(chunk -> {
+                int row = chunk / cols;
+                int col = chunk % cols;
+                try {
+                    writeAtomic(index + "." + row + '.' + col, compressChunk(pixels, width, height, row, col));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Copies one chunk of an image (padding it with zeros past the image's edges) and compresses it with zlib.
+     */
+    private byte[] compressChunk(byte[] pixels, int width, int height, int row, int col) {
+        byte[] chunk = new byte[chunkSize * chunkSize];
+        int top = row * chunkSize;
+        int left = col * chunkSize;
+        int copyWidth = Math.min(chunkSize, width - left);
+        for (int r = 0; r < chunkSize && top + r < height; r++) {
+            System.arraycopy(pixels, (top + r) * width + left, chunk, r * chunkSize, copyWidth);
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(chunk);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length / 8);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes a file in the array's directory by writing a temporary file and renaming it, so readers never see a
+     * partly written file.
+     */
+    private void writeAtomic(String name, byte[] contents) throws IOException {
+        Path target = directory.resolve(name);
+        Path temp = directory.resolve(name + TEMP_SUFFIX);
+        try {
+            Files.write(temp, contents);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IOException("Error while writing \"" + target + '\"');
+        }
+    }
+}
@@ -3,13 +3,13 @@ package syntheticfibergenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.util.Random;
-
 import static org.junit.jupiter.api.Assertions.*;
 
 
 class CircleTest {
 
+    private RngUtility rng;
+
     private static final double DELTA = 1e-6;
 
 
@@ -18,7 +18,7 @@ class CircleTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng = new Random(1);
+        rng = new RngUtility(1);
     }
 
     @Test
@@ -61,7 +61,7 @@ class CircleTest {
         Circle disk = new Circle(new Vector(0.0, 0.0), 10.0);
         Circle circle = new Circle(new Vector(0.0, 14.0), 8.0);
         for (int i = 0; i < 100; i++) {
-            Vector intersect = Circle.diskCircleIntersect(disk, circle);
+            Vector intersect = Circle.diskCircleIntersect(disk, circle, rng);
             assertTrue(disk.contains(intersect));
             assertEquals(circle.radius(), circle.center().distance(intersect), DELTA);
         }
@@ -72,9 +72,99 @@ class CircleTest {
         Circle disk1 = new Circle(new Vector(0.0, 0.0), 10.0);
         Circle disk2 = new Circle(new Vector(0.0, 14.0), 8.0);
         for (int i = 0; i < 100; i++) {
-            Vector intersect = Circle.diskDiskIntersect(disk1, disk2);
+            Vector intersect = Circle.diskDiskIntersect(disk1, disk2, rng);
             assertTrue(disk1.contains(intersect));
             assertTrue(disk2.contains(intersect));
         }
     }
+
+    @Test
+    void testDiskDiskNested() {
+        Circle outer = new Circle(new Vector(1.0, 2.0), 10.0);
+        Circle inner = new Circle(new Vector(3.0, 1.0), 2.0);
+        for (String sampler : new String[]{RngUtility.EXACT_SAMPLER, RngUtility.REJECTION_SAMPLER}) {
+            rng.setSampler(sampler);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(inner.contains(Circle.diskDiskIntersect(outer, inner, rng)));
+                assertTrue(inner.contains(Circle.diskDiskIntersect(inner, outer, rng)));
+            }
+        }
+    }
+
+    /**
+     * A lens only 1e-6 wide, which the exact sampler handles without any retries.
+     */
+    @Test
+    void testDiskDiskThinLens() {
+        Circle disk1 = new Circle(new Vector(0.0, 0.0), 10.0);
+        Circle disk2 = new Circle(new Vector(14.0, 14.0), Math.hypot(14.0, 14.0) - 10.0 + 1e-6);
+        for (String sampler : new String[]{RngUtility.EXACT_SAMPLER, RngUtility.REJECTION_SAMPLER}) {
+            rng.setSampler(sampler);
+            for (int i = 0; i < 100; i++) {
+                Vector intersect = Circle.diskDiskIntersect(disk1, disk2, rng);
+                assertTrue(disk1.contains(intersect));
+                assertTrue(disk2.contains(intersect));
+            }
+        }
+        assertTrue(rng.getRejections() > 0);
+        assertThrows(ArithmeticException.class, () -> Circle.diskDiskIntersect(disk1, disk1, rng));
+    }
+
+    /**
+     * Disks far from the origin whose gap is beyond BUFF but within the allowance for rounding touch at one point, as
+     * they do for circleCircleIntersect.
+     */
+    @Test
+    void testDiskDiskNearTangent() {
+        Circle disk1 = new Circle(new Vector(50000.0, 50000.0), 10.0);
+        Circle disk2 = new Circle(new Vector(50020.0 + 7e-10, 50000.0), 10.0);
+        Circle.circleCircleIntersect(disk1, disk2);
+        rng.setSampler(RngUtility.EXACT_SAMPLER);
+        Vector intersect = Circle.diskDiskIntersect(disk1, disk2, rng);
+        assertEquals(50010.0, intersect.getX(), 1e-9);
+        assertEquals(50000.0, intersect.getY(), 1e-9);
+    }
+
+    /**
+     * The exact and rejection samplers should give the same distribution, so the moments of their samples (taken about
+     * the middle of the chord) should agree to within sampling error.
+     */
+    @Test
+    void testDiskDiskDistribution() {
+        Circle disk1 = new Circle(new Vector(1.0, -2.0), 10.0);
+        Circle disk2 = new Circle(new Vector(9.0, 9.0), 8.0);
+        Vector[] chord = Circle.circleCircleIntersect(disk1, disk2);
+        Vector middle = chord[0].add(chord[1]).scalarMultiply(0.5);
+        int nSamples = 20000;
+        double[][] moments = new double[2][5];
+        String[] samplers = {RngUtility.EXACT_SAMPLER, RngUtility.REJECTION_SAMPLER};
+        for (int s = 0; s < samplers.length; s++) {
+            rng.setSampler(samplers[s]);
+            for (int i = 0; i < nSamples; i++) {
+                Vector point = Circle.diskDiskIntersect(disk1, disk2, rng).subtract(middle);
+                double x = point.getX();
+                double y = point.getY();
+                double[] values = {x, y, x * x, y * y, x * y};
+                for (int j = 0; j < values.length; j++) {
+                    moments[s][j] += values[j] / nSamples;
+                }
+            }
+        }
+        assertArrayEquals(moments[1], moments[0], 0.25);
+        assertTrue(rng.getRejections() > 0);
+    }
+
+    @Test
+    void testCapAngle() {
+        for (double alpha : new double[]{1e-7, 1e-3, 0.2, 0.25, 1.0, Math.PI / 2, 3.0, Math.PI}) {
+            double area = GeometryUtility.capArea(alpha);
+            for (double fraction : new double[]{0.0, 1e-9, 0.05, 0.3, 0.5, 0.7, 0.95, 1.0}) {
+                double phi = GeometryUtility.capAngle(alpha, fraction);
+                assertTrue(phi >= 0.0 && phi <= alpha);
+                assertEquals(fraction * area, GeometryUtility.capArea(phi), 1e-12 * area);
+            }
+        }
+        assertEquals(1.0 - Math.sin(1.0), GeometryUtility.capArea(0.5), 1e-16);
+        assertEquals(0.2 - Math.sin(0.2), GeometryUtility.capArea(0.1), 1e-16);
+    }
 }
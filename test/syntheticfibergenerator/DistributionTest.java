@@ -3,13 +3,13 @@ package syntheticfibergenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.util.Random;
-
 import static org.junit.jupiter.api.Assertions.*;
 
 
 class DistributionTest {
 
+    private RngUtility rng;
+
     private static final int N_LOOPS = 100;
 
 
@@ -18,7 +18,7 @@ class DistributionTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng = new Random(1);
+        rng = new RngUtility(1);
     }
 
     @Test
@@ -31,7 +31,7 @@ class DistributionTest {
             fail(e.getMessage());
         }
         for (int i = 0; i < N_LOOPS; i++) {
-            double value = gaussian.sample();
+            double value = gaussian.sample(rng);
             assertTrue(value >= 1.0 && value <= 5.0);
         }
     }
@@ -46,7 +46,7 @@ class DistributionTest {
             fail(e.getMessage());
         }
         for (int i = 0; i < N_LOOPS; i++) {
-            double value = gaussian.sample();
+            double value = gaussian.sample(rng);
             assertTrue(value >= 1.0 && value <= 5.0);
         }
     }
@@ -73,7 +73,7 @@ class DistributionTest {
             fail(e.getMessage());
         }
         for (int i = 0; i < N_LOOPS; i++) {
-            double value = uniform.sample();
+            double value = uniform.sample(rng);
             assertTrue(value >= -8.0 && value < 12.0);
         }
     }
@@ -88,7 +88,7 @@ class DistributionTest {
             fail(e.getMessage());
         }
         for (int i = 0; i < N_LOOPS; i++) {
-            double value = uniform.sample();
+            double value = uniform.sample(rng);
             assertTrue(value >= -10.0 && value < 17.0);
         }
     }
@@ -128,7 +128,7 @@ class DistributionTest {
             fail(e.getMessage());
         }
         for (int i = 0; i < N_LOOPS; i++) {
-            double value = piecewiseLinear.sample();
+            double value = piecewiseLinear.sample(rng);
             assertTrue(value >= 6.0);
             assertTrue(value <= 95.0);
             assertTrue(value <= 10.0 || value >= 90.0);
@@ -1,33 +1,47 @@
 package syntheticfibergenerator;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.awt.image.BufferedImage;
-import java.util.Random;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
 class FiberImageTest {
 
+    private RngUtility rng;
+
     private static final int N_LOOPS = 20;
     private static final double DELTA = 1e-6;
 
+    // Length of the binary data header (magic string, version, and quantization steps)
+    private static final int BINARY_HEADER = 21;
+
 
     /**
      * Fix the random seed so we get consistent tests.
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng = new Random(1);
+        rng = new RngUtility(1);
     }
 
     @Test
     void testAlignment() {
         for (int i = 0; i < N_LOOPS; i++) {
             FiberImage.Params params = randomParams();
-            FiberImage image = new FiberImage(params);
+            FiberImage image = new FiberImage(params, rng);
             image.generateFibers();
             assertEquals(params.alignment.value(), TestUtility.alignment(image, params), DELTA);
         }
@@ -37,7 +51,7 @@ class FiberImageTest {
     void testMeanAngle() {
         for (int i = 0; i < N_LOOPS; i++) {
             FiberImage.Params params = randomParams();
-            FiberImage image = new FiberImage(params);
+            FiberImage image = new FiberImage(params, rng);
             image.generateFibers();
             assertEquals(params.meanAngle.value(), TestUtility.meanAngle(image, params), DELTA);
         }
@@ -47,7 +61,7 @@ class FiberImageTest {
     void testImageProperties() {
         for (int i = 0; i < N_LOOPS; i++) {
             FiberImage.Params params = randomParams();
-            FiberImage image = new FiberImage(params);
+            FiberImage image = new FiberImage(params, rng);
             image.generateFibers();
             image.drawFibers();
             assertEquals((int) params.imageWidth.value(), image.getImage().getWidth());
@@ -60,7 +74,8 @@ class FiberImageTest {
     void testDownSample() {
         for (int i = 0; i < N_LOOPS; i++) {
             FiberImage.Params params = randomParams();
-            FiberImage image = new FiberImage(params);
+            // A child context keeps the parameters drawn independent of how many values generation takes
+            FiberImage image = new FiberImage(params, rng.split());
             image.generateFibers();
             image.drawFibers();
             image.applyEffects();
@@ -70,35 +85,302 @@ class FiberImageTest {
         }
     }
 
+    /**
+     * Draws a single straight fiber of known length and width, which every renderer should turn into a capsule: the
+     * pixels on its axis are lit, those a little beyond its edge aren't, and the total intensity matches the capsule's
+     * area. The anti-aliased renderer measures coverage and so matches the area most closely; Java2D, which truncates
+     * endpoints, gets the loosest bound.
+     */
+    @Test
+    void testRenderModes() {
+        double length = 100.0;
+        double width = 8.0;
+        double capsule = length * width + Math.PI * width * width / 4;
+        FiberImage.Params params = straightFiberParams(length, width);
+        String[] modes = {null, Rasterizer.JAVA2D, Rasterizer.ANTIALIASED};
+        double[] tolerances = {0.01, 0.03, 0.005};
+        for (int m = 0; m < modes.length; m++) {
+            params.render.use = modes[m] != null;
+            if (modes[m] != null) {
+                params.render.parse(true, modes[m], String::trim);
+            }
+            for (int seed = 0; seed < N_LOOPS; seed++) {
+                FiberImage image = new FiberImage(params, new RngUtility(seed));
+                image.generateFibers();
+                image.drawFibers();
+                ArrayList<Vector> points = image.iterator().next().getPoints();
+                Vector start = points.get(0);
+                Vector end = points.get(points.size() - 1);
+                Vector axis = end.subtract(start).normalize();
+                Vector normal = new Vector(-axis.getY(), axis.getX());
+                for (double t = 0.25; t < 1; t += 0.25) {
+                    Vector center = start.add(end.subtract(start).scalarMultiply(t));
+                    assertEquals(0xFF, sample(image.getImage(), center), modes[m]);
+                    assertEquals(0, sample(image.getImage(), center.add(normal.scalarMultiply(width))), modes[m]);
+                    assertEquals(0, sample(image.getImage(), center.subtract(normal.scalarMultiply(width))), modes[m]);
+                }
+                double area = intensitySum(image.getImage()) / 0xFF;
+                assertEquals(capsule, area, tolerances[m] * capsule, modes[m]);
+            }
+        }
+
+        params.render.parse(true, "vector", String::trim);
+        assertThrows(IllegalArgumentException.class, params::verify);
+    }
+
+    /**
+     * The in-place chain with a combined cap and normalize table matches applying each effect separately.
+     */
+    @Test
+    void testPointWiseEffects() {
+        for (int i = 0; i < N_LOOPS; i++) {
+            FiberImage.Params params = randomParams();
+            params.downSample.use = false;
+            params.distance.parse(true, "20.0", Double::parseDouble);
+            params.cap.parse(true, "100", Integer::parseInt);
+            params.normalize.parse(true, "200", Integer::parseInt);
+            FiberImage image = new FiberImage(params, rng);
+            image.generateFibers();
+            image.drawFibers();
+            BufferedImage expected = image.getImage();
+            expected = ImageUtility.distanceFunction(expected, params.distance.value());
+            expected = ImageUtility.cap(expected, params.cap.value());
+            expected = ImageUtility.normalize(expected, params.normalize.value());
+            image.applyEffects();
+            assertTrue(TestUtility.pixelWiseEqual(expected, image.getImage()));
+        }
+    }
+
+    /**
+     * Noise followed directly by cap and normalize is computed in a fused pass; it must match the separate effects.
+     */
+    @Test
+    void testFusedNoise() {
+        FiberImage.Params params = randomParams();
+        params.downSample.use = false;
+        params.noise.parse(true, "5.0", Double::parseDouble);
+        params.cap.parse(true, "120", Integer::parseInt);
+        params.normalize.parse(true, "255", Integer::parseInt);
+        FiberImage fused = new FiberImage(params, new RngUtility(5));
+        fused.generateFibers();
+        fused.drawFibers();
+        fused.applyEffects();
+
+        params.cap.use = false;
+        params.normalize.use = false;
+        FiberImage separate = new FiberImage(params, new RngUtility(5));
+        separate.generateFibers();
+        separate.drawFibers();
+        separate.applyEffects();
+        BufferedImage expected = ImageUtility.cap(separate.getImage(), 120);
+        expected = ImageUtility.normalize(expected, 255);
+        assertTrue(TestUtility.pixelWiseEqual(expected, fused.getImage()));
+    }
+
+    /**
+     * The streaming adapter writes exactly what reflective serialization of the original list-based classes did, both
+     * indented and compact.
+     */
+    @Test
+    void testAdapterMatchesReflection() throws IOException {
+        FiberImage image = new FiberImage(randomParams(), rng);
+        image.generateFibers();
+        image.smooth();
+        ListImage lists = new ListImage(image);
+        Gson pretty = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+        assertEquals(pretty.toJson(lists), writeAdapter(image, true));
+        Gson compact = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+        assertEquals(compact.toJson(lists), writeAdapter(image, false));
+    }
+
+    @Test
+    void testAdapterRoundTrip() throws IOException {
+        FiberImage image = new FiberImage(randomParams(), rng);
+        image.generateFibers();
+        String json = writeAdapter(image, false);
+        FiberImage read = new FiberImage.Adapter().fromJson(json);
+        assertEquals(json, writeAdapter(read, false));
+        Iterator<Fiber> readFibers = read.iterator();
+        for (Fiber fiber : image) {
+            ArrayList<Vector> expected = fiber.getPoints();
+            ArrayList<Vector> actual = readFibers.next().getPoints();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getX(), actual.get(i).getX());
+                assertEquals(expected.get(i).getY(), actual.get(i).getY());
+            }
+        }
+        assertFalse(readFibers.hasNext());
+    }
+
+    /**
+     * Points and widths come back within half a quantization step; the parameters come back exactly.
+     */
+    @Test
+    void testBinaryRoundTrip() throws IOException {
+        FiberImage image = new FiberImage(randomParams(), rng);
+        image.generateFibers();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        IOManager.writeBinaryData(image, stream);
+        byte[] binary = stream.toByteArray();
+        FiberImage read = IOManager.readBinaryData(new ByteArrayInputStream(binary), binary.length);
+        assertEquals(image.size(), read.size());
+        assertTrue(binary.length < writeAdapter(image, false).length());
+
+        Iterator<Fiber> readFibers = read.iterator();
+        for (Fiber fiber : image) {
+            Fiber readFiber = readFibers.next();
+            assertEquals(fiber.getDirection().getX(), readFiber.getDirection().getX());
+            assertEquals(fiber.getDirection().getY(), readFiber.getDirection().getY());
+            ArrayList<Vector> expected = fiber.getPoints();
+            ArrayList<Vector> actual = readFiber.getPoints();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getX(), actual.get(i).getX(), IOManager.POINT_STEP / 2);
+                assertEquals(expected.get(i).getY(), actual.get(i).getY(), IOManager.POINT_STEP / 2);
+            }
+            Iterator<Fiber.Segment> readSegments = readFiber.iterator();
+            for (Fiber.Segment segment : fiber) {
+                assertEquals(segment.width, readSegments.next().width, IOManager.WIDTH_STEP / 2);
+            }
+        }
+
+        ByteArrayOutputStream countBytes = new ByteArrayOutputStream();
+        MiscUtility.writeVarLong(new DataOutputStream(countBytes), image.size());
+        int fibersStart = BINARY_HEADER + countBytes.size();
+        for (long count : new long[]{-1, binary.length + 1, Long.MAX_VALUE}) {
+            ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+            corrupt.write(binary, 0, BINARY_HEADER);
+            MiscUtility.writeVarLong(new DataOutputStream(corrupt), count);
+            corrupt.write(binary, fibersStart, binary.length - fibersStart);
+            assertThrows(IOException.class, () -> IOManager.readBinaryData(
+                    new ByteArrayInputStream(corrupt.toByteArray()), corrupt.size()));
+        }
+        binary[4] = 2;
+        assertThrows(IOException.class, () -> IOManager.readBinaryData(new ByteArrayInputStream(binary),
+                binary.length));
+        binary[0] = 'X';
+        assertThrows(IOException.class, () -> IOManager.readBinaryData(new ByteArrayInputStream(binary),
+                binary.length));
+    }
+
+    /**
+     * @return Parameters for an image holding one straight fiber of fixed length and width, well inside the image
+     */
+    private FiberImage.Params straightFiberParams(double length, double width) {
+        FiberImage.Params params = randomParams();
+        params.nFibers = TestUtility.fromValue(1, Integer::parseInt);
+        params.segmentLength = TestUtility.fromValue(10.0, Double::parseDouble);
+        params.widthChange = TestUtility.fromValue(0.0, Double::parseDouble);
+        params.imageWidth = TestUtility.fromValue(200, Integer::parseInt);
+        params.imageHeight = TestUtility.fromValue(200, Integer::parseInt);
+        params.imageBuffer = TestUtility.fromValue((int) width * 2, Integer::parseInt);
+        Uniform lengths = new Uniform(params.length.lowerBound, params.length.upperBound);
+        lengths.min = TestUtility.fromValue(length, Double::parseDouble);
+        lengths.max = TestUtility.fromValue(length, Double::parseDouble);
+        params.length = lengths;
+        Uniform widths = new Uniform(params.width.lowerBound, params.width.upperBound);
+        widths.min = TestUtility.fromValue(width, Double::parseDouble);
+        widths.max = TestUtility.fromValue(width, Double::parseDouble);
+        params.width = widths;
+        Uniform straightness = new Uniform(params.straightness.lowerBound, params.straightness.upperBound);
+        straightness.min = TestUtility.fromValue(1.0, Double::parseDouble);
+        straightness.max = TestUtility.fromValue(1.0, Double::parseDouble);
+        params.straightness = straightness;
+        params.downSample.use = false;
+        return params;
+    }
+
+    /**
+     * @return The value of the pixel containing a point
+     */
+    private static int sample(BufferedImage image, Vector point) {
+        return image.getRaster().getSample((int) Math.floor(point.getX()), (int) Math.floor(point.getY()), 0);
+    }
+
+    /**
+     * @return The sum of all pixel values of a grey scale image
+     */
+    private static double intensitySum(BufferedImage image) {
+        double sum = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                sum += image.getRaster().getSample(x, y, 0);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Mirrors the fields of {@code FiberImage} and {@code Fiber} from before their geometry moved to primitive arrays.
+     */
+    private static class ListImage {
+
+        ArrayList<ListFiber> fibers = new ArrayList<>();
+
+        ListImage(FiberImage image) {
+            for (Fiber fiber : image) {
+                fibers.add(new ListFiber(fiber));
+            }
+        }
+    }
+
+    private static class ListFiber {
+
+        Fiber.Params params;
+        ArrayList<Vector> points;
+        ArrayList<Double> widths = new ArrayList<>();
+
+        ListFiber(Fiber fiber) {
+            params = fiber.getParams();
+            points = fiber.getPoints();
+            for (Fiber.Segment segment : fiber) {
+                widths.add(segment.width);
+            }
+        }
+    }
+
+    private static String writeAdapter(FiberImage image, boolean indent) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonWriter json = new JsonWriter(writer);
+        if (indent) {
+            json.setIndent("  ");
+        }
+        json.setLenient(true);
+        new FiberImage.Adapter().write(json, image);
+        json.flush();
+        return writer.toString();
+    }
+
     /**
      * TODO: Choose the bounds on values more systematically
      */
-    private static FiberImage.Params randomParams() {
+    private FiberImage.Params randomParams() {
         FiberImage.Params params = new FiberImage.Params();
         try {
             // Generate at least 2 fibers because alignment for a single fiber is always 1.0
-            params.nFibers = TestUtility.fromValue(RngUtility.nextInt(2, 100), Integer::parseInt);
-            params.segmentLength = TestUtility.fromValue(RngUtility.nextDouble(0.1, 100.0), Double::parseDouble);
-            params.alignment = TestUtility.fromValue(RngUtility.nextDouble(0.0, 1.0), Double::parseDouble);
-            params.meanAngle = TestUtility.fromValue(RngUtility.nextDouble(0.0, 180.0), Double::parseDouble);
-            params.widthChange = TestUtility.fromValue(RngUtility.nextDouble(0.0, 10.0), Double::parseDouble);
-            params.imageWidth = TestUtility.fromValue(RngUtility.nextInt(8, 1024), Integer::parseInt);
-            params.imageHeight = TestUtility.fromValue(RngUtility.nextInt(8, 1024), Integer::parseInt);
-            params.imageBuffer = TestUtility.fromValue(RngUtility.nextInt(0, 32), Integer::parseInt);
+            params.nFibers = TestUtility.fromValue(rng.nextInt(2, 100), Integer::parseInt);
+            params.segmentLength = TestUtility.fromValue(rng.nextDouble(0.1, 100.0), Double::parseDouble);
+            params.alignment = TestUtility.fromValue(rng.nextDouble(0.0, 1.0), Double::parseDouble);
+            params.meanAngle = TestUtility.fromValue(rng.nextDouble(0.0, 180.0), Double::parseDouble);
+            params.widthChange = TestUtility.fromValue(rng.nextDouble(0.0, 10.0), Double::parseDouble);
+            params.imageWidth = TestUtility.fromValue(rng.nextInt(8, 1024), Integer::parseInt);
+            params.imageHeight = TestUtility.fromValue(rng.nextInt(8, 1024), Integer::parseInt);
+            params.imageBuffer = TestUtility.fromValue(rng.nextInt(0, 32), Integer::parseInt);
             Uniform length = new Uniform(params.length.lowerBound, params.length.upperBound);
-            length.min = TestUtility.fromValue(RngUtility.nextDouble(0.1, 1000.0), Double::parseDouble);
-            length.max = TestUtility.fromValue(RngUtility.nextDouble(length.min.value(), 1000.0), Double::parseDouble);
+            length.min = TestUtility.fromValue(rng.nextDouble(0.1, 1000.0), Double::parseDouble);
+            length.max = TestUtility.fromValue(rng.nextDouble(length.min.value(), 1000.0), Double::parseDouble);
             params.length = length;
             Uniform width = new Uniform(params.width.lowerBound, params.width.upperBound);
-            width.min = TestUtility.fromValue(RngUtility.nextDouble(0.1, 5.0), Double::parseDouble);
-            width.max = TestUtility.fromValue(RngUtility.nextDouble(width.min.value(), 5.0), Double::parseDouble);
+            width.min = TestUtility.fromValue(rng.nextDouble(0.1, 5.0), Double::parseDouble);
+            width.max = TestUtility.fromValue(rng.nextDouble(width.min.value(), 5.0), Double::parseDouble);
             params.width = width;
             Uniform straightness = new Uniform(params.straightness.lowerBound, params.straightness.upperBound);
-            straightness.min = TestUtility.fromValue(RngUtility.nextDouble(0.0, 1.0), Double::parseDouble);
-            straightness.max = TestUtility.fromValue(RngUtility.nextDouble(straightness.min.value(), 1.0), Double::parseDouble);
+            straightness.min = TestUtility.fromValue(rng.nextDouble(0.0, 1.0), Double::parseDouble);
+            straightness.max = TestUtility.fromValue(rng.nextDouble(straightness.min.value(), 1.0), Double::parseDouble);
             params.straightness = straightness;
             params.downSample.use = true;
-            params.downSample.parse(Double.toString(RngUtility.nextDouble(0.01, 20.0)), Double::parseDouble);
+            params.downSample.parse(Double.toString(rng.nextDouble(0.01, 20.0)), Double::parseDouble);
         } catch (Exception e) {
             fail(e.getMessage());
         }
@@ -5,13 +5,14 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
 class FiberTest {
 
+    private RngUtility rng;
+
     private static final int N_LOOPS = 50;
     private static final double DELTA = 1e-6;
 
@@ -24,14 +25,14 @@ class FiberTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng = new Random(1);
+        rng = new RngUtility(1);
     }
 
     @Test
     void testIterator() {
         Fiber.Params params = randomParams();
         Fiber fiber = new Fiber(params);
-        fiber.generate();
+        fiber.generate(rng);
         Iterator<Fiber.Segment> iterator = fiber.iterator();
         for (int i = 0; i < params.nSegments; i++) {
             assertTrue(iterator.hasNext());
@@ -45,7 +46,7 @@ class FiberTest {
         for (int i = 0; i < N_LOOPS; i++) {
             Fiber.Params params = randomParams();
             Fiber fiber = new Fiber(params);
-            fiber.generate();
+            fiber.generate(rng);
             Vector prevEnd = params.start;
             for (Fiber.Segment segment : fiber) {
                 assertEquals(params.segmentLength, segment.start.distance(segment.end), DELTA);
@@ -61,7 +62,7 @@ class FiberTest {
         for (int i = 0; i < N_LOOPS; i++) {
             Fiber.Params params = randomParams();
             Fiber fiber = new Fiber(params);
-            fiber.generate();
+            fiber.generate(rng);
             Iterator<Fiber.Segment> iterator = fiber.iterator();
             Fiber.Segment first = iterator.next();
             assertEquals(params.startWidth, first.width);
@@ -78,7 +79,7 @@ class FiberTest {
     void testBubbleSmooth() {
         for (int i = 0; i < N_LOOPS; i++) {
             Fiber fiber = new Fiber(randomParams());
-            fiber.generate();
+            fiber.generate(rng);
             double oldSum = TestUtility.angleChangeSum(fiber);
             for (int j = 0; j < SMOOTH; j++) {
                 fiber.bubbleSmooth(1);
@@ -93,10 +94,10 @@ class FiberTest {
     void testSwapSmooth() {
         for (int i = 0; i < N_LOOPS; i++) {
             Fiber fiber = new Fiber(randomParams());
-            fiber.generate();
+            fiber.generate(rng);
             double oldSum = TestUtility.angleChangeSum(fiber);
             for (int j = 0; j < SMOOTH; j++) {
-                fiber.swapSmooth(1);
+                fiber.swapSmooth(1, rng);
                 double newSum = TestUtility.angleChangeSum(fiber);
                 assertTrue(newSum <= oldSum + DELTA);
                 oldSum = newSum;
@@ -107,9 +108,9 @@ class FiberTest {
     @Test
     void testSplineSmooth() {
         for (int i = 0; i < N_LOOPS; i++) {
-            int smoothRatio = 1 + RngUtility.rng.nextInt(MAX_SPLINE);
+            int smoothRatio = 1 + rng.nextInt(MAX_SPLINE);
             Fiber fiber = new Fiber(randomParams());
-            fiber.generate();
+            fiber.generate(rng);
             ArrayList<Vector> oldPoints = fiber.getPoints();
             fiber.splineSmooth(smoothRatio);
             ArrayList<Vector> newPoints = fiber.getPoints();
@@ -122,18 +123,43 @@ class FiberTest {
         }
     }
 
+    /**
+     * Fibers sharing a geometry store don't disturb each other as they're generated, smoothed, and moved.
+     */
+    @Test
+    void testSharedGeometry() {
+        FiberGeometry geometry = new FiberGeometry(1);
+        Fiber first = new Fiber(randomParams(), geometry);
+        first.generate(rng);
+        Fiber second = new Fiber(randomParams(), geometry);
+        second.generate(rng);
+        ArrayList<Vector> secondPoints = second.getPoints();
+        double lastWidth = second.getWidth(second.size() - 2);
+        first.splineSmooth(3);
+        ArrayList<Vector> firstPoints = first.getPoints();
+        assertEquals(secondPoints, second.getPoints());
+
+        FiberGeometry packed = new FiberGeometry(first.size() + second.size());
+        first.moveTo(packed);
+        second.moveTo(packed);
+        assertEquals(first.size() + second.size(), packed.size());
+        assertEquals(firstPoints, first.getPoints());
+        assertEquals(secondPoints, second.getPoints());
+        assertEquals(lastWidth, second.getWidth(second.size() - 2));
+    }
+
     /**
      * TODO: Choose the bounds on values more systematically
      */
-    private static Fiber.Params randomParams() {
+    private Fiber.Params randomParams() {
         Fiber.Params params = new Fiber.Params();
-        params.segmentLength = RngUtility.nextDouble(0.1, 100.0);
-        params.widthChange = RngUtility.nextDouble(0.0, 10.0);
-        params.nSegments = (int) RngUtility.nextDouble(1.0, 1000.0);
-        params.startWidth = RngUtility.nextDouble(0.1, 5.0);
-        params.straightness = RngUtility.nextDouble(0.0, 1.0);
+        params.segmentLength = rng.nextDouble(0.1, 100.0);
+        params.widthChange = rng.nextDouble(0.0, 10.0);
+        params.nSegments = (int) rng.nextDouble(1.0, 1000.0);
+        params.startWidth = rng.nextDouble(0.1, 5.0);
+        params.straightness = rng.nextDouble(0.0, 1.0);
         params.start = new Vector();
-        double angle = RngUtility.nextDouble(0.0, 2 * Math.PI);
+        double angle = rng.nextDouble(0.0, 2 * Math.PI);
         params.start = new Vector();
         double length = params.segmentLength * params.nSegments * params.straightness;
         params.end = new Vector(Math.cos(angle), Math.sin(angle)).scalarMultiply(length);
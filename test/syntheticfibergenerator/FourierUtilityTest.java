@@ -0,0 +1,85 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class FourierUtilityTest {
+
+    private static final double DELTA = 1e-9;
+
+
+    @Test
+    void testNextPowerOfTwo() {
+        assertEquals(1, FourierUtility.nextPowerOfTwo(1));
+        assertEquals(2, FourierUtility.nextPowerOfTwo(2));
+        assertEquals(64, FourierUtility.nextPowerOfTwo(33));
+        assertEquals(64, FourierUtility.nextPowerOfTwo(64));
+    }
+
+    @Test
+    void testInvalidLength() {
+        assertThrows(IllegalArgumentException.class, () -> new FourierUtility.Plan(12));
+    }
+
+    /**
+     * Compares the transform of random data with a directly evaluated DFT, then checks the inverse round trip.
+     */
+    @Test
+    void testTransform() {
+        int n = 32;
+        Random random = new Random(1);
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int i = 0; i < n; i++) {
+            re[i] = random.nextDouble();
+            im[i] = random.nextDouble();
+        }
+        double[] re0 = re.clone();
+        double[] im0 = im.clone();
+        FourierUtility.Plan plan = new FourierUtility.Plan(n);
+        plan.transform(re, im, 0, false);
+        for (int k = 0; k < n; k++) {
+            double sumRe = 0.0;
+            double sumIm = 0.0;
+            for (int j = 0; j < n; j++) {
+                double angle = -2 * Math.PI * j * k / n;
+                sumRe += re0[j] * Math.cos(angle) - im0[j] * Math.sin(angle);
+                sumIm += re0[j] * Math.sin(angle) + im0[j] * Math.cos(angle);
+            }
+            assertEquals(sumRe, re[k], DELTA);
+            assertEquals(sumIm, im[k], DELTA);
+        }
+        plan.transform(re, im, 0, true);
+        for (int i = 0; i < n; i++) {
+            assertEquals(re0[i], re[i] / n, DELTA);
+            assertEquals(im0[i], im[i] / n, DELTA);
+        }
+    }
+
+    /**
+     * A single-pixel kernel at the origin shifts the image.
+     */
+    @Test
+    void testCorrelateShift() {
+        int width = 100;
+        int height = 70;
+        float[] values = new float[width * height];
+        Random random = new Random(2);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(256);
+        }
+        float[] kernel = new float[3 * 3];
+        kernel[2 * 3 + 2] = 1.0f;
+        float[] output = FourierUtility.correlate(values, width, height, kernel, 3, 3, 1, 1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float expected = x + 1 < width && y + 1 < height ? values[(y + 1) * width + x + 1] : 0.0f;
+                assertEquals(expected, output[y * width + x], 1e-3);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class GeneratorTest {
+
+    private static final String[] TYPENAMES = {
+            JavaRandom.typename, Splittable.typename, Xoshiro256.typename, Philox.typename};
+
+    private static final int N_LOOPS = 10000;
+    private static final double DELTA = 1e-6;
+
+
+    @Test
+    void testCreate() {
+        for (String typename : TYPENAMES) {
+            assertEquals(typename, Generator.create(typename, 1).getType());
+        }
+        assertThrows(IllegalArgumentException.class, () -> Generator.create("mersenne", 1));
+    }
+
+    @Test
+    void testDeterminism() {
+        for (String typename : TYPENAMES) {
+            Generator first = Generator.create(typename, 42);
+            Generator second = Generator.create(typename, 42);
+            for (int i = 0; i < N_LOOPS; i++) {
+                assertEquals(first.nextLong(), second.nextLong());
+            }
+        }
+    }
+
+    @Test
+    void testRanges() {
+        for (String typename : TYPENAMES) {
+            Generator generator = Generator.create(typename, 7);
+            for (int i = 0; i < N_LOOPS; i++) {
+                double d = generator.nextDouble();
+                assertTrue(d >= 0.0 && d < 1.0);
+                int n = generator.nextInt(37);
+                assertTrue(n >= 0 && n < 37);
+                int p = generator.nextInt(64);
+                assertTrue(p >= 0 && p < 64);
+            }
+        }
+    }
+
+    @Test
+    void testGaussianMoments() {
+        for (String typename : TYPENAMES) {
+            Generator generator = Generator.create(typename, 3);
+            double sum = 0.0;
+            double sumSq = 0.0;
+            for (int i = 0; i < N_LOOPS; i++) {
+                double value = generator.nextGaussian();
+                sum += value;
+                sumSq += value * value;
+            }
+            assertEquals(0.0, sum / N_LOOPS, 0.05);
+            assertEquals(1.0, sumSq / N_LOOPS, 0.05);
+        }
+    }
+
+    @Test
+    void testSplit() {
+        for (String typename : TYPENAMES) {
+            Generator parent = Generator.create(typename, 5);
+            Generator child = parent.split();
+            assertEquals(typename, child.getType());
+            int matches = 0;
+            for (int i = 0; i < 100; i++) {
+                matches += parent.nextLong() == child.nextLong() ? 1 : 0;
+            }
+            assertEquals(0, matches);
+        }
+    }
+
+    /**
+     * Reseeding restarts the sequence of a generator created with the new seed, including through the Commons Math
+     * adapter, and drops any cached Gaussian.
+     */
+    @Test
+    void testSetSeed() {
+        for (String typename : TYPENAMES) {
+            Generator generator = Generator.create(typename, 5);
+            generator.nextLong();
+            generator.nextGaussian();
+            generator.setSeed(7);
+            Generator fresh = Generator.create(typename, 7);
+            assertEquals(fresh.nextGaussian(), generator.nextGaussian(), typename);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(fresh.nextLong(), generator.nextLong(), typename);
+            }
+
+            RngUtility rng = new RngUtility(typename, 5);
+            rng.asRandomGenerator().setSeed(7);
+            assertEquals(new RngUtility(typename, 7).nextLong(), rng.nextLong(), typename);
+        }
+    }
+
+    /**
+     * Splits a tree of generators as fork/join chain building does and checks that no stream repeats part of another,
+     * even shifted: the first values of each stream mustn't appear anywhere in the first few thousand of the others.
+     */
+    @Test
+    void testSplitTree() {
+        for (String typename : TYPENAMES) {
+            Generator root = Generator.create(typename, 9);
+            Generator left = root.split();
+            Generator right = root.split();
+            left.nextLong();
+            Generator[] streams = {left.split(), left.split(), right.split(), right.split(), left, right, root};
+            ArrayList<HashSet<Long>> prefixes = new ArrayList<>();
+            long[][] values = new long[streams.length][4096];
+            for (int i = 0; i < streams.length; i++) {
+                HashSet<Long> prefix = new HashSet<>();
+                for (int j = 0; j < values[i].length; j++) {
+                    values[i][j] = streams[i].nextLong();
+                    if (j < 8) {
+                        prefix.add(values[i][j]);
+                    }
+                }
+                prefixes.add(prefix);
+            }
+            for (int i = 0; i < streams.length; i++) {
+                for (int k = 0; k < streams.length; k++) {
+                    if (i == k) {
+                        continue;
+                    }
+                    for (long value : values[k]) {
+                        assertFalse(prefixes.get(i).contains(value), typename + ": stream " + i + " repeats in " + k);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reference values from the authors' xoshiro256starstar.c with state {1, 2, 3, 4}.
+     */
+    @Test
+    void testXoshiroReference() {
+        Xoshiro256 generator = new Xoshiro256(1, 2, 3, 4);
+        assertEquals(11520L, generator.nextLong());
+        assertEquals(0L, generator.nextLong());
+        assertEquals(1509978240L, generator.nextLong());
+        assertEquals(1215971899390074240L, generator.nextLong());
+    }
+
+    /**
+     * Known-answer vectors from the Random123 distribution (kat_vectors, philox4x32 with 10 rounds).
+     */
+    @Test
+    void testPhiloxReference() {
+        int[] out = new int[4];
+        Philox.bijection(0, 0, 0, 0, 0, 0, out);
+        assertArrayEquals(new int[]{0x6627e8d5, 0xe169c58d, 0xbc57ac4c, 0x9b00dbd8}, out);
+        Philox.bijection(-1, -1, -1, -1, -1, -1, out);
+        assertArrayEquals(new int[]{0x408f276d, 0x41c83b0e, 0xa20bc7c6, 0x6d5451fd}, out);
+    }
+
+    @Test
+    void testPhiloxSeek() {
+        Philox sequential = new Philox(11);
+        long[] values = new long[101];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sequential.nextLong();
+        }
+        Philox seeking = new Philox(11);
+        seeking.seek(57);
+        assertEquals(values[57], seeking.nextLong());
+        seeking.seek(100);
+        assertEquals(values[100], seeking.nextLong());
+        seeking.seek(0);
+        assertEquals(values[0], seeking.nextLong());
+    }
+
+    @Test
+    void testRandomChainAllBackends() {
+        int nSteps = 23;
+        double stepSize = 7.0;
+        Vector start = new Vector(0.0, 0.0);
+        Vector end = new Vector(-1, 1).normalize().scalarMultiply(0.7 * nSteps * stepSize);
+        for (String typename : TYPENAMES) {
+            RngUtility rng = new RngUtility(typename, 1);
+            ArrayList<Vector> chain = rng.randomChain(start, end, nSteps, stepSize);
+            for (int i = 1; i < chain.size(); i++) {
+                assertEquals(stepSize, chain.get(i).subtract(chain.get(i - 1)).getNorm(), DELTA);
+            }
+        }
+    }
+}
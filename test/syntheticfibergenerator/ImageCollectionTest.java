@@ -0,0 +1,144 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ImageCollectionTest {
+
+    private static final int N_IMAGES = 6;
+
+
+    @Test
+    void testImageCount() {
+        ImageCollection collection = new ImageCollection(collectionParams(1));
+        collection.generateImages();
+        assertEquals(N_IMAGES, collection.size());
+    }
+
+    @Test
+    void testThreadCountInvariance() {
+        ImageCollection serial = new ImageCollection(collectionParams(1));
+        serial.generateImages();
+        ImageCollection parallel = new ImageCollection(collectionParams(4));
+        parallel.generateImages();
+        for (int i = 0; i < N_IMAGES; i++) {
+            assertTrue(TestUtility.pixelWiseEqual(serial.getImage(i), parallel.getImage(i)));
+        }
+    }
+
+    /**
+     * Each image's seed is a fixed function of the master seed and the image's index, so a master seed determines the
+     * whole collection, while different indices (or master seeds) give different images.
+     */
+    @Test
+    void testSeedDetermination() {
+        HashSet<Long> seeds = new HashSet<>();
+        for (int i = 0; i < N_IMAGES; i++) {
+            assertEquals(RngUtility.deriveSeed(42, i), RngUtility.deriveSeed(42, i));
+            seeds.add(RngUtility.deriveSeed(42, i));
+            seeds.add(RngUtility.deriveSeed(43, i));
+        }
+        assertEquals(2 * N_IMAGES, seeds.size());
+
+        ImageCollection first = new ImageCollection(collectionParams(2));
+        first.generateImages();
+        ImageCollection second = new ImageCollection(collectionParams(3));
+        second.generateImages();
+        for (int i = 0; i < N_IMAGES; i++) {
+            assertTrue(TestUtility.pixelWiseEqual(first.getImage(i), second.getImage(i)));
+        }
+        for (int i = 1; i < N_IMAGES; i++) {
+            assertFalse(TestUtility.pixelWiseEqual(first.getImage(0), first.getImage(i)));
+        }
+
+        ImageCollection.Params reseeded = collectionParams(1);
+        reseeded.seed.parse(true, "43", Long::parseLong);
+        ImageCollection third = new ImageCollection(reseeded);
+        third.generateImages();
+        assertFalse(TestUtility.pixelWiseEqual(first.getImage(0), third.getImage(0)));
+    }
+
+    /**
+     * Streamed images arrive in index order, match the retained ones, and aren't kept by the collection.
+     */
+    @Test
+    void testStreaming() throws IOException {
+        ImageCollection retained = new ImageCollection(collectionParams(1));
+        retained.generateImages();
+        ImageCollection streamed = new ImageCollection(collectionParams(4));
+        ArrayList<Integer> indices = new ArrayList<>();
+        streamed.generateImages((index, image) -> {
+            assertTrue(TestUtility.pixelWiseEqual(retained.getImage(index), image.getImage()));
+            indices.add(index);
+        });
+        for (int i = 0; i < N_IMAGES; i++) {
+            assertEquals(i, (int) indices.get(i));
+        }
+        assertEquals(N_IMAGES, indices.size());
+        assertTrue(streamed.isEmpty());
+    }
+
+    @Test
+    void testStreamingFailure() {
+        ImageCollection collection = new ImageCollection(collectionParams(2));
+        assertThrows(IOException.class, () -> collection.generateImages((index, image) -> {
+            throw new IOException("Disk full");
+        }));
+    }
+
+    @Test
+    void testInvalidThreads() {
+        assertThrows(IllegalArgumentException.class, () -> new ImageCollection(collectionParams(0)));
+    }
+
+    @Test
+    void testPipelineThreads() {
+        ImageCollection.Params params = collectionParams(1);
+        params.pipeline.parse(true, "1, 2,3,4,5", String::trim);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, params.pipelineThreads());
+        params.pipeline.parse(true, "1,2,3", String::trim);
+        assertThrows(IllegalArgumentException.class, params::verify);
+        params.pipeline.parse(true, "1,2,0,4,5", String::trim);
+        assertThrows(IllegalArgumentException.class, params::verify);
+        params.pipeline.parse(true, "1,2,x,4,5", String::trim);
+        assertThrows(IllegalArgumentException.class, params::verify);
+    }
+
+    private static ImageCollection.Params collectionParams(int threads) {
+        ImageCollection.Params params = new ImageCollection.Params();
+        params.nImages = TestUtility.fromValue(N_IMAGES, Integer::parseInt);
+        params.seed.parse(true, "42", Long::parseLong);
+        params.threads.parse(true, Integer.toString(threads), Integer::parseInt);
+        params.nFibers = TestUtility.fromValue(20, Integer::parseInt);
+        params.segmentLength = TestUtility.fromValue(10.0, Double::parseDouble);
+        params.alignment = TestUtility.fromValue(0.5, Double::parseDouble);
+        params.meanAngle = TestUtility.fromValue(90.0, Double::parseDouble);
+        params.widthChange = TestUtility.fromValue(0.5, Double::parseDouble);
+        params.imageWidth = TestUtility.fromValue(128, Integer::parseInt);
+        params.imageHeight = TestUtility.fromValue(128, Integer::parseInt);
+        params.imageBuffer = TestUtility.fromValue(5, Integer::parseInt);
+        Uniform length = new Uniform(params.length.lowerBound, params.length.upperBound);
+        length.min = TestUtility.fromValue(15.0, Double::parseDouble);
+        length.max = TestUtility.fromValue(200.0, Double::parseDouble);
+        params.length = length;
+        Gaussian width = new Gaussian(params.width.lowerBound, params.width.upperBound);
+        width.mean = TestUtility.fromValue(3.0, Double::parseDouble);
+        width.sigma = TestUtility.fromValue(0.5, Double::parseDouble);
+        params.width = width;
+        Uniform straightness = new Uniform(params.straightness.lowerBound, params.straightness.upperBound);
+        straightness.min = TestUtility.fromValue(0.8, Double::parseDouble);
+        straightness.max = TestUtility.fromValue(1.0, Double::parseDouble);
+        params.straightness = straightness;
+        params.noise.parse(true, "10.0", Double::parseDouble);
+        params.swap.parse(true, "5", Integer::parseInt);
+        params.setNames();
+        params.setHints();
+        return params;
+    }
+}
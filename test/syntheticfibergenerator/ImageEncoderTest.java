@@ -0,0 +1,170 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ImageEncoderTest {
+
+    private static final String[] TYPENAMES = {
+            PngEncoder.typename, PgmEncoder.typename, QoiEncoder.typename, RawEncoder.typename};
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+
+    @Test
+    void testCreate() {
+        for (String typename : TYPENAMES) {
+            assertEquals(typename, ImageEncoder.create(typename, 6).getType());
+        }
+        assertThrows(IllegalArgumentException.class, () -> ImageEncoder.create("jpeg", 6));
+        assertThrows(IllegalArgumentException.class, () -> ImageEncoder.create(PngEncoder.typename, 12));
+    }
+
+    @Test
+    void testPng() throws IOException {
+        BufferedImage image = testImage();
+        byte[] file = ImageEncoder.create(PngEncoder.typename, 1).encode(image);
+        assertTrue(TestUtility.pixelWiseEqual(image, ImageIO.read(new ByteArrayInputStream(file))));
+    }
+
+    @Test
+    void testPgm() throws IOException {
+        BufferedImage image = testImage();
+        byte[] file = new PgmEncoder().encode(image);
+        byte[] header = ("P5\n" + WIDTH + ' ' + HEIGHT + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(header, Arrays.copyOf(file, header.length));
+        assertArrayEquals(ImageUtility.grayPixels(image), Arrays.copyOfRange(file, header.length, file.length));
+    }
+
+    @Test
+    void testRaw() throws IOException {
+        BufferedImage image = testImage();
+        assertArrayEquals(ImageUtility.grayPixels(image), new RawEncoder().encode(image));
+    }
+
+    @Test
+    void testQoi() throws IOException {
+        BufferedImage image = testImage();
+        byte[] file = new QoiEncoder().encode(image);
+        assertArrayEquals(ImageUtility.grayPixels(image), decodeQoi(file));
+    }
+
+    /**
+     * Runs longer than the longest single run operation, and an image that is one long run.
+     */
+    @Test
+    void testQoiRuns() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        assertArrayEquals(ImageUtility.grayPixels(image), decodeQoi(new QoiEncoder().encode(image)));
+        byte[] pixels = ImageUtility.grayPixels(image);
+        Arrays.fill(pixels, 0, 200, (byte) 255);
+        Arrays.fill(pixels, 200, 300, (byte) 254);
+        ImageUtility.setGrayPixels(image, pixels);
+        assertArrayEquals(pixels, decodeQoi(new QoiEncoder().encode(image)));
+    }
+
+    @Test
+    void testWrongType() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        assertThrows(IllegalArgumentException.class, () -> new PgmEncoder().encode(image));
+        assertThrows(IllegalArgumentException.class, () -> new QoiEncoder().encode(image));
+        assertThrows(IllegalArgumentException.class, () -> new RawEncoder().encode(image));
+    }
+
+    /**
+     * A straightforward decoder following the QOI specification. Returns the red channel, after checking that all
+     * three channels are equal and alpha is opaque.
+     */
+    private static byte[] decodeQoi(byte[] file) {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        assertEquals("qoif", new String(magic, StandardCharsets.US_ASCII));
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        assertEquals(3, buffer.get());
+        buffer.get();
+        int[][] index = new int[64][4];
+        int[] px = {0, 0, 0, 255};
+        byte[] out = new byte[width * height];
+        int run = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (run > 0) {
+                run--;
+            } else {
+                int b1 = buffer.get() & 0xFF;
+                if (b1 == 0xFE) {
+                    px[0] = buffer.get() & 0xFF;
+                    px[1] = buffer.get() & 0xFF;
+                    px[2] = buffer.get() & 0xFF;
+                } else if (b1 == 0xFF) {
+                    px[0] = buffer.get() & 0xFF;
+                    px[1] = buffer.get() & 0xFF;
+                    px[2] = buffer.get() & 0xFF;
+                    px[3] = buffer.get() & 0xFF;
+                } else if ((b1 & 0xC0) == 0x00) {
+                    px = index[b1].clone();
+                } else if ((b1 & 0xC0) == 0x40) {
+                    px[0] = (px[0] + ((b1 >> 4) & 3) - 2) & 0xFF;
+                    px[1] = (px[1] + ((b1 >> 2) & 3) - 2) & 0xFF;
+                    px[2] = (px[2] + (b1 & 3) - 2) & 0xFF;
+                } else if ((b1 & 0xC0) == 0x80) {
+                    int b2 = buffer.get() & 0xFF;
+                    int vg = (b1 & 0x3F) - 32;
+                    px[0] = (px[0] + vg - 8 + ((b2 >> 4) & 0x0F)) & 0xFF;
+                    px[1] = (px[1] + vg) & 0xFF;
+                    px[2] = (px[2] + vg - 8 + (b2 & 0x0F)) & 0xFF;
+                } else {
+                    run = b1 & 0x3F;
+                }
+                index[(px[0] * 3 + px[1] * 5 + px[2] * 7 + px[3] * 11) % 64] = px.clone();
+            }
+            assertEquals(px[0], px[1]);
+            assertEquals(px[0], px[2]);
+            assertEquals(255, px[3]);
+            out[i] = (byte) px[0];
+        }
+        byte[] end = new byte[8];
+        buffer.get(end);
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 0, 0, 1}, end);
+        assertEquals(0, buffer.remaining());
+        return out;
+    }
+
+    /**
+     * An image with flat regions, gradients of several slopes, and noise, so that every QOI operation gets used.
+     */
+    private static BufferedImage testImage() {
+        RngUtility rng = new RngUtility(5);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ImageUtility.grayPixels(image);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value;
+                if (y < HEIGHT / 4) {
+                    value = x < WIDTH / 2 ? 0 : 180;
+                } else if (y < HEIGHT / 2) {
+                    value = x * (1 + y % 7);
+                } else if (y < 3 * HEIGHT / 4) {
+                    value = (x / 8) % 2 == 0 ? 10 : 20;
+                } else {
+                    value = (int) rng.nextDouble(0, 256);
+                }
+                pixels[y * WIDTH + x] = (byte) value;
+            }
+        }
+        ImageUtility.setGrayPixels(image, pixels);
+        return image;
+    }
+}
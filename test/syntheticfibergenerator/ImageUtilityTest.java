@@ -6,7 +6,10 @@ import org.junit.jupiter.api.Test;
 import java.awt.*;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Kernel;
 import java.awt.image.Raster;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -44,6 +47,46 @@ class ImageUtilityTest {
         assertTrue(TestUtility.pixelWiseEqual(image, ImageUtility.distanceFunction(image, 1000)));
     }
 
+    /**
+     * Compares the distance filter against a brute-force search for the closest background pixel.
+     */
+    @Test
+    void testDistanceExact() {
+        BufferedImage small = new BufferedImage(97, 61, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics graphics = small.getGraphics();
+        graphics.fillOval(10, 5, 40, 30);
+        graphics.fillRect(60, 0, 37, 61);
+        graphics.drawLine(0, 60, 96, 0);
+        double falloff = 9.5;
+        Raster inRaster = small.getRaster();
+        Raster outRaster = ImageUtility.distanceFunction(small, falloff).getRaster();
+        for (int y = 0; y < small.getHeight(); y++) {
+            for (int x = 0; x < small.getWidth(); x++) {
+                int expected = 0;
+                if (getPixel(inRaster, x, y) > 0) {
+                    double minDist = Double.POSITIVE_INFINITY;
+                    for (int yIn = 0; yIn < small.getHeight(); yIn++) {
+                        for (int xIn = 0; xIn < small.getWidth(); xIn++) {
+                            if (getPixel(inRaster, xIn, yIn) == 0) {
+                                minDist = Math.min(minDist, Math.sqrt((xIn - x) * (xIn - x) + (yIn - y) * (yIn - y)));
+                            }
+                        }
+                    }
+                    expected = Math.min(255, (int) (minDist * falloff));
+                }
+                assertEquals(expected, getPixel(outRaster, x, y));
+            }
+        }
+    }
+
+    @Test
+    void testDistanceNoBackground() {
+        BufferedImage full = new BufferedImage(32, 16, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics graphics = full.getGraphics();
+        graphics.fillRect(0, 0, 32, 16);
+        assertTrue(TestUtility.pixelWiseEqual(full, ImageUtility.distanceFunction(full, 1.0)));
+    }
+
     @Test
     void testInvalidImage() {
         BufferedImage badImage = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
@@ -56,6 +99,114 @@ class ImageUtilityTest {
         assertTrue(TestUtility.sizeTypeMatch(image, ImageUtility.gaussianBlur(image, 8)));
     }
 
+    /**
+     * Compares every exact blur algorithm against a reference two-dimensional convolution with zero padding.
+     */
+    @Test
+    void testGaussianBlurSeparable() {
+        BufferedImage small = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics graphics = small.getGraphics();
+        graphics.fillOval(5, 5, 20, 12);
+        graphics.drawLine(0, 29, 39, 0);
+        double radius = 7.0;
+        double sigma = radius / 3.0;
+        int size = 7;
+        double[][] kernel = new double[size][size];
+        double norm = 0.0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                kernel[i][j] = Math.exp(-((i - 3) * (i - 3) + (j - 3) * (j - 3)) / (2 * sigma * sigma));
+                norm += kernel[i][j];
+            }
+        }
+        Raster inRaster = small.getRaster();
+        ImageUtility.ConvolutionMethod[] methods = {ImageUtility.ConvolutionMethod.SEPARABLE,
+                ImageUtility.ConvolutionMethod.DIRECT, ImageUtility.ConvolutionMethod.FFT};
+        for (ImageUtility.ConvolutionMethod method : methods) {
+            Raster outRaster = ImageUtility.gaussianBlur(small, radius, method).getRaster();
+            for (int y = 0; y < small.getHeight(); y++) {
+                for (int x = 0; x < small.getWidth(); x++) {
+                    double sum = 0.0;
+                    for (int i = 0; i < size; i++) {
+                        for (int j = 0; j < size; j++) {
+                            int xIn = x + j - 3;
+                            int yIn = y + i - 3;
+                            if (xIn >= 0 && yIn >= 0 && xIn < small.getWidth() && yIn < small.getHeight()) {
+                                sum += kernel[i][j] / norm * getPixel(inRaster, xIn, yIn);
+                            }
+                        }
+                    }
+                    assertEquals((int) sum, getPixel(outRaster, x, y), 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses an asymmetric, off-center kernel and an image spanning several FFT tiles.
+     */
+    @Test
+    void testConvolveFftMatchesDirect() {
+        Random random = new Random(3);
+        BufferedImage noisy = new BufferedImage(150, 100, BufferedImage.TYPE_BYTE_GRAY);
+        random.nextBytes(((DataBufferByte) noisy.getRaster().getDataBuffer()).getData());
+        float[] weights = new float[9 * 5];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextFloat() / 20;
+        }
+        Kernel kernel = new Kernel(9, 5, weights);
+        Raster direct = ImageUtility.convolve(noisy, kernel, ImageUtility.ConvolutionMethod.DIRECT).getRaster();
+        Raster fft = ImageUtility.convolve(noisy, kernel, ImageUtility.ConvolutionMethod.FFT).getRaster();
+        for (int y = 0; y < noisy.getHeight(); y++) {
+            for (int x = 0; x < noisy.getWidth(); x++) {
+                assertEquals(getPixel(direct, x, y), getPixel(fft, x, y), 1);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () ->
+                ImageUtility.convolve(noisy, kernel, ImageUtility.ConvolutionMethod.BOX));
+    }
+
+    @Test
+    void testChooseMethod() {
+        assertEquals(ImageUtility.ConvolutionMethod.DIRECT, ImageUtility.chooseMethod(1, 1, 1024, 1024, true));
+        assertEquals(ImageUtility.ConvolutionMethod.SEPARABLE, ImageUtility.chooseMethod(7, 7, 1024, 1024, true));
+        assertEquals(ImageUtility.ConvolutionMethod.BOX, ImageUtility.chooseMethod(61, 61, 1024, 1024, true));
+        assertEquals(ImageUtility.ConvolutionMethod.DIRECT, ImageUtility.chooseMethod(3, 3, 1024, 1024, false));
+        assertEquals(ImageUtility.ConvolutionMethod.FFT, ImageUtility.chooseMethod(61, 61, 1024, 1024, false));
+    }
+
+    /**
+     * A large radius selects the box approximation; a uniform region stays uniform away from the (zero) edges.
+     */
+    @Test
+    void testGaussianBlurBox() {
+        BufferedImage full = new BufferedImage(200, 150, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics graphics = full.getGraphics();
+        graphics.fillRect(0, 0, 200, 150);
+        Raster raster = ImageUtility.gaussianBlur(full, 30).getRaster();
+        assertEquals(255, getPixel(raster, 100, 75), 1);
+        assertTrue(getPixel(raster, 0, 0) < 128);
+        assertTrue(getPixel(raster, 0, 75) < getPixel(raster, 100, 75));
+        assertEquals(getPixel(raster, 0, 75), getPixel(raster, 199, 75), 1);
+    }
+
+    /**
+     * A sub-image shares its parent's buffer with a different layout, so its pixels are copied and written back.
+     */
+    @Test
+    void testGrayPixelsSubimage() {
+        BufferedImage sub = image.getSubimage(10, 20, 30, 40);
+        byte[] pixels = ImageUtility.grayPixels(sub);
+        assertEquals(30 * 40, pixels.length);
+        assertEquals(getPixel(image.getRaster(), 15, 25), pixels[5 * 30 + 5] & 0xFF);
+        pixels[5 * 30 + 5] = (byte) 200;
+        ImageUtility.setGrayPixels(sub, pixels);
+        assertEquals(200, getPixel(image.getRaster(), 15, 25));
+        assertSame(ImageUtility.grayPixels(image), ImageUtility.grayPixels(image));
+        assertThrows(IllegalArgumentException.class, () ->
+                ImageUtility.grayPixels(new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB)));
+    }
+
     @Test
     void testScale() {
         for (double scale = 0.01; scale <= 20.0; scale *= 2) {
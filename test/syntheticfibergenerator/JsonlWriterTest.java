@@ -0,0 +1,106 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class JsonlWriterTest {
+
+    private static final int N_RECORDS = 7;
+
+    @TempDir
+    Path folder;
+
+
+    @Test
+    void testSingleShard() throws IOException {
+        String prefix = folder.resolve("data").toString();
+        writeRecords(prefix, N_RECORDS, 1);
+        List<String> lines = Files.readAllLines(folder.resolve("data.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(N_RECORDS, lines.size());
+        for (int i = 0; i < N_RECORDS; i++) {
+            assertEquals(record(i), lines.get(i));
+        }
+        checkRecords(prefix, N_RECORDS);
+    }
+
+    /**
+     * Seven records in three shards fill the shards with three, three, and one records.
+     */
+    @Test
+    void testShards() throws IOException {
+        String prefix = folder.resolve("data").toString();
+        writeRecords(prefix, N_RECORDS, 3);
+        assertFalse(Files.exists(folder.resolve("data.jsonl")));
+        assertEquals(3, Files.readAllLines(folder.resolve("data-0.jsonl")).size());
+        assertEquals(3, Files.readAllLines(folder.resolve("data-1.jsonl")).size());
+        assertEquals(1, Files.readAllLines(folder.resolve("data-2.jsonl")).size());
+        checkRecords(prefix, N_RECORDS);
+        assertEquals(JsonlWriter.INDEX_HEADER_BYTES + N_RECORDS * JsonlWriter.INDEX_ENTRY_BYTES,
+                Files.size(folder.resolve("data.index")));
+    }
+
+    /**
+     * More shards than records leaves one record per shard.
+     */
+    @Test
+    void testExtraShards() throws IOException {
+        String prefix = folder.resolve("data").toString();
+        writeRecords(prefix, 2, 5);
+        assertTrue(Files.exists(folder.resolve("data-1.jsonl")));
+        assertFalse(Files.exists(folder.resolve("data-2.jsonl")));
+        checkRecords(prefix, 2);
+    }
+
+    /**
+     * An unfinished dataset's index covers just the records written.
+     */
+    @Test
+    void testPartial() throws IOException {
+        String prefix = folder.resolve("data").toString();
+        try (JsonlWriter writer = new JsonlWriter(prefix, N_RECORDS, 2)) {
+            writer.write(0, record(0).getBytes(StandardCharsets.UTF_8));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(2, new byte[0]));
+            writer.write(1, record(1).getBytes(StandardCharsets.UTF_8));
+        }
+        checkRecords(prefix, 2);
+        assertThrows(IllegalArgumentException.class, () -> JsonlWriter.readRecord(prefix, 2));
+        assertThrows(IllegalArgumentException.class, () -> new JsonlWriter(prefix, N_RECORDS, 0));
+    }
+
+    private static void writeRecords(String prefix, int nRecords, int nShards) throws IOException {
+        try (JsonlWriter writer = new JsonlWriter(prefix, nRecords, nShards)) {
+            for (int i = 0; i < nRecords; i++) {
+                writer.write(i, record(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Reads the records in reverse, so that each is found through the index rather than by position.
+     */
+    private static void checkRecords(String prefix, int nRecords) throws IOException {
+        for (int i = nRecords - 1; i >= 0; i--) {
+            assertEquals(record(i), new String(JsonlWriter.readRecord(prefix, i), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Records of varying length, including non-ASCII characters.
+     */
+    private static String record(int index) {
+        StringBuilder builder = new StringBuilder("{\"fibers\":[");
+        for (int i = 0; i < index; i++) {
+            builder.append(i == 0 ? "" : ",").append("{\"x\":").append(i * 0.5).append('}');
+        }
+        return builder.append("],\"note\":\"µ").append(index).append("\"}").toString();
+    }
+}
@@ -3,6 +3,7 @@ package syntheticfibergenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.*;
 import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -10,6 +11,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class MiscUtilityTest {
 
+    private RngUtility rng;
+
     private static final double DELTA = 1e-6;
 
     private static final double MIN_VAL = -1e6;
@@ -21,7 +24,7 @@ class MiscUtilityTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng.setSeed(1);
+        rng = new RngUtility(1);
     }
 
     @Test
@@ -50,7 +53,7 @@ class MiscUtilityTest {
         ArrayList<Vector> points = new ArrayList<>();
         int nPoints = 100;
         for (int i = 0; i < nPoints; i++) {
-            points.add(RngUtility.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL));
+            points.add(rng.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL));
         }
         ArrayList<Vector> recon = MiscUtility.fromDeltas(MiscUtility.toDeltas(points), points.get(0));
         assertTrue(TestUtility.elementWiseEqual(points, recon, DELTA));
@@ -72,5 +75,22 @@ class MiscUtilityTest {
         assertEquals(start, points.get(0));
     }
 
+    @Test
+    void testVarLong() throws IOException {
+        long[] values = {0, 1, -1, 63, -64, 64, -65, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            MiscUtility.writeVarLong(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, MiscUtility.readVarLong(in));
+        }
+        assertEquals(0, in.available());
 
+        bytes.reset();
+        MiscUtility.writeVarLong(out, -64);
+        assertEquals(1, bytes.size());
+    }
 }
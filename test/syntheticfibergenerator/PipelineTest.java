@@ -0,0 +1,122 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PipelineTest {
+
+    private static final int N_ITEMS = 200;
+
+
+    /**
+     * Items finish out of order in multi-worker stages but reach the sink in index order.
+     */
+    @Test
+    void testOrdering() throws Exception {
+        Pipeline<Integer> pipeline = new Pipeline<Integer>(3)
+                .addStage(4, (index, item) -> index)
+                .addStage(3, (index, item) -> {
+                    Thread.sleep((index * 7) % 3);
+                    return item * 2;
+                })
+                .addStage(1, (index, item) -> item + 1);
+        ArrayList<Integer> results = new ArrayList<>();
+        pipeline.run(N_ITEMS, (index, item) -> {
+            assertEquals(results.size(), index);
+            results.add(item);
+        });
+        assertEquals(N_ITEMS, results.size());
+        for (int i = 0; i < N_ITEMS; i++) {
+            assertEquals(2 * i + 1, (int) results.get(i));
+        }
+    }
+
+    /**
+     * A full queue stops earlier stages from running ahead.
+     */
+    @Test
+    void testBackpressure() throws Exception {
+        AtomicInteger produced = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        Pipeline<Integer> pipeline = new Pipeline<Integer>(2)
+                .addStage(1, (index, item) -> {
+                    int ahead = produced.incrementAndGet() - consumed.get();
+                    maxAhead.accumulateAndGet(ahead, Math::max);
+                    return index;
+                })
+                .addStage(1, (index, item) -> {
+                    Thread.sleep(1);
+                    return item;
+                });
+        pipeline.run(50, (index, item) -> consumed.incrementAndGet());
+        assertTrue(maxAhead.get() <= 8);
+    }
+
+    /**
+     * While the first item is stalled, later items stop being started once the reorder window is full, rather than all
+     * finishing and waiting in memory.
+     */
+    @Test
+    void testReorderWindow() throws Exception {
+        AtomicInteger maxStarted = new AtomicInteger();
+        AtomicInteger consumed = new AtomicInteger();
+        Pipeline<Integer> pipeline = new Pipeline<Integer>(2)
+                .addStage(4, (index, item) -> {
+                    if (index == 0) {
+                        Thread.sleep(200);
+                    } else if (consumed.get() == 0) {
+                        maxStarted.accumulateAndGet(index, Math::max);
+                    }
+                    return index;
+                });
+        pipeline.run(N_ITEMS, (index, item) -> consumed.incrementAndGet());
+        assertEquals(N_ITEMS, consumed.get());
+        assertTrue(maxStarted.get() < 4 + 1 + 2 * 2);
+    }
+
+    @Test
+    void testFailure() {
+        Pipeline<Integer> pipeline = new Pipeline<Integer>(2)
+                .addStage(2, (index, item) -> {
+                    if (index == 17) {
+                        throw new IllegalStateException("Failed on " + index);
+                    }
+                    return index;
+                });
+        IllegalStateException e = assertThrows(IllegalStateException.class, () ->
+                pipeline.run(N_ITEMS, (index, item) -> { }));
+        assertEquals("Failed on 17", e.getMessage());
+    }
+
+    /**
+     * An Error in a worker ends that worker's thread, so it must stop the run rather than leave the sink waiting for
+     * an item which will never arrive.
+     */
+    @Test
+    void testError() {
+        Pipeline<Integer> pipeline = new Pipeline<Integer>(2)
+                .addStage(2, (index, item) -> {
+                    if (index == 17) {
+                        throw new StackOverflowError("Failed on " + index);
+                    }
+                    return index;
+                })
+                .addStage(1, (index, item) -> item);
+        StackOverflowError e = assertTimeoutPreemptively(Duration.ofSeconds(10), () ->
+                assertThrows(StackOverflowError.class, () -> pipeline.run(N_ITEMS, (index, item) -> { })));
+        assertEquals("Failed on 17", e.getMessage());
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new Pipeline<Integer>(0));
+        assertThrows(IllegalArgumentException.class, () -> new Pipeline<Integer>(1).addStage(0, (i, x) -> x));
+    }
+}
@@ -0,0 +1,111 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PngEncoderTest {
+
+    // Large enough to be compressed in several stripes
+    private static final int WIDTH = 1100;
+    private static final int HEIGHT = 700;
+
+    private static final int[] LEVELS = {0, 1, 6, 9};
+
+
+    @Test
+    void testRoundTrip() throws IOException {
+        BufferedImage image = testImage(WIDTH, HEIGHT);
+        for (int level : LEVELS) {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(PngEncoder.encode(image, level)));
+            assertTrue(TestUtility.pixelWiseEqual(image, decoded));
+        }
+    }
+
+    @Test
+    void testSmallImages() throws IOException {
+        int[][] sizes = {{1, 1}, {1, 50}, {50, 1}, {3, 2}};
+        for (int[] size : sizes) {
+            BufferedImage image = testImage(size[0], size[1]);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(PngEncoder.encode(image, 6)));
+            assertTrue(TestUtility.pixelWiseEqual(image, decoded));
+        }
+    }
+
+    /**
+     * Inflates the concatenated IDAT data, which checks the zlib header and the Adler-32 of the whole stream.
+     */
+    @Test
+    void testZlibStream() throws DataFormatException {
+        for (int level : LEVELS) {
+            ByteBuffer png = ByteBuffer.wrap(PngEncoder.encode(testImage(WIDTH, HEIGHT), level));
+            png.position(8);
+            Inflater inflater = new Inflater();
+            byte[] raw = new byte[HEIGHT * (WIDTH + 1)];
+            int total = 0;
+            while (png.remaining() > 0) {
+                int length = png.getInt();
+                byte[] type = new byte[4];
+                png.get(type);
+                byte[] data = new byte[length];
+                png.get(data);
+                png.getInt();
+                if (new String(type).equals("IDAT")) {
+                    inflater.setInput(data);
+                    total += inflater.inflate(raw, total, raw.length - total);
+                }
+            }
+            assertTrue(inflater.finished());
+            assertEquals(raw.length, total);
+            inflater.end();
+        }
+    }
+
+    @Test
+    void testLevelsAffectSize() {
+        BufferedImage image = testImage(WIDTH, HEIGHT);
+        assertTrue(PngEncoder.encode(image, 9).length < PngEncoder.encode(image, 0).length);
+    }
+
+    @Test
+    void testVerifyLevel() {
+        assertThrows(IllegalArgumentException.class, () -> PngEncoder.verifyLevel(-1));
+        assertThrows(IllegalArgumentException.class, () -> PngEncoder.verifyLevel(10));
+        assertThrows(IllegalArgumentException.class, () -> PngEncoder.encode(testImage(2, 2), 11));
+        PngEncoder.verifyLevel(0);
+        PngEncoder.verifyLevel(9);
+    }
+
+    /**
+     * An image with smooth gradients, flat regions, and noise, so that every filter type gets used.
+     */
+    private static BufferedImage testImage(int width, int height) {
+        RngUtility rng = new RngUtility(3);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ImageUtility.grayPixels(image);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value;
+                if (y < height / 3) {
+                    value = x + y;
+                } else if (y < 2 * height / 3) {
+                    value = x < width / 2 ? 0 : 200;
+                } else {
+                    value = (int) rng.nextDouble(0, 256);
+                }
+                pixels[y * width + x] = (byte) value;
+            }
+        }
+        ImageUtility.setGrayPixels(image, pixels);
+        return image;
+    }
+}
@@ -0,0 +1,95 @@
+package syntheticfibergenerator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class RasterizerTest {
+
+    private RngUtility rng;
+
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 40;
+    private static final int N_LOOPS = 200;
+    private static final double EPSILON = 1e-9;
+
+
+    @BeforeEach
+    void setUp() {
+        rng = new RngUtility(1);
+    }
+
+    /**
+     * Compares random capsules (including ones partly outside the image) with a per-pixel distance test.
+     */
+    @Test
+    void testFillCapsule() {
+        for (int i = 0; i < N_LOOPS; i++) {
+            Vector start = rng.nextPoint(-10, WIDTH + 10, -10, HEIGHT + 10);
+            Vector end = i % 10 == 0 ? start : rng.nextPoint(-10, WIDTH + 10, -10, HEIGHT + 10);
+            double width = rng.nextDouble(0.1, 12.0);
+            byte[] pixels = new byte[WIDTH * HEIGHT];
+            Rasterizer.fillCapsule(pixels, WIDTH, HEIGHT, start.getX(), start.getY(), end.getX(), end.getY(), width,
+                    0xFF);
+            double radius = Math.max(0.5, width / 2.0);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    double dist = segmentDist(new Vector(x + 0.5, y + 0.5), start, end);
+                    if (Math.abs(dist - radius) < EPSILON) {
+                        continue;
+                    }
+                    assertEquals(dist < radius ? 0xFF : 0, pixels[y * WIDTH + x] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCoverCapsule() {
+        for (int i = 0; i < N_LOOPS; i++) {
+            Vector start = rng.nextPoint(-10, WIDTH + 10, -10, HEIGHT + 10);
+            Vector end = i % 10 == 0 ? start : rng.nextPoint(-10, WIDTH + 10, -10, HEIGHT + 10);
+            double width = rng.nextDouble(0.1, 12.0);
+            byte[] pixels = new byte[WIDTH * HEIGHT];
+            Rasterizer.coverCapsule(pixels, WIDTH, HEIGHT, start.getX(), start.getY(), end.getX(), end.getY(), width,
+                    0xFF);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    double dist = segmentDist(new Vector(x + 0.5, y + 0.5), start, end);
+                    double coverage = Math.max(0.0, Math.min(1.0, width / 2.0 - dist + 0.5));
+                    assertEquals(coverage * 0xFF, pixels[y * WIDTH + x] & 0xFF, 0.5 + EPSILON);
+                }
+            }
+        }
+    }
+
+    /**
+     * Coverage never darkens a pixel which is already brighter.
+     */
+    @Test
+    void testCoverCapsuleMaxBlend() {
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        Rasterizer.coverCapsule(pixels, WIDTH, HEIGHT, 10.0, 10.0, 30.0, 10.0, 4.0, 0xFF);
+        Rasterizer.coverCapsule(pixels, WIDTH, HEIGHT, 10.0, 11.0, 30.0, 11.0, 4.0, 0x80);
+        assertEquals(0xFF, pixels[10 * WIDTH + 20] & 0xFF);
+        assertEquals(0x80, pixels[12 * WIDTH + 20] & 0xFF);
+    }
+
+    @Test
+    void testVerifyMode() {
+        Rasterizer.verifyMode(Rasterizer.SCANLINE);
+        Rasterizer.verifyMode(Rasterizer.JAVA2D);
+        Rasterizer.verifyMode(Rasterizer.ANTIALIASED);
+        assertThrows(IllegalArgumentException.class, () -> Rasterizer.verifyMode("opengl"));
+    }
+
+    private static double segmentDist(Vector point, Vector start, Vector end) {
+        Vector delta = end.subtract(start);
+        double lengthSq = delta.dotProduct(delta);
+        double t = lengthSq == 0.0 ? 0.0 : point.subtract(start).dotProduct(delta) / lengthSq;
+        t = Math.max(0.0, Math.min(1.0, t));
+        return point.subtract(start.add(delta.scalarMultiply(t))).getNorm();
+    }
+}
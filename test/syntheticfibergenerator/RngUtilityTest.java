@@ -4,12 +4,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
 class RngUtilityTest {
 
+    private RngUtility rng;
+
     private static final int N_LOOPS = 100;
     private static final double DELTA = 1e-6;
 
@@ -19,7 +24,7 @@ class RngUtilityTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng.setSeed(1);
+        rng = new RngUtility(1);
     }
 
     @Test
@@ -29,7 +34,7 @@ class RngUtilityTest {
         double yMin = 500.3;
         double yMax = 988.1;
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector point = RngUtility.nextPoint(xMin, xMax, yMin, yMax);
+            Vector point = rng.nextPoint(xMin, xMax, yMin, yMax);
             assertTrue(point.getX() >= xMin && point.getX() < xMax);
             assertTrue(point.getY() >= yMin && point.getY() < yMax);
         }
@@ -42,7 +47,7 @@ class RngUtilityTest {
         double yMin = 500.3;
         double yMax = 988.1;
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.nextPoint(xMin, xMax, yMin, yMax));
+                rng.nextPoint(xMin, xMax, yMin, yMax));
     }
 
     @Test
@@ -51,7 +56,7 @@ class RngUtilityTest {
         double xMax = 356.2;
         double y = 500.3;
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector point = RngUtility.nextPoint(xMin, xMax, y, y);
+            Vector point = rng.nextPoint(xMin, xMax, y, y);
             assertEquals(y, point.getY());
             assertTrue(point.getX() >= xMin && point.getX() < xMax);
         }
@@ -62,7 +67,7 @@ class RngUtilityTest {
         double x = -10.0;
         double y = 500.3;
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector point = RngUtility.nextPoint(x, x, y, y);
+            Vector point = rng.nextPoint(x, x, y, y);
             assertEquals(x, point.getX());
             assertEquals(y, point.getY());
         }
@@ -73,7 +78,7 @@ class RngUtilityTest {
         double min = 3.14;
         double max = 18.2;
         for (int i = 0; i < N_LOOPS; i++) {
-            double val = RngUtility.nextDouble(min, max);
+            double val = rng.nextDouble(min, max);
             assertTrue(val >= min && val < max);
         }
     }
@@ -83,14 +88,14 @@ class RngUtilityTest {
         double min = 18.2;
         double max = 3.14;
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.nextDouble(min, max));
+                rng.nextDouble(min, max));
     }
 
     @Test
     void testRandomDoubleZeroWidth() {
         double val = 18.2;
         for (int i = 0; i < 100; i++) {
-            assertEquals(val, RngUtility.nextDouble(val, val));
+            assertEquals(val, rng.nextDouble(val, val));
         }
     }
 
@@ -99,7 +104,7 @@ class RngUtilityTest {
         int min = 17;
         int max = 312;
         for (int i = 0; i < N_LOOPS; i++) {
-            int val = RngUtility.nextInt(min, max);
+            int val = rng.nextInt(min, max);
             assertTrue(val >= min && val < max);
         }
     }
@@ -109,14 +114,14 @@ class RngUtilityTest {
         int min = 312;
         int max = 17;
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.nextInt(min, max));
+                rng.nextInt(min, max));
     }
 
     @Test
     void testRandomIntZeroWidth() {
         int val = 312;
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.nextInt(val, val));
+                rng.nextInt(val, val));
     }
 
     @Test
@@ -125,7 +130,7 @@ class RngUtilityTest {
         double stepSize = 7.0;
         Vector start = new Vector(0.0, 0.0);
         Vector end = new Vector(-1, 1).normalize().scalarMultiply(0.7 * nSteps * stepSize);
-        ArrayList<Vector> chain = RngUtility.randomChain(start, end, nSteps, stepSize);
+        ArrayList<Vector> chain = rng.randomChain(start, end, nSteps, stepSize);
         assertEquals(start, chain.get(0));
         assertEquals(end, chain.get(chain.size() - 1));
         Vector prev = chain.get(0);
@@ -136,6 +141,46 @@ class RngUtilityTest {
         }
     }
 
+    /**
+     * A chain of a million steps, written into the middle of a larger array.
+     */
+    @Test
+    void testLongChain() {
+        int nSteps = 1_000_000;
+        int offset = 3;
+        double[] x = new double[nSteps + 2 * offset];
+        double[] y = new double[nSteps + 2 * offset];
+        rng.randomChain(10.0, -5.0, 10.0 + 0.5 * nSteps, -5.0, nSteps, 1.0, x, y, offset);
+        assertEquals(0.0, x[offset - 1]);
+        assertEquals(0.0, x[offset + nSteps + 1]);
+        assertEquals(10.0, x[offset]);
+        assertEquals(-5.0, y[offset + nSteps]);
+        for (int i = offset + 1; i <= offset + nSteps; i++) {
+            assertEquals(1.0, Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]), DELTA);
+        }
+    }
+
+    /**
+     * Chains built by fork/join tasks are the same whatever the number of threads, and a threshold of at least the
+     * number of steps gives the single-threaded chain.
+     */
+    @Test
+    void testForkChain() throws InterruptedException, ExecutionException {
+        int nSteps = 200_000;
+        double[][] serial = forkChain(nSteps, 0, 1);
+        double[][] oneThread = forkChain(nSteps, 1000, 1);
+        double[][] fourThreads = forkChain(nSteps, 1000, 4);
+        assertArrayEquals(oneThread[0], fourThreads[0]);
+        assertArrayEquals(oneThread[1], fourThreads[1]);
+        assertFalse(Arrays.equals(serial[0], oneThread[0]));
+        assertArrayEquals(serial[0], forkChain(nSteps, nSteps, 4)[0]);
+        for (int i = 1; i <= nSteps; i++) {
+            assertEquals(1.0, Math.hypot(fourThreads[0][i] - fourThreads[0][i - 1],
+                    fourThreads[1][i] - fourThreads[1][i - 1]), DELTA);
+        }
+        assertThrows(IllegalArgumentException.class, () -> rng.setForkThreshold(-1));
+    }
+
     @Test
     void testRandomChainExceptions() {
         int nSteps = 23;
@@ -143,13 +188,13 @@ class RngUtilityTest {
         Vector start = new Vector(0.0, 0.0);
         Vector end = new Vector(-1, 1).normalize().scalarMultiply(0.7 * nSteps * stepSize);
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.randomChain(start, end, 0, stepSize));
+                rng.randomChain(start, end, 0, stepSize));
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.randomChain(start, end, -10, stepSize));
+                rng.randomChain(start, end, -10, stepSize));
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.randomChain(start, end, nSteps, 0.0));
+                rng.randomChain(start, end, nSteps, 0.0));
         assertThrows(IllegalArgumentException.class, () ->
-                RngUtility.randomChain(start, end, nSteps, -7.0));
+                rng.randomChain(start, end, nSteps, -7.0));
     }
 
     @Test
@@ -159,6 +204,43 @@ class RngUtilityTest {
         Vector start = new Vector(0.0, 0.0);
         Vector end = new Vector(-1, 1).normalize().scalarMultiply(1.1 * nSteps * stepSize);
         assertThrows(ArithmeticException.class, () ->
-                RngUtility.randomChain(start, end, nSteps, stepSize));
+                rng.randomChain(start, end, nSteps, stepSize));
+    }
+
+    @Test
+    void testSampler() {
+        assertEquals(RngUtility.EXACT_SAMPLER, rng.getSampler());
+        assertThrows(IllegalArgumentException.class, () -> rng.setSampler("inverse"));
+        rng.setSampler(RngUtility.REJECTION_SAMPLER);
+        assertEquals(RngUtility.REJECTION_SAMPLER, rng.split().getSampler());
+
+        // Rejections are only counted by the rejection sampler
+        RngUtility exact = new RngUtility(1);
+        for (int i = 0; i < N_LOOPS; i++) {
+            rng.randomChain(new Vector(), new Vector(20, 20), 40, 1.0);
+            exact.randomChain(new Vector(), new Vector(20, 20), 40, 1.0);
+        }
+        assertTrue(rng.getRejections() > 0);
+        assertEquals(0, exact.getRejections());
+    }
+
+    /**
+     * Builds a chain in a pool of {@code nThreads} threads.
+     *
+     * @return The x- and y-coordinates of the chain
+     */
+    private static double[][] forkChain(int nSteps, int threshold, int nThreads)
+            throws InterruptedException, ExecutionException {
+        RngUtility forkRng = new RngUtility(1);
+        forkRng.setForkThreshold(threshold);
+        double[][] chain = new double[2][nSteps + 1];
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            pool.submit(() -> forkRng.randomChain(0.0, 0.0, 0.3 * nSteps, 0.4 * nSteps, nSteps, 1.0, chain[0],
+                    chain[1], 0)).get();
+        } finally {
+            pool.shutdown();
+        }
+        return chain;
     }
 }
@@ -0,0 +1,312 @@
+package syntheticfibergenerator;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class StackWriterTest {
+
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+    private static final int N_IMAGES = 5;
+
+    @TempDir
+    Path folder;
+
+
+    @Test
+    void testVerifyType() {
+        StackWriter.verifyType(NpyWriter.typename);
+        StackWriter.verifyType(ZarrWriter.typename);
+        StackWriter.verifyType(TiffWriter.typename);
+        assertThrows(IllegalArgumentException.class, () -> StackWriter.verifyType("hdf5"));
+    }
+
+    @Test
+    void testNpy() throws IOException {
+        String prefix = folder.resolve("images").toString();
+        BufferedImage[] images = new BufferedImage[N_IMAGES];
+        try (StackWriter writer = StackWriter.create(NpyWriter.typename, prefix, N_IMAGES, 6)) {
+            for (int i = 0; i < N_IMAGES; i++) {
+                images[i] = testImage(i);
+                writer.write(i, images[i]);
+            }
+        }
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(folder.resolve("images.npy")));
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[6];
+        file.get(magic);
+        assertArrayEquals(new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'}, magic);
+        assertEquals(1, file.get());
+        assertEquals(0, file.get());
+        int headerLength = file.getShort() & 0xFFFF;
+        int dataStart = 10 + headerLength;
+        assertEquals(0, dataStart % 64);
+        String header = new String(file.array(), 10, headerLength, StandardCharsets.US_ASCII);
+        assertTrue(header.startsWith("{'descr': '|u1', 'fortran_order': False, 'shape': (5, 23, 37), }"));
+        assertTrue(header.endsWith("\n"));
+        assertEquals(dataStart + N_IMAGES * WIDTH * HEIGHT, file.capacity());
+        for (int i = 0; i < N_IMAGES; i++) {
+            int start = dataStart + i * WIDTH * HEIGHT;
+            byte[] stored = Arrays.copyOfRange(file.array(), start, start + WIDTH * HEIGHT);
+            assertArrayEquals(ImageUtility.grayPixels(images[i]), stored);
+        }
+    }
+
+    @Test
+    void testMismatchedImages() throws IOException {
+        String prefix = folder.resolve("images").toString();
+        try (StackWriter writer = StackWriter.create(NpyWriter.typename, prefix, N_IMAGES, 6)) {
+            writer.write(0, testImage(0));
+            BufferedImage wrongSize = new BufferedImage(WIDTH + 1, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(1, wrongSize));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(N_IMAGES, testImage(1)));
+            BufferedImage wrongType = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(1, wrongType));
+        }
+    }
+
+    /**
+     * Uses a chunk size which doesn't divide the image, so edge chunks are padded. Every other image is prepared out of
+     * order before the images are written, as the pipeline does.
+     */
+    @Test
+    void testZarr() throws IOException, DataFormatException {
+        int chunkSize = 16;
+        Path directory = folder.resolve("images.zarr");
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("9.9.9"), new byte[]{1});
+        BufferedImage[] images = new BufferedImage[N_IMAGES];
+        try (StackWriter writer = new ZarrWriter(directory.toString(), N_IMAGES, 1, chunkSize)) {
+            for (int i = 0; i < N_IMAGES - 1; i++) {
+                images[i] = testImage(i);
+            }
+            for (int i = N_IMAGES - 2; i >= 0; i -= 2) {
+                writer.prepare(i, images[i]);
+            }
+            assertFalse(Files.exists(directory.resolve(".zarray")));
+            for (int i = 0; i < N_IMAGES - 1; i++) {
+                writer.write(i, images[i]);
+            }
+        }
+        assertFalse(Files.exists(directory.resolve("9.9.9")));
+
+        JsonObject meta = new JsonParser().parse(new String(Files.readAllBytes(directory.resolve(".zarray")),
+                StandardCharsets.US_ASCII)).getAsJsonObject();
+        assertEquals(2, meta.get("zarr_format").getAsInt());
+        assertEquals("|u1", meta.get("dtype").getAsString());
+        assertEquals("zlib", meta.getAsJsonObject("compressor").get("id").getAsString());
+        assertEquals("C", meta.get("order").getAsString());
+        JsonArray shape = meta.getAsJsonArray("shape");
+        assertEquals(N_IMAGES, shape.get(0).getAsInt());
+        assertEquals(HEIGHT, shape.get(1).getAsInt());
+        assertEquals(WIDTH, shape.get(2).getAsInt());
+        assertEquals(chunkSize, meta.getAsJsonArray("chunks").get(1).getAsInt());
+
+        int rows = (HEIGHT + chunkSize - 1) / chunkSize;
+        int cols = (WIDTH + chunkSize - 1) / chunkSize;
+        for (int i = 0; i < N_IMAGES - 1; i++) {
+            byte[] pixels = ImageUtility.grayPixels(images[i]);
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    byte[] chunk = inflate(Files.readAllBytes(directory.resolve(i + "." + row + '.' + col)),
+                            chunkSize * chunkSize);
+                    for (int r = 0; r < chunkSize; r++) {
+                        for (int c = 0; c < chunkSize; c++) {
+                            int y = row * chunkSize + r;
+                            int x = col * chunkSize + c;
+                            byte expected = y < HEIGHT && x < WIDTH ? pixels[y * WIDTH + x] : 0;
+                            assertEquals(expected, chunk[r * chunkSize + c]);
+                        }
+                    }
+                }
+            }
+        }
+        assertFalse(Files.exists(directory.resolve((N_IMAGES - 1) + ".0.0")));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".partial")));
+        }
+    }
+
+    /**
+     * The stack has an odd number of bytes, so the IFDs need padding to a word boundary.
+     */
+    @Test
+    void testTiff() throws IOException {
+        for (boolean big : new boolean[]{false, true}) {
+            Path file = folder.resolve(big ? "big.tiff" : "classic.tiff");
+            BufferedImage[] images = new BufferedImage[N_IMAGES];
+            try (StackWriter writer = new TiffWriter(file.toString(), N_IMAGES, big)) {
+                for (int i = 0; i < N_IMAGES; i++) {
+                    images[i] = testImage(i);
+                    writer.write(i, images[i]);
+                }
+            }
+            ArrayList<byte[]> pages = readTiff(Files.readAllBytes(file), big);
+            assertEquals(N_IMAGES, pages.size());
+            for (int i = 0; i < N_IMAGES; i++) {
+                assertArrayEquals(ImageUtility.grayPixels(images[i]), pages.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testPartialTiff() throws IOException {
+        Path file = folder.resolve("partial.tiff");
+        BufferedImage first = testImage(0);
+        try (StackWriter writer = StackWriter.create(TiffWriter.typename, folder.resolve("partial").toString(),
+                N_IMAGES, 6)) {
+            writer.write(0, first);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(2, testImage(2)));
+        }
+        ArrayList<byte[]> pages = readTiff(Files.readAllBytes(file), false);
+        assertEquals(N_IMAGES, pages.size());
+        assertArrayEquals(ImageUtility.grayPixels(first), pages.get(0));
+        assertArrayEquals(new byte[WIDTH * HEIGHT], pages.get(N_IMAGES - 1));
+    }
+
+    /**
+     * In a BigTIFF, out-of-line values such as the description can lie past 4 GB, so their offsets take all eight
+     * bytes of the entry's value field; inline values are still stored at their own size.
+     */
+    @Test
+    void testTiffEntryOffsets() {
+        long farOffset = (5L << 32) + 6;
+        ByteBuffer ifd = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        TiffWriter.putEntry(ifd, true, (short) 270, (short) 2, 60, farOffset);
+        TiffWriter.putEntry(ifd, true, (short) 257, (short) 4, 1, 7);
+        TiffWriter.putEntry(ifd, true, (short) 258, (short) 3, 1, 8);
+        assertEquals(60, ifd.position());
+        ifd.flip();
+        for (long[] expected : new long[][]{{270, 2, 60, farOffset}, {257, 4, 1, 7}, {258, 3, 1, 8}}) {
+            assertEquals(expected[0], ifd.getShort());
+            assertEquals(expected[1], ifd.getShort());
+            long count = ifd.getLong();
+            assertEquals(expected[2], count);
+            assertEquals(expected[3], readEntryValue(ifd, true, (int) expected[1], count));
+        }
+
+        ifd.clear();
+        TiffWriter.putEntry(ifd, false, (short) 270, (short) 2, 60, 0xFFFFFFF0L);
+        ifd.flip();
+        ifd.position(4);
+        int count = ifd.getInt();
+        assertEquals(0xFFFFFFF0L, readEntryValue(ifd, false, 2, count));
+    }
+
+    /**
+     * Walks the IFDs of a little-endian TIFF, checking the tags and returning each page's pixels.
+     */
+    private static ArrayList<byte[]> readTiff(byte[] contents, boolean big) {
+        ByteBuffer file = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals('I', file.get());
+        assertEquals('I', file.get());
+        assertEquals(big ? 43 : 42, file.getShort());
+        long offset;
+        if (big) {
+            assertEquals(8, file.getShort());
+            assertEquals(0, file.getShort());
+            offset = file.getLong();
+        } else {
+            offset = file.getInt() & 0xFFFFFFFFL;
+        }
+        ArrayList<byte[]> pages = new ArrayList<>();
+        while (offset != 0) {
+            assertEquals(0, offset % 2);
+            file.position((int) offset);
+            long count = big ? file.getLong() : file.getShort();
+            HashMap<Integer, Long> tags = new HashMap<>();
+            HashMap<Integer, Long> counts = new HashMap<>();
+            int previous = -1;
+            for (int i = 0; i < count; i++) {
+                int tag = file.getShort() & 0xFFFF;
+                int type = file.getShort();
+                long valueCount = big ? file.getLong() : file.getInt();
+                counts.put(tag, valueCount);
+                long value = readEntryValue(file, big, type, valueCount);
+                assertTrue(tag > previous);
+                previous = tag;
+                tags.put(tag, value);
+            }
+            offset = big ? file.getLong() : file.getInt() & 0xFFFFFFFFL;
+            assertEquals(WIDTH, (long) tags.get(256));
+            assertEquals(HEIGHT, (long) tags.get(257));
+            assertEquals(8, (long) tags.get(258));
+            assertEquals(1, (long) tags.get(259));
+            assertEquals(HEIGHT, (long) tags.get(278));
+            assertEquals(WIDTH * HEIGHT, (long) tags.get(279));
+            if (pages.isEmpty()) {
+                int start = tags.get(270).intValue();
+                String description = new String(contents, start, counts.get(270).intValue(),
+                        StandardCharsets.US_ASCII);
+                assertTrue(description.startsWith("ImageJ="));
+                assertTrue(description.contains("images=" + N_IMAGES + "\n"));
+                assertTrue(description.endsWith("\0"));
+            } else {
+                assertFalse(tags.containsKey(270));
+            }
+            int start = tags.get(273).intValue();
+            pages.add(Arrays.copyOfRange(contents, start, start + WIDTH * HEIGHT));
+        }
+        return pages;
+    }
+
+    /**
+     * Reads the value field of an IFD entry: the value itself if it fits in the field (checking the padding is zero),
+     * otherwise the offset of the values, which is as wide as the field.
+     */
+    private static long readEntryValue(ByteBuffer file, boolean big, int type, long count) {
+        int end = file.position() + (big ? 8 : 4);
+        long size = count * (type == 2 ? 1 : type == 3 ? 2 : type == 4 ? 4 : 8);
+        long value;
+        if (size > end - file.position()) {
+            value = big ? file.getLong() : file.getInt() & 0xFFFFFFFFL;
+        } else {
+            value = type == 3 ? file.getShort() & 0xFFFF : type == 16 ? file.getLong() : file.getInt() & 0xFFFFFFFFL;
+        }
+        while (file.position() < end) {
+            assertEquals(0, file.get());
+        }
+        return value;
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] result = new byte[length];
+        assertEquals(length, inflater.inflate(result));
+        assertTrue(inflater.finished());
+        inflater.end();
+        return result;
+    }
+
+    private static BufferedImage testImage(int seed) {
+        RngUtility rng = new RngUtility(seed);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ImageUtility.grayPixels(image);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) rng.nextDouble(0, 256);
+        }
+        ImageUtility.setGrayPixels(image, pixels);
+        return image;
+    }
+}
@@ -52,6 +52,14 @@ class TestUtility {
         return true;
     }
 
+    static int countForeground(BufferedImage image) {
+        int count = 0;
+        for (byte pixel : ImageUtility.grayPixels(image)) {
+            count += pixel != 0 ? 1 : 0;
+        }
+        return count;
+    }
+
     static boolean elementWiseEqual(ArrayList<Vector> expected, ArrayList<Vector> actual, double delta) {
         if (expected.size() != actual.size()) {
             return false;
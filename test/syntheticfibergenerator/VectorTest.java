@@ -9,6 +9,8 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class VectorTest {
 
+    private RngUtility rng;
+
     private static final int N_LOOPS = 100;
     private static final double DELTA = 1e-6;
 
@@ -24,14 +26,14 @@ class VectorTest {
      */
     @BeforeEach
     void setUp() {
-        RngUtility.rng.setSeed(1);
+        rng = new RngUtility(1);
     }
 
     @Test
     void testNormalize() {
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector vec = TestUtility.fromAngle(RngUtility.nextDouble(0.0, 2.0 * Math.PI));
-            vec = vec.scalarMultiply(RngUtility.nextDouble(MIN_NORM, MAX_NORM));
+            Vector vec = TestUtility.fromAngle(rng.nextDouble(0.0, 2.0 * Math.PI));
+            vec = vec.scalarMultiply(rng.nextDouble(MIN_NORM, MAX_NORM));
             assertEquals(1.0, vec.normalize().getNorm(), DELTA);
         }
     }
@@ -45,8 +47,8 @@ class VectorTest {
     @Test
     void testScalarMultiply() {
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector vec = TestUtility.fromAngle(RngUtility.nextDouble(0.0, 2.0 * Math.PI));
-            double norm = RngUtility.nextDouble(MIN_NORM, MAX_NORM);
+            Vector vec = TestUtility.fromAngle(rng.nextDouble(0.0, 2.0 * Math.PI));
+            double norm = rng.nextDouble(MIN_NORM, MAX_NORM);
             assertEquals(norm * vec.getX(), vec.scalarMultiply(norm).getX(), DELTA);
             assertEquals(norm * vec.getY(), vec.scalarMultiply(norm).getY(), DELTA);
         }
@@ -55,8 +57,8 @@ class VectorTest {
     @Test
     void testAdd() {
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector vec1 = RngUtility.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
-            Vector vec2 = RngUtility.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
+            Vector vec1 = rng.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
+            Vector vec2 = rng.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
             Vector sum = vec1.add(vec2);
             assertEquals(vec1.getX() + vec2.getX(), sum.getX(), DELTA);
             assertEquals(vec1.getY() + vec2.getY(), sum.getY(), DELTA);
@@ -66,8 +68,8 @@ class VectorTest {
     @Test
     void testSubtract() {
         for (int i = 0; i < N_LOOPS; i++) {
-            Vector vec1 = RngUtility.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
-            Vector vec2 = RngUtility.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
+            Vector vec1 = rng.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
+            Vector vec2 = rng.nextPoint(MIN_VAL, MAX_VAL, MIN_VAL, MAX_VAL);
             Vector diff = vec1.subtract(vec2);
             assertEquals(vec1.getX() - vec2.getX(), diff.getX(), DELTA);
             assertEquals(vec1.getY() - vec2.getY(), diff.getY(), DELTA);
@@ -77,8 +79,8 @@ class VectorTest {
     @Test
     void testTheta() {
         for (int i = 0; i < N_LOOPS; i++) {
-            double angle = RngUtility.nextDouble(-Math.PI, Math.PI);
-            double norm = RngUtility.nextDouble(MIN_NORM, MAX_NORM);
+            double angle = rng.nextDouble(-Math.PI, Math.PI);
+            double norm = rng.nextDouble(MIN_NORM, MAX_NORM);
             Vector vec = TestUtility.fromAngle(angle).scalarMultiply(norm);
             assertEquals(angle, vec.theta(), DELTA);
         }
@@ -87,8 +89,8 @@ class VectorTest {
     @Test
     void testAngleWith() {
         for (int i = 0; i < N_LOOPS; i++) {
-            double angle1 = RngUtility.nextDouble(0, Math.PI);
-            double angle2 = RngUtility.nextDouble(0, Math.PI);
+            double angle1 = rng.nextDouble(0, Math.PI);
+            double angle2 = rng.nextDouble(0, Math.PI);
             Vector vec1 = TestUtility.fromAngle(angle1);
             Vector vec2 = TestUtility.fromAngle(angle2);
             assertEquals(Math.abs(angle2 - angle1), vec1.angleWith(vec2), DELTA);